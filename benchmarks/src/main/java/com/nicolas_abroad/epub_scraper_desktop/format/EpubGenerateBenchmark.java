@@ -0,0 +1,107 @@
+package com.nicolas_abroad.epub_scraper_desktop.format;
+
+import com.nicolas_abroad.epub_scraper_desktop.ebook.Chapter;
+import com.nicolas_abroad.epub_scraper_desktop.ebook.Volume;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Benchmarks of epub generation, on synthetic volumes.
+ * Chapter texts are generated from a fixed seed, so results are comparable across commits.
+ *
+ * @author Nicolas
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EpubGenerateBenchmark {
+
+	private static final String CHARACTERS = "あいうえおかきくけこさしすせそたちつてとなにぬねのはひふへほまみむめもやゆよらりるれろわをん"
+			+ "日月火水木金土山川田人口目耳手足力心空海森林道喜光風雨雪花草鳥魚剣王城国町村";
+
+	/** Number of chapters of the volume */
+	@Param({"100", "1000", "10000"})
+	public int chapterCount;
+
+	/** Number of paragraphs of each chapter */
+	@Param({"80"})
+	public int paragraphCount;
+
+	private final EpubFormat epubFormat = new EpubFormat();
+
+	private Volume volume;
+
+	private Path directory;
+
+	@Setup
+	public void setUp() throws IOException {
+		Random random = new Random(42);
+		List<Chapter> chapters = new ArrayList<>(chapterCount);
+		for (int i = 1; i <= chapterCount; i++) {
+			Chapter chapter = new Chapter(null, "https://ncode.syosetu.com/n0000aa/" + i + "/");
+			chapter.setChapterNumber(i);
+			chapter.setTitle("第" + i + "話");
+			chapter.setText(generateText(random));
+			chapters.add(chapter);
+		}
+		volume = new Volume();
+		// Ascii file name, independent from the platform file name encoding
+		volume.setTitle("benchmark");
+		volume.setAuthor("作者");
+		volume.setVolumeNumber("01");
+		volume.setChapters(chapters);
+		directory = Files.createTempDirectory("epub-benchmark");
+	}
+
+	private String generateText(Random random) {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < paragraphCount; i++) {
+			text.append("<p>");
+			int length = 20 + random.nextInt(60);
+			for (int j = 0; j < length; j++) {
+				text.append(CHARACTERS.charAt(random.nextInt(CHARACTERS.length())));
+			}
+			text.append("。</p>");
+		}
+		return text.toString();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	@Benchmark
+	public Path generate() throws IOException {
+		epubFormat.generate(directory, volume);
+		return directory;
+	}
+
+}
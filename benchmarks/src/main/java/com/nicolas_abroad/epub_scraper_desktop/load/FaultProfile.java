@@ -0,0 +1,51 @@
+package com.nicolas_abroad.epub_scraper_desktop.load;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Faults injected by the load server.
+ * Latencies follow a log-normal distribution, as response times of real websites do: most responses are close
+ * to the median, and a long tail is slower. Throttling comes in bursts of 429 or 503 responses, and dropped
+ * connections are closed in the middle of the response body.
+ *
+ * @param medianLatency median latency of a response
+ * @param latencySigma standard deviation of the logarithm of the latency, 0 for a fixed latency
+ * @param throttleRate probability that a request starts a burst of throttled responses
+ * @param throttleBurstLength number of throttled responses of a burst
+ * @param dropRate probability that a response is dropped
+ * @author Nicolas
+ */
+public record FaultProfile(Duration medianLatency, double latencySigma, double throttleRate, int throttleBurstLength,
+		double dropRate) {
+
+	/** Profile without latency nor faults */
+	public static final FaultProfile NONE = new FaultProfile(Duration.ZERO, 0, 0, 0, 0);
+
+	public FaultProfile {
+		if (medianLatency.isNegative() || latencySigma < 0 || throttleRate < 0 || throttleRate > 1
+				|| throttleBurstLength < 0 || dropRate < 0 || dropRate > 1) {
+			throw new IllegalArgumentException("Invalid fault profile");
+		}
+	}
+
+	/** Draw the latency of a response */
+	Duration nextLatency() {
+		if (medianLatency.isZero()) {
+			return Duration.ZERO;
+		}
+		double factor = Math.exp(latencySigma * ThreadLocalRandom.current().nextGaussian());
+		return Duration.ofNanos((long) (medianLatency.toNanos() * factor));
+	}
+
+	/** Draw whether a request starts a burst of throttled responses */
+	boolean nextThrottleBurst() {
+		return throttleBurstLength > 0 && ThreadLocalRandom.current().nextDouble() < throttleRate;
+	}
+
+	/** Draw whether a response is dropped */
+	boolean nextDrop() {
+		return ThreadLocalRandom.current().nextDouble() < dropRate;
+	}
+
+}
@@ -0,0 +1,229 @@
+package com.nicolas_abroad.epub_scraper_desktop.load;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local http server standing in for the websites, serving synthetic stories with injected faults.
+ * Transports point at it through their base url, like the replay server:
+ * https://ncode.syosetu.com/n0001zz/ is requested as {base url}/ncode.syosetu.com/n0001zz/.
+ * Throttling bursts are tracked by host, so every request to a throttled host is rejected until the burst ends.
+ *
+ * @author Nicolas
+ */
+public class LoadServer implements AutoCloseable {
+
+	private static final Pattern SYOSETSU_PATH = Pattern.compile("^/(n\\d{4}[a-z]{1,2})/(?:(\\d+)/)?$");
+
+	private static final Pattern KAKUYOMU_PATH = Pattern.compile("^/works/(\\d+)(?:/episodes/(\\d+))?/?$");
+
+	private static final Pattern PAGE_PARAMETER = Pattern.compile("(?:^|&)p=(\\d+)");
+
+	private static final String ADULT_HOST = "novel18.syosetu.com";
+
+	private final FaultProfile faults;
+
+	private final HttpServer httpServer;
+
+	private final ExecutorService requestExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+	/** Stories by id */
+	private final Map<String, SyntheticStory> stories = new ConcurrentHashMap<>();
+
+	/** Remaining throttled responses of the current burst, by host */
+	private final Map<String, AtomicInteger> throttleBursts = new ConcurrentHashMap<>();
+
+	private final LongAdder requests = new LongAdder();
+
+	private final LongAdder throttledResponses = new LongAdder();
+
+	private final LongAdder droppedResponses = new LongAdder();
+
+	/**
+	 * Create a new load server listening on the loopback address.
+	 *
+	 * @param port listening port, 0 for any free port
+	 * @param faults faults injected in responses
+	 * @throws IOException
+	 */
+	public LoadServer(int port, FaultProfile faults) throws IOException {
+		this.faults = faults;
+		this.httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		httpServer.createContext("/", this::handle);
+		httpServer.setExecutor(requestExecutor);
+	}
+
+	/**
+	 * Serve a story.
+	 *
+	 * @param story
+	 */
+	public void addStory(SyntheticStory story) {
+		stories.put(story.getId(), story);
+	}
+
+	/** Start accepting requests */
+	public void start() {
+		httpServer.start();
+	}
+
+	/** Get base url transports point at */
+	public String getBaseUrl() {
+		return "http://" + httpServer.getAddress().getHostString() + ":" + httpServer.getAddress().getPort();
+	}
+
+	/** Get number of requests received */
+	public long getRequestCount() {
+		return requests.sum();
+	}
+
+	/** Get number of 429 and 503 responses sent */
+	public long getThrottledCount() {
+		return throttledResponses.sum();
+	}
+
+	/** Get number of responses dropped in the middle of the body */
+	public long getDroppedCount() {
+		return droppedResponses.sum();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			requests.increment();
+			sleep(faults.nextLatency());
+
+			// The first path segment is the host and port of the requested url
+			URI requestUri = exchange.getRequestURI();
+			String path = requestUri.getRawPath();
+			int hostEnd = path.indexOf('/', 1);
+			if (hostEnd < 0) {
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+			String host = path.substring(1, hostEnd).replaceFirst(":\\d+$", "");
+			String sitePath = path.substring(hostEnd);
+
+			if (throttle(exchange, host)) {
+				return;
+			}
+
+			String page = render(exchange, host, sitePath, requestUri.getRawQuery());
+			if (page == null) {
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+
+			byte[] body = page.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream output = exchange.getResponseBody()) {
+				if (faults.nextDrop()) {
+					// The connection is closed once the body is found shorter than announced
+					droppedResponses.increment();
+					output.write(body, 0, body.length / 2);
+					return;
+				}
+				output.write(body);
+			}
+		}
+	}
+
+	/** Reject the request when its host is in a throttling burst, or starts one */
+	private boolean throttle(HttpExchange exchange, String host) throws IOException {
+		AtomicInteger burst = throttleBursts.computeIfAbsent(host, key -> new AtomicInteger());
+		if (burst.getAndUpdate(remaining -> Math.max(remaining - 1, 0)) <= 0) {
+			if (!faults.nextThrottleBurst()) {
+				return false;
+			}
+			burst.set(faults.throttleBurstLength() - 1);
+		}
+		throttledResponses.increment();
+		exchange.getResponseHeaders().set("Retry-After", "1");
+		exchange.sendResponseHeaders(ThreadLocalRandom.current().nextBoolean() ? 429 : 503, -1);
+		return true;
+	}
+
+	private String render(HttpExchange exchange, String host, String sitePath, String query) throws IOException {
+		if (host.endsWith("syosetu.com")) {
+			Matcher matcher = SYOSETSU_PATH.matcher(sitePath);
+			SyntheticStory story = matcher.matches() ? stories.get(matcher.group(1)) : null;
+			if (story == null || story.getSite() != SyntheticStory.Site.SYOSETSU) {
+				return null;
+			}
+			// The age check is only shown on the 18+ host, Syosetsu chapter urls always use the general host
+			if (ADULT_HOST.equals(host) && !hasAgeCheckCookies(exchange)) {
+				exchange.getResponseHeaders().add("Set-Cookie", "ses=" + story.getId() + "; Path=/");
+				return SyntheticStory.renderSyosetsuAgeCheck();
+			}
+			if (matcher.group(2) != null) {
+				int chapterNumber = Integer.parseInt(matcher.group(2));
+				return chapterNumber >= 1 && chapterNumber <= story.getChapterCount()
+						? story.renderSyosetsuChapter(chapterNumber) : null;
+			}
+			int page = parsePage(query);
+			return page >= 1 && page <= story.getIndexPageCount() ? story.renderSyosetsuIndex(page) : null;
+		}
+		if (host.equals("kakuyomu.jp")) {
+			Matcher matcher = KAKUYOMU_PATH.matcher(sitePath);
+			SyntheticStory story = matcher.matches() ? stories.get(matcher.group(1)) : null;
+			if (story == null || story.getSite() != SyntheticStory.Site.KAKUYOMU) {
+				return null;
+			}
+			if (matcher.group(2) == null) {
+				return story.renderKakuyomuIndex();
+			}
+			int chapterNumber = story.getChapterNumber(matcher.group(2));
+			return chapterNumber == -1 ? null : story.renderKakuyomuEpisode(chapterNumber);
+		}
+		return null;
+	}
+
+	private static boolean hasAgeCheckCookies(HttpExchange exchange) {
+		String cookies = exchange.getRequestHeaders().getFirst("Cookie");
+		return cookies != null && cookies.contains("over18=yes") && cookies.contains("ses=");
+	}
+
+	private static int parsePage(String query) {
+		if (query == null) {
+			return 1;
+		}
+		Matcher matcher = PAGE_PARAMETER.matcher(query);
+		return matcher.find() ? Integer.parseInt(matcher.group(1)) : 1;
+	}
+
+	private static void sleep(Duration duration) {
+		if (duration.isZero()) {
+			return;
+		}
+		try {
+			Thread.sleep(duration);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Stop the server */
+	@Override
+	public void close() {
+		httpServer.stop(0);
+		requestExecutor.shutdownNow();
+	}
+
+}
@@ -0,0 +1,149 @@
+package com.nicolas_abroad.epub_scraper_desktop.load;
+
+import com.nicolas_abroad.epub_scraper_desktop.metrics.Metrics;
+import com.nicolas_abroad.epub_scraper_desktop.metrics.Phase;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.ScrapeExecutor;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.ScrapeOptions;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.batch.BatchJob;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Load test driver, scraping synthetic stories from a local load server with the scrape executor.
+ * Ebooks are written to a load-test-{story number} folder of the working directory, and the page cache is disabled,
+ * so every run fetches every page. Reports throughput and chapter fetch latencies, retries included.
+ * <p>
+ * java -cp benchmarks/target/benchmarks.jar com.nicolas_abroad.epub_scraper_desktop.load.LoadTest --help
+ *
+ * @author Nicolas
+ */
+@Command(name = "load-test", mixinStandardHelpOptions = true, description = "Scrape synthetic stories from a local load server")
+public class LoadTest implements Callable<Integer> {
+
+	@Option(names = {"--site"}, description = "Website the stories are shaped after: ${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE})", defaultValue = "SYOSETSU")
+	private SyntheticStory.Site site;
+
+	@Option(names = {"--stories"}, description = "Number of stories scraped in one batch (default: ${DEFAULT-VALUE})", defaultValue = "1")
+	private int storyCount;
+
+	@Option(names = {"--volumes"}, description = "Number of volumes of a story, 1 for a story without volumes (default: ${DEFAULT-VALUE})", defaultValue = "10")
+	private int volumeCount;
+
+	@Option(names = {"--chapters"}, description = "Number of chapters of a volume (default: ${DEFAULT-VALUE})", defaultValue = "100")
+	private int chaptersPerVolume;
+
+	@Option(names = {"--paragraphs"}, description = "Number of paragraphs of a chapter (default: ${DEFAULT-VALUE})", defaultValue = "40")
+	private int paragraphsPerChapter;
+
+	@Option(names = {"--adult"}, description = "Gate Syosetsu stories behind the 18+ age check")
+	private boolean adult;
+
+	@Option(names = {"--latency"}, description = "Median latency of a response, in milliseconds (default: ${DEFAULT-VALUE})", defaultValue = "50")
+	private long medianLatencyMillis;
+
+	@Option(names = {"--latency-sigma"}, description = "Spread of the log-normal latency, 0 for a fixed latency (default: ${DEFAULT-VALUE})", defaultValue = "0.5")
+	private double latencySigma;
+
+	@Option(names = {"--throttle-rate"}, description = "Probability that a request starts a burst of 429/503 responses (default: ${DEFAULT-VALUE})", defaultValue = "0.001")
+	private double throttleRate;
+
+	@Option(names = {"--burst"}, description = "Number of 429/503 responses of a burst (default: ${DEFAULT-VALUE})", defaultValue = "10")
+	private int throttleBurstLength;
+
+	@Option(names = {"--drop-rate"}, description = "Probability that a response is dropped mid-body (default: ${DEFAULT-VALUE})", defaultValue = "0.001")
+	private double dropRate;
+
+	@Option(names = {"-c", "--concurrency"}, description = "Maximum number of chapters fetched at the same time (default: ${DEFAULT-VALUE})", defaultValue = "" + ScrapeOptions.DEFAULT_MAX_CONCURRENT_FETCHES)
+	private int maxConcurrentFetches;
+
+	@Option(names = {"--host-concurrency"}, description = "Maximum number of chapters fetched at the same time from a single website (default: ${DEFAULT-VALUE})", defaultValue = "" + ScrapeOptions.DEFAULT_MAX_FETCHES_PER_HOST)
+	private int maxFetchesPerHost;
+
+	@Option(names = {"--host-rate"}, description = "Maximum requests per second sent to a single website (default: ${DEFAULT-VALUE})", defaultValue = "1000")
+	private double hostRate;
+
+	@Option(names = {"--retries"}, description = "Number of times failed chapters are retried at the end of the run (default: ${DEFAULT-VALUE})", defaultValue = "" + ScrapeOptions.DEFAULT_RETRY_ROUNDS)
+	private int retryRounds;
+
+	@Option(names = {"--off-heap-chapters"}, description = "Keep scraped chapters in a memory-mapped temporary file rather than in memory")
+	private boolean offHeapChapters;
+
+	public static void main(String[] args) {
+		int exitCode = new CommandLine(new LoadTest()).execute(args);
+		System.exit(exitCode);
+	}
+
+	@Override
+	public Integer call() throws Exception {
+		FaultProfile faults = new FaultProfile(Duration.ofMillis(medianLatencyMillis), latencySigma, throttleRate,
+				throttleBurstLength, dropRate);
+		try (LoadServer loadServer = new LoadServer(0, faults)) {
+			List<BatchJob> jobs = new ArrayList<>();
+			for (int number = 1; number <= storyCount; number++) {
+				SyntheticStory story = new SyntheticStory(site, number, volumeCount, chaptersPerVolume, adult,
+						paragraphsPerChapter);
+				loadServer.addStory(story);
+				jobs.add(new BatchJob(story.getUrl(), null));
+			}
+			loadServer.start();
+
+			ScrapeOptions options = new ScrapeOptions();
+			options.setBaseUrl(loadServer.getBaseUrl());
+			options.setCacheEnabled(false);
+			options.setMaxConcurrentFetches(maxConcurrentFetches);
+			options.setMaxFetchesPerHost(maxFetchesPerHost);
+			options.setMaxConcurrentStories(storyCount);
+			options.setMaxStoriesPerHost(storyCount);
+			options.setRetryRounds(retryRounds);
+			options.setOffHeapChapters(offHeapChapters);
+			options.setHostRates(Map.of("ncode.syosetu.com", hostRate, "novel18.syosetu.com", hostRate,
+					"kakuyomu.jp", hostRate));
+
+			Metrics metrics = Metrics.getSharedMetrics();
+			metrics.reset();
+			long start = System.nanoTime();
+			List<BatchJob> failedJobs = ScrapeExecutor.executeBatch(jobs, options);
+			double seconds = (System.nanoTime() - start) / 1e9;
+
+			report(metrics.snapshot(), loadServer, jobs.size(), failedJobs.size(), seconds);
+			return failedJobs.isEmpty() ? 0 : 1;
+		}
+	}
+
+	private void report(Metrics.RunSnapshot snapshot, LoadServer loadServer, int storyCount, int failedStoryCount,
+			double seconds) {
+		long chapters = 0;
+		long chapterErrors = 0;
+		double p50Ms = 0;
+		double p99Ms = 0;
+		double maxMs = 0;
+		for (Metrics.PhaseSnapshot phase : snapshot.phases()) {
+			if (!phase.phase().equals(Phase.CHAPTER_FETCH.getLabel())) {
+				continue;
+			}
+			// Stories of a run share a website, so the slowest host is reported
+			chapters += phase.count();
+			chapterErrors += phase.errors();
+			p50Ms = Math.max(p50Ms, phase.p50Ms());
+			p99Ms = Math.max(p99Ms, phase.p99Ms());
+			maxMs = Math.max(maxMs, phase.maxMs());
+		}
+
+		System.out.printf("Stories:      %d scraped, %d failed%n", storyCount - failedStoryCount, failedStoryCount);
+		System.out.printf("Duration:     %.2f s%n", seconds);
+		System.out.printf("Chapters:     %d fetched, %d failed attempts%n", chapters, chapterErrors);
+		System.out.printf("Throughput:   %.1f chapters/s, %.1f requests/s%n", chapters / seconds,
+				loadServer.getRequestCount() / seconds);
+		System.out.printf("Chapter fetch latency: p50 %.1f ms, p99 %.1f ms, max %.1f ms%n", p50Ms, p99Ms, maxMs);
+		System.out.printf("Server:       %d requests, %d throttled, %d dropped%n", loadServer.getRequestCount(),
+				loadServer.getThrottledCount(), loadServer.getDroppedCount());
+	}
+
+}
@@ -0,0 +1,298 @@
+package com.nicolas_abroad.epub_scraper_desktop.load;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Story generated procedurally, rendered as Syosetsu-shaped or Kakuyomu-shaped pages.
+ * Pages are rendered on request from a seed, so huge stories cost no memory and every run serves the same pages.
+ *
+ * @author Nicolas
+ */
+public class SyntheticStory {
+
+	/** Website the pages are shaped after */
+	public enum Site {
+		SYOSETSU, KAKUYOMU
+	}
+
+	/** Number of chapters listed on a Syosetsu index page */
+	static final int CHAPTERS_PER_INDEX_PAGE = 100;
+
+	private static final long KAKUYOMU_WORK_ID_BASE = 1177354054880000000L;
+
+	private static final long KAKUYOMU_EPISODE_ID_BASE = 1177354054890000000L;
+
+	/** Maximum number of chapters of a story, keeping Kakuyomu episode ids of stories apart */
+	private static final int MAX_CHAPTERS = 1_000_000;
+
+	private static final String CHARACTERS = "あいうえおかきくけこさしすせそたちつてとなにぬねのはひふへほまみむめもやゆよらりるれろわをん"
+			+ "日月火水木金土山川田人口目耳手足力心空海森林道喜光風雨雪花草鳥魚剣王城国町村";
+
+	private static final ObjectMapper jsonMapper = new ObjectMapper();
+
+	private final Site site;
+
+	private final int number;
+
+	private final int volumeCount;
+
+	private final int chaptersPerVolume;
+
+	private final boolean adult;
+
+	private final int paragraphsPerChapter;
+
+	/**
+	 * Create a new synthetic story.
+	 *
+	 * @param site website the pages are shaped after
+	 * @param number story number, from 1 to 9999, unique among the stories of a server
+	 * @param volumeCount number of volumes, 1 for a story without volumes
+	 * @param chaptersPerVolume
+	 * @param adult gate the story behind the 18+ age check, Syosetsu only
+	 * @param paragraphsPerChapter
+	 */
+	public SyntheticStory(Site site, int number, int volumeCount, int chaptersPerVolume, boolean adult,
+			int paragraphsPerChapter) {
+		if (number < 1 || number > 9999 || volumeCount < 1 || chaptersPerVolume < 1 || paragraphsPerChapter < 1
+				|| (long) volumeCount * chaptersPerVolume >= MAX_CHAPTERS) {
+			throw new IllegalArgumentException("Invalid story shape");
+		}
+		this.site = site;
+		this.number = number;
+		this.volumeCount = volumeCount;
+		this.chaptersPerVolume = chaptersPerVolume;
+		this.adult = adult && site == Site.SYOSETSU;
+		this.paragraphsPerChapter = paragraphsPerChapter;
+	}
+
+	public Site getSite() {
+		return site;
+	}
+
+	/** Get story id, as it appears in urls */
+	public String getId() {
+		return site == Site.SYOSETSU ? String.format("n%04dzz", number) : Long.toString(KAKUYOMU_WORK_ID_BASE + number);
+	}
+
+	/** Get host serving the story */
+	public String getHost() {
+		if (site == Site.KAKUYOMU) {
+			return "kakuyomu.jp";
+		}
+		return adult ? "novel18.syosetu.com" : "ncode.syosetu.com";
+	}
+
+	/** Get index url of the story on the website */
+	public String getUrl() {
+		return site == Site.SYOSETSU ? "https://" + getHost() + "/" + getId() + "/"
+				: "https://" + getHost() + "/works/" + getId();
+	}
+
+	public boolean isAdult() {
+		return adult;
+	}
+
+	public int getChapterCount() {
+		return volumeCount * chaptersPerVolume;
+	}
+
+	/** Get number of Syosetsu index pages */
+	public int getIndexPageCount() {
+		return (getChapterCount() + CHAPTERS_PER_INDEX_PAGE - 1) / CHAPTERS_PER_INDEX_PAGE;
+	}
+
+	/** Get Kakuyomu episode id of a chapter */
+	String getEpisodeId(int chapterNumber) {
+		return Long.toString(KAKUYOMU_EPISODE_ID_BASE + (long) number * MAX_CHAPTERS + chapterNumber);
+	}
+
+	/**
+	 * Get chapter number of a Kakuyomu episode.
+	 *
+	 * @param episodeId
+	 * @return chapter number, -1 when the episode is not part of the story
+	 */
+	int getChapterNumber(String episodeId) {
+		try {
+			long chapterNumber = Long.parseLong(episodeId) - KAKUYOMU_EPISODE_ID_BASE - (long) number * MAX_CHAPTERS;
+			return chapterNumber >= 1 && chapterNumber <= getChapterCount() ? (int) chapterNumber : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	// --------------------------------------
+	// Syosetsu pages
+	// --------------------------------------
+
+	/**
+	 * Render a Syosetsu index page.
+	 *
+	 * @param page page number, from 1
+	 * @return html page
+	 */
+	String renderSyosetsuIndex(int page) {
+		StringBuilder html = new StringBuilder(CHAPTERS_PER_INDEX_PAGE * 200);
+		html.append("<!DOCTYPE html><html lang=\"ja\"><head><meta charset=\"UTF-8\"><title>")
+				.append(getTitle()).append("</title></head><body><article class=\"p-novel\">")
+				.append("<h1 class=\"p-novel__title\">").append(getTitle()).append("</h1>")
+				.append("<div class=\"p-novel__author\">作者：<a href=\"/users/1/\">").append(getAuthor())
+				.append("</a></div>");
+		int pageCount = getIndexPageCount();
+		if (pageCount > 1) {
+			html.append("<div class=\"c-pager\"><a href=\"/").append(getId())
+					.append("/?p=1\" class=\"c-pager__item c-pager__item--first\">最初へ</a><a href=\"/").append(getId())
+					.append("/?p=").append(pageCount).append("\" class=\"c-pager__item c-pager__item--last\">最後へ</a></div>");
+		}
+		html.append("<div class=\"p-eplist\">");
+		int first = (page - 1) * CHAPTERS_PER_INDEX_PAGE + 1;
+		int last = Math.min(page * CHAPTERS_PER_INDEX_PAGE, getChapterCount());
+		for (int chapterNumber = first; chapterNumber <= last; chapterNumber++) {
+			if (volumeCount > 1 && (chapterNumber - 1) % chaptersPerVolume == 0) {
+				html.append("<div class=\"p-eplist__chapter-title\">").append(getVolumeTitle(chapterNumber))
+						.append("</div>");
+			}
+			html.append("<div class=\"p-eplist__sublist\"><a href=\"/").append(getId()).append('/').append(chapterNumber)
+					.append("/\" class=\"p-eplist__subtitle\">").append(getChapterTitle(chapterNumber))
+					.append("</a><div class=\"p-eplist__update\">").append(getPublicationDate(chapterNumber))
+					.append("</div></div>");
+		}
+		return html.append("</div></article></body></html>").toString();
+	}
+
+	/** Render the Syosetsu 18+ age check page */
+	static String renderSyosetsuAgeCheck() {
+		return "<!DOCTYPE html><html lang=\"ja\"><head><meta charset=\"UTF-8\"><title>年齢確認</title></head>"
+				+ "<body><h1>年齢確認</h1><p>18歳以上ですか？</p></body></html>";
+	}
+
+	/**
+	 * Render a Syosetsu chapter page.
+	 *
+	 * @param chapterNumber
+	 * @return html page
+	 */
+	String renderSyosetsuChapter(int chapterNumber) {
+		StringBuilder html = new StringBuilder(paragraphsPerChapter * 250);
+		html.append("<!DOCTYPE html><html lang=\"ja\"><head><meta charset=\"UTF-8\"><title>")
+				.append(getChapterTitle(chapterNumber)).append("</title></head><body><article class=\"p-novel\">")
+				.append("<div class=\"p-novel__number\">").append(chapterNumber).append('/').append(getChapterCount())
+				.append("</div><h1 class=\"p-novel__title\">").append(getChapterTitle(chapterNumber)).append("</h1>")
+				.append("<div class=\"koukoku\"><p>広告</p></div><div class=\"js-novel-text p-novel__text\">");
+		appendParagraphs(html, chapterNumber);
+		return html.append("</div></article></body></html>").toString();
+	}
+
+	// --------------------------------------
+	// Kakuyomu pages
+	// --------------------------------------
+
+	/**
+	 * Render the Kakuyomu index page, with its Next.js data.
+	 *
+	 * @return html page
+	 * @throws JsonProcessingException
+	 */
+	String renderKakuyomuIndex() throws JsonProcessingException {
+		Map<String, Object> state = new LinkedHashMap<>();
+		String authorReference = "UserAccount:" + getId();
+		state.put(authorReference, Map.of("__typename", "UserAccount", "id", getId(), "activityName", getAuthor()));
+
+		List<Map<String, String>> tableOfContents = new ArrayList<>();
+		for (int volume = 1; volume <= volumeCount; volume++) {
+			String volumeId = getId() + "-" + volume;
+			List<Map<String, String>> episodeReferences = new ArrayList<>();
+			for (int i = 1; i <= chaptersPerVolume; i++) {
+				int chapterNumber = (volume - 1) * chaptersPerVolume + i;
+				String episodeReference = "Episode:" + getEpisodeId(chapterNumber);
+				state.put(episodeReference, Map.of("__typename", "Episode", "id", getEpisodeId(chapterNumber),
+						"title", getChapterTitle(chapterNumber), "publishedAt", getPublicationDate(chapterNumber)));
+				episodeReferences.add(Map.of("__ref", episodeReference));
+			}
+			Map<String, Object> tocChapter = new LinkedHashMap<>();
+			tocChapter.put("__typename", "TableOfContentsChapter");
+			// A story without volumes has a single table of contents entry without chapter
+			if (volumeCount > 1) {
+				String chapterReference = "Chapter:" + volumeId;
+				state.put(chapterReference, Map.of("__typename", "Chapter", "id", volumeId, "level", 1,
+						"title", getVolumeTitle((volume - 1) * chaptersPerVolume + 1)));
+				tocChapter.put("chapter", Map.of("__ref", chapterReference));
+			}
+			tocChapter.put("episodeUnions", episodeReferences);
+			String tocReference = "TableOfContentsChapter:" + volumeId;
+			state.put(tocReference, tocChapter);
+			tableOfContents.add(Map.of("__ref", tocReference));
+		}
+		state.put("Work:" + getId(), Map.of("__typename", "Work", "id", getId(), "title", getTitle(),
+				"author", Map.of("__ref", authorReference), "tableOfContents", tableOfContents));
+
+		Map<String, Object> nextData = Map.of("props", Map.of("pageProps", Map.of("__APOLLO_STATE__", state)),
+				"query", Map.of("workId", getId()));
+		return "<!DOCTYPE html><html lang=\"ja\"><head><meta charset=\"utf-8\"><title>" + getTitle()
+				+ "</title></head><body><div id=\"__next\"><main><h1>" + getTitle() + "</h1></main></div>"
+				+ "<script id=\"__NEXT_DATA__\" type=\"application/json\">" + jsonMapper.writeValueAsString(nextData)
+				+ "</script></body></html>";
+	}
+
+	/**
+	 * Render a Kakuyomu episode page.
+	 *
+	 * @param chapterNumber
+	 * @return html page
+	 */
+	String renderKakuyomuEpisode(int chapterNumber) {
+		StringBuilder html = new StringBuilder(paragraphsPerChapter * 250);
+		html.append("<!DOCTYPE html><html lang=\"ja\"><head><meta charset=\"utf-8\"><title>")
+				.append(getChapterTitle(chapterNumber)).append("</title></head><body>")
+				.append("<p class=\"widget-episodeTitle\">").append(getChapterTitle(chapterNumber)).append("</p>")
+				.append("<div id=\"contentMain-inner\"><div class=\"widget-episodeBody\">");
+		appendParagraphs(html, chapterNumber);
+		return html.append("</div></div></body></html>").toString();
+	}
+
+	// --------------------------------------
+	// Generated content
+	// --------------------------------------
+
+	private String getTitle() {
+		return "合成の物語" + number;
+	}
+
+	/** Ebooks are written to a folder named after the author, so every story gets its own author */
+	private String getAuthor() {
+		return "load-test-" + number;
+	}
+
+	private String getVolumeTitle(int chapterNumber) {
+		return "第" + ((chapterNumber - 1) / chaptersPerVolume + 1) + "章";
+	}
+
+	private String getChapterTitle(int chapterNumber) {
+		return "第" + chapterNumber + "話";
+	}
+
+	private String getPublicationDate(int chapterNumber) {
+		return String.format("2021/%02d/%02d 00:00", chapterNumber % 12 + 1, chapterNumber % 28 + 1);
+	}
+
+	private void appendParagraphs(StringBuilder html, int chapterNumber) {
+		Random random = new Random((long) number * MAX_CHAPTERS + chapterNumber);
+		for (int i = 1; i <= paragraphsPerChapter; i++) {
+			html.append("<p id=\"L").append(i).append("\">");
+			int length = 20 + random.nextInt(80);
+			for (int j = 0; j < length; j++) {
+				html.append(CHARACTERS.charAt(random.nextInt(CHARACTERS.length())));
+			}
+			html.append("。</p>");
+		}
+	}
+
+}
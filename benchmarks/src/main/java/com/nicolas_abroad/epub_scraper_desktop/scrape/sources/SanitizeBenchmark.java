@@ -0,0 +1,92 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.sources;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Entities.EscapeMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of chapter text and title sanitizing, on large chapter bodies.
+ * Bodies repeat the stored Syosetsu chapter until they reach the benchmarked size.
+ * Run with -prof gc to compare the allocation per chapter of the sanitizer and the legacy regex chain.
+ *
+ * @author Nicolas
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SanitizeBenchmark {
+
+	/** Chapter body html size, in characters */
+	@Param({"20000", "200000", "2000000"})
+	public int bodySize;
+
+	private Element chapterContainer;
+
+	private String chapterTitle;
+
+	@Setup
+	public void setUp() throws IOException {
+		Document document = ScraperBenchmark.parseFixture("syosetsu_chapter.html",
+				"https://ncode.syosetu.com/n0000aa/12/");
+		String html = document.selectFirst(".p-novel").html();
+		StringBuilder body = new StringBuilder(bodySize + html.length());
+		body.append("<div class=\"p-novel\">");
+		while (body.length() < bodySize) {
+			body.append(html);
+		}
+		body.append("</div>");
+		chapterContainer = Jsoup.parseBodyFragment(body.toString()).selectFirst(".p-novel");
+		chapterContainer.ownerDocument().outputSettings().escapeMode(EscapeMode.xhtml).prettyPrint(false)
+				.indentAmount(0).charset("UTF-8");
+		chapterTitle = document.selectFirst(".p-novel__title").text();
+		if (!regexChain().equals(sanitizer())) {
+			throw new IllegalStateException("Sanitizer and regex chain outputs differ");
+		}
+	}
+
+	private static boolean isAdvertising(Element element) {
+		return element.className().contains("ad") || element.className().contains("koukoku");
+	}
+
+	/** Chapter text serialized element by element, then cleaned by the legacy regex chain */
+	@Benchmark
+	public String regexChain() {
+		StringBuilder text = new StringBuilder();
+		for (Element element : chapterContainer.children()) {
+			if (!isAdvertising(element)) {
+				text.append(element.outerHtml());
+			}
+		}
+		return EbookScraper.cleanChapterText(text.toString());
+	}
+
+	/** Chapter text serialized and cleaned in a single pass */
+	@Benchmark
+	public String sanitizer() {
+		return ChapterSanitizer.sanitize(chapterContainer, SanitizeBenchmark::isAdvertising);
+	}
+
+	@Benchmark
+	public String cleanChapterTitle() {
+		return EbookScraper.cleanChapterTitle(chapterTitle);
+	}
+
+}
@@ -0,0 +1,117 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.sources;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Entities.EscapeMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of chapter and index parsing, on stored pages.
+ * Fixture pages are parsed once, only the scraper parsing is measured.
+ *
+ * @author Nicolas
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScraperBenchmark {
+
+	private final SyosetsuScraper syosetsuScraper = new SyosetsuScraper();
+
+	private final KakuyomuScraper kakuyomuScraper = new KakuyomuScraper();
+
+	private Document syosetsuChapter;
+
+	private Document kakuyomuIndex;
+
+	private String kakuyomuIndexJson;
+
+	private byte[] kakuyomuIndexPage;
+
+	@Setup
+	public void setUp() throws IOException {
+		syosetsuChapter = parseFixture("syosetsu_chapter.html", "https://ncode.syosetu.com/n0000aa/12/");
+		kakuyomuIndex = parseFixture("kakuyomu_index.html", "https://kakuyomu.jp/works/1177354054880000000");
+		kakuyomuIndexJson = kakuyomuIndex.selectFirst("#__NEXT_DATA__").html();
+		try (InputStream input = ScraperBenchmark.class.getResourceAsStream("/fixtures/kakuyomu_index.html")) {
+			kakuyomuIndexPage = input.readAllBytes();
+		}
+	}
+
+	/**
+	 * Parse a stored page, with the output settings of the scrapers.
+	 *
+	 * @param fileName fixture file name
+	 * @param url url the page was fetched from
+	 * @return parsed page
+	 * @throws IOException
+	 */
+	static Document parseFixture(String fileName, String url) throws IOException {
+		try (InputStream input = ScraperBenchmark.class.getResourceAsStream("/fixtures/" + fileName)) {
+			Document document = Jsoup.parse(input, "UTF-8", url).normalise();
+			document.outputSettings().escapeMode(EscapeMode.xhtml).prettyPrint(false)
+					.indentAmount(0).charset("UTF-8");
+			return document;
+		}
+	}
+
+	@Benchmark
+	public String syosetsuParseChapterText() {
+		return syosetsuScraper.parseChapterText(syosetsuChapter);
+	}
+
+	/** Index methods share the work parsed from a page, this measures parsing itself */
+	@Benchmark
+	public KakuyomuWork kakuyomuParseWork() throws Exception {
+		return KakuyomuWork.parse(kakuyomuIndexJson);
+	}
+
+	/** Index page from its bytes through the DOM, as chapter pages are read */
+	@Benchmark
+	public KakuyomuWork kakuyomuParseIndexDocument() throws Exception {
+		Document document = Jsoup.parse(new ByteArrayInputStream(kakuyomuIndexPage), "UTF-8",
+				"https://kakuyomu.jp/works/1177354054880000000").normalise();
+		return KakuyomuWork.parse(document.selectFirst("#__NEXT_DATA__").html());
+	}
+
+	/** Index page from its bytes, streaming the Next.js data without a DOM */
+	@Benchmark
+	public KakuyomuWork kakuyomuParseIndexPage() throws Exception {
+		return KakuyomuWork.parsePage(kakuyomuIndexPage);
+	}
+
+	@Benchmark
+	public Map<Integer, List<String>> kakuyomuParseChapterUrlsByVolume() throws Exception {
+		return kakuyomuScraper.parseChapterUrlsByVolume(kakuyomuIndex);
+	}
+
+	@Benchmark
+	public List<String> kakuyomuParseVolumeTitles() throws Exception {
+		return kakuyomuScraper.parseVolumeTitles(kakuyomuIndex);
+	}
+
+	@Benchmark
+	public Map<String, String> kakuyomuParseChapterRevisions() throws Exception {
+		return kakuyomuScraper.parseChapterRevisions(kakuyomuIndex);
+	}
+
+}
@@ -1,10 +1,22 @@
 package com.nicolas_abroad.epub_scraper_desktop.ebook;
 
+import com.nicolas_abroad.epub_scraper_desktop.metrics.Metrics;
+import com.nicolas_abroad.epub_scraper_desktop.metrics.Phase;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.http.FetchedPage;
 import com.nicolas_abroad.epub_scraper_desktop.scrape.sources.EbookScraper;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 import org.jsoup.nodes.Document;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
 /**
  * Class for a single chapter of a volume.
  *
@@ -26,9 +38,19 @@ public class Chapter {
 	/** Title */
 	private String title;
 
-	/** Text */
+	/** Text, null once released or moved to a chapter store */
 	private String text;
 
+	/** Text moved to a chapter store, null when the text is held by the chapter */
+	@ToString.Exclude
+	@EqualsAndHashCode.Exclude
+	private ChapterStore.StoredText storedText;
+
+	/** SHA-256 of the title and text, kept once the text is released */
+	@ToString.Exclude
+	@EqualsAndHashCode.Exclude
+	private String contentHash;
+
 	/** Create a new chapter with a scraper and a url */
 	public Chapter(EbookScraper scraper, String url) {
 		this.scraper = scraper;
@@ -37,10 +59,121 @@ public class Chapter {
 
 	/** Scrape all relevant information for this chapter */
 	public void generate() throws Exception {
-		Document document = scraper.parseHTMLDocument(url);
-		this.title = scraper.parseChapterTitle(document);
-		this.text = scraper.parseChapterText(document);
-		this.chapterNumber = scraper.parseChapterNumber(document);
+		parse(fetch());
+	}
+
+	/**
+	 * Fetch chapter page, without parsing it.
+	 *
+	 * @return fetched page
+	 * @throws Exception
+	 */
+	public FetchedPage fetch() throws Exception {
+		Metrics metrics = Metrics.getSharedMetrics();
+		long start = System.nanoTime();
+		FetchedPage page;
+		try {
+			page = scraper.fetchChapterPage(url);
+		} catch (Exception e) {
+			metrics.recordError(Phase.CHAPTER_FETCH, url);
+			throw e;
+		}
+		metrics.record(Phase.CHAPTER_FETCH, url, start);
+		return page;
+	}
+
+	/**
+	 * Parse title, text and number from a fetched chapter page.
+	 *
+	 * @param page
+	 * @throws Exception
+	 */
+	public void parse(FetchedPage page) throws Exception {
+		Metrics metrics = Metrics.getSharedMetrics();
+		long start = System.nanoTime();
+		try {
+			Document document = scraper.parseChapterPage(page);
+			this.title = scraper.parseChapterTitle(document);
+			this.text = scraper.parseChapterText(document);
+			this.chapterNumber = scraper.parseChapterNumber(document);
+		} catch (Exception e) {
+			metrics.recordError(Phase.PARSE, url);
+			throw e;
+		}
+		metrics.record(Phase.PARSE, url, start);
+	}
+
+	/** Set title, invalidating the content hash */
+	public void setTitle(String title) {
+		this.title = title;
+		this.contentHash = null;
+	}
+
+	/** Get text, read back from its chapter store if it was moved to one */
+	public String getText() {
+		return text == null && storedText != null ? storedText.read() : text;
+	}
+
+	/** Set text, invalidating the content hash */
+	public void setText(String text) {
+		this.text = text;
+		this.storedText = null;
+		this.contentHash = null;
+	}
+
+	/**
+	 * Move text to a chapter store, keeping its content hash.
+	 *
+	 * @param store
+	 * @throws IOException
+	 */
+	public void storeText(ChapterStore store) throws IOException {
+		if (text != null) {
+			getContentHash();
+			this.storedText = store.put(text);
+			this.text = null;
+		}
+	}
+
+	/**
+	 * Write text as UTF-8, copied from its chapter store without decoding it if it was moved to one.
+	 *
+	 * @param outputStream
+	 * @throws IOException
+	 */
+	public void writeText(OutputStream outputStream) throws IOException {
+		if (text == null && storedText != null) {
+			storedText.writeTo(outputStream);
+		} else if (text != null) {
+			outputStream.write(text.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * Get content hash, computed from the title and text.
+	 *
+	 * @return SHA-256 of the chapter title and text
+	 */
+	public String getContentHash() {
+		if (contentHash == null) {
+			try {
+				MessageDigest digest = MessageDigest.getInstance("SHA-256");
+				digest.update(String.valueOf(title).getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) 0);
+				digest.update(String.valueOf(getText()).getBytes(StandardCharsets.UTF_8));
+				contentHash = HexFormat.of().formatHex(digest.digest());
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		return contentHash;
+	}
+
+	/** Release text once written to the ebook, keeping its content hash */
+	public void releaseText() {
+		getContentHash();
+		this.text = null;
+		this.storedText = null;
 	}
 
 }
@@ -0,0 +1,150 @@
+package com.nicolas_abroad.epub_scraper_desktop.ebook;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Off-heap store of chapter texts, kept as UTF-8 in a memory-mapped temporary file.
+ * The file is mapped in segments as it grows, and deleted once the store is closed.
+ * Stored texts are paged in and out by the operating system, so they do not count against the heap.
+ *
+ * @author Nicolas
+ */
+public class ChapterStore implements Closeable {
+
+	/** Default size of a mapped segment, in bytes */
+	static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	private static final int COPY_BUFFER_SIZE = 8192;
+
+	private final FileChannel channel;
+
+	private final int segmentSize;
+
+	/** Mapped segments, the last one being filled */
+	private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+	/** Position of the next text in the last segment */
+	private int segmentPosition;
+
+	/** Size of the mapped file */
+	private long fileSize;
+
+	private boolean closed;
+
+	/**
+	 * Text stored in a chapter store.
+	 *
+	 * @param store store holding the text
+	 * @param segment index of the segment holding the text
+	 * @param offset offset of the text in its segment
+	 * @param length length of the UTF-8 text, in bytes
+	 */
+	public record StoredText(ChapterStore store, int segment, int offset, int length) {
+
+		/** Read text back */
+		public String read() {
+			byte[] bytes = new byte[length];
+			store.getSegment(segment).get(offset, bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		/** Copy UTF-8 text to an output stream, without decoding it */
+		public void writeTo(OutputStream outputStream) throws IOException {
+			MappedByteBuffer buffer = store.getSegment(segment);
+			byte[] chunk = new byte[Math.min(length, COPY_BUFFER_SIZE)];
+			for (int position = 0; position < length; position += chunk.length) {
+				int chunkLength = Math.min(chunk.length, length - position);
+				buffer.get(offset + position, chunk, 0, chunkLength);
+				outputStream.write(chunk, 0, chunkLength);
+			}
+		}
+
+	}
+
+	private ChapterStore(FileChannel channel, int segmentSize) {
+		this.channel = channel;
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * Create a chapter store backed by a new temporary file.
+	 *
+	 * @return chapter store
+	 * @throws IOException
+	 */
+	public static ChapterStore create() throws IOException {
+		return create(DEFAULT_SEGMENT_SIZE);
+	}
+
+	static ChapterStore create(int segmentSize) throws IOException {
+		Path filePath = Files.createTempFile("chapters", ".bin");
+		FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.DELETE_ON_CLOSE);
+		return new ChapterStore(channel, segmentSize);
+	}
+
+	/**
+	 * Store a text.
+	 *
+	 * @param text
+	 * @return stored text
+	 * @throws IOException
+	 */
+	public StoredText put(String text) throws IOException {
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		synchronized (this) {
+			if (closed) {
+				throw new IllegalStateException("Chapter store is closed");
+			}
+			if (segments.isEmpty() || segmentPosition + bytes.length > segments.getLast().capacity()) {
+				// Texts longer than a segment get a segment of their own
+				int size = Math.max(segmentSize, bytes.length);
+				segments.add(channel.map(FileChannel.MapMode.READ_WRITE, fileSize, size));
+				fileSize += size;
+				segmentPosition = 0;
+			}
+			StoredText storedText = new StoredText(this, segments.size() - 1, segmentPosition, bytes.length);
+			segments.getLast().put(segmentPosition, bytes);
+			segmentPosition += bytes.length;
+			return storedText;
+		}
+	}
+
+	/** Get size of the mapped file, in bytes */
+	public synchronized long getFileSize() {
+		return fileSize;
+	}
+
+	private synchronized MappedByteBuffer getSegment(int segment) {
+		if (closed) {
+			throw new IllegalStateException("Chapter store is closed");
+		}
+		return segments.get(segment);
+	}
+
+	/**
+	 * Close store, deleting its file. Stored texts can no longer be read.
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		segments.clear();
+		channel.close();
+	}
+
+}
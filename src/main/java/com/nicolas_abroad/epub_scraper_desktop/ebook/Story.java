@@ -1,7 +1,10 @@
 package com.nicolas_abroad.epub_scraper_desktop.ebook;
 
+import com.nicolas_abroad.epub_scraper_desktop.metrics.Metrics;
+import com.nicolas_abroad.epub_scraper_desktop.metrics.Phase;
 import com.nicolas_abroad.epub_scraper_desktop.scrape.sources.EbookScraper;
 import lombok.Getter;
+import lombok.Setter;
 import org.jsoup.nodes.Document;
 
 import java.util.ArrayList;
@@ -27,6 +30,14 @@ public class Story {
     @Getter
     private final List<Volume> volumes = new ArrayList<>();
 
+	/** Maximum number of chapters of a part when a story without volumes is split, 0 to never split */
+	@Setter
+	private int maxChaptersPerPart;
+
+	/** Chapter revisions parsed from the index, by chapter url */
+	@Getter
+	private Map<String, String> chapterRevisions = Collections.emptyMap();
+
 	private static String TITLE_CLEAN_REGEX = "[<>:\"/\\\\|?*&]";
 
 	/**
@@ -42,6 +53,7 @@ public class Story {
 
 	/**
 	 * Parse chapter urls by volume title.
+	 * Stories without volumes are split into parts of at most the maximum number of chapters per part, if set.
 	 *
 	 * @param document HTML document
 	 * @throws Exception
@@ -51,14 +63,25 @@ public class Story {
 			this.volumeUrls = scraper.parseChapterUrlsByVolume(document);
 		} else {
 			this.volumeUrls = new HashMap<>();
-			this.volumeUrls.put(1, scraper.parseAllChapterUrls(document));
+			List<String> chapterUrls = scraper.parseAllChapterUrls(document);
+			if (maxChaptersPerPart <= 0 || chapterUrls.size() <= maxChaptersPerPart) {
+				this.volumeUrls.put(1, chapterUrls);
+				return;
+			}
+			for (int start = 0; start < chapterUrls.size(); start += maxChaptersPerPart) {
+				int end = Math.min(start + maxChaptersPerPart, chapterUrls.size());
+				this.volumeUrls.put(volumeUrls.size() + 1, new ArrayList<>(chapterUrls.subList(start, end)));
+			}
 		}
 	}
 
 	/** Populate volumes list with unscrapped volume urls. */
 	private void populateVolumes() {
+		int chapterNumberOffset = 0;
 		for (Integer key : volumeUrls.keySet()) {
 			Volume volume = new Volume(scraper, volumeUrls.get(key));
+			volume.setChapterNumberOffset(chapterNumberOffset);
+			chapterNumberOffset += volume.getChapterUrls().size();
 			this.volumes.add(volume);
 		}
 	}
@@ -82,14 +105,18 @@ public class Story {
 
 		if (volumeTitles == null || volumeTitles.isEmpty()) {
 			// if no volumes exist on index page
-			Volume volume = this.volumes.get(0);
-
 			// Get title & clean out unwanted characters
 			String title = scraper.parseStoryTitle(document);
 			title = title.replaceAll(TITLE_CLEAN_REGEX, "");
 
-			// Set volume title
-			volume.setTitle(title);
+			// Set volume title, parts of a split story are numbered like volumes
+			if (this.volumes.size() == 1) {
+				this.volumes.get(0).setTitle(title);
+			} else {
+				for (Volume volume : this.volumes) {
+					volume.setTitle(volume.getVolumeNumber() + " - " + title);
+				}
+			}
 		} else {
 			// if volumes exist on index page
 			if (this.volumes.size() != volumeTitles.size()) {
@@ -126,12 +153,22 @@ public class Story {
 	}
 
 	public List<Volume> parseVolumeInfo(Set<Integer> targetVolumeNumbers) throws Exception {
-		Document document = scraper.parseHTMLDocument(url);
+		Metrics metrics = Metrics.getSharedMetrics();
+		long start = System.nanoTime();
+		Document document;
+		try {
+			document = scraper.parseHTMLDocument(url);
+		} catch (Exception e) {
+			metrics.recordError(Phase.INDEX_FETCH, url);
+			throw e;
+		}
+		metrics.record(Phase.INDEX_FETCH, url, start);
 		parseVolumeUrls(document);
 		populateVolumes();
 		assignVolumeNumbers();
 		assignVolumeTitles(document);
 		assignVolumeAuthor(document);
+		this.chapterRevisions = scraper.parseChapterRevisions(document);
 		if (targetVolumeNumbers != null && !targetVolumeNumbers.isEmpty()) {
 			volumes.removeIf(volume -> {
 				Integer volumeNumber = Integer.parseInt(volume.getVolumeNumber());
@@ -145,23 +182,4 @@ public class Story {
 		return parseVolumeInfo(Collections.emptySet());
 	}
 
-	/** Assign each chapter a number, if chapter number was not scraped. */
-	public void assignNonScrapedChapterNumbers() {
-		List<Chapter> chapters = volumes.stream().map(Volume::getChapters).flatMap(List::stream).toList();
-
-		// Check if chapter numbers were scraped
-		long count = chapters.stream().filter(c -> c.getChapterNumber() == -1).count();
-		if (chapters.size() != count) {
-			return;
-		}
-
-		// Assign chapter numbers
-		for (int i = 0; i < chapters.size(); i++) {
-			Chapter chapter = chapters.get(i);
-			if (chapter.getChapterNumber() == -1) {
-				chapter.setChapterNumber(i + 1);
-			}
-		}
-	}
-
 }
@@ -1,11 +1,22 @@
 package com.nicolas_abroad.epub_scraper_desktop.ebook;
 
+import com.nicolas_abroad.epub_scraper_desktop.format.EbookWriter;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.FetchEngine;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.http.FetchedPage;
 import com.nicolas_abroad.epub_scraper_desktop.scrape.sources.EbookScraper;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.sync.ChapterJournal;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Class for a single volume.
@@ -28,6 +39,20 @@ public class Volume {
 	private String title;
 	/** Formatted volume number */
 	private String volumeNumber;
+	/** Number of chapters in previous volumes, used to number chapters whose number is not scraped */
+	private int chapterNumberOffset;
+	/** Scraped chapters, by url */
+	@ToString.Exclude
+	@EqualsAndHashCode.Exclude
+	private Map<String, Chapter> scrapedChapters = new ConcurrentHashMap<>();
+	/** Store scraped chapter texts are moved to, null to keep them on the heap */
+	@ToString.Exclude
+	@EqualsAndHashCode.Exclude
+	private ChapterStore chapterStore;
+	/** Errors of the chapters that failed to be scraped, by url */
+	@ToString.Exclude
+	@EqualsAndHashCode.Exclude
+	private Map<String, Exception> failedChapters = new ConcurrentHashMap<>();
 
 	/** Create a new volume with a scraper and a list of chapter urls */
 	public Volume(EbookScraper scraper, List<String> chapterUrls) {
@@ -35,12 +60,165 @@ public class Volume {
 		this.chapterUrls = chapterUrls;
 	}
 
-	/** Scrape all chapters in the chapter urls list */
+	/** Scrape all chapters in the chapter urls list, one at a time, failing on the first failed chapter */
 	public void generate() throws Exception {
-		for (String url : chapterUrls) {
+		try (FetchEngine fetchEngine = FetchEngine.sequential()) {
+			generate(fetchEngine);
+		}
+		if (!failedChapters.isEmpty()) {
+			throw failedChapters.get(getFailedChapterUrls().getFirst());
+		}
+	}
+
+	/**
+	 * Scrape all chapters in the chapter urls list using a fetch engine.
+	 * Chapters keep the order of the chapter urls list.
+	 *
+	 * @param fetchEngine
+	 * @throws Exception
+	 */
+	public void generate(FetchEngine fetchEngine) throws Exception {
+		generate(fetchEngine, null, null);
+	}
+
+	/**
+	 * Scrape all chapters in the chapter urls list using a fetch engine, resuming from a journal,
+	 * and stream them to an ebook writer.
+	 * Chapters already in the journal are not fetched again, and every scraped chapter is appended to it.
+	 * Chapters are passed to the writer as soon as they are scraped, which releases their text once written.
+	 * With a chapter store, texts are moved to it when scraped, so chapters waiting to be written stay off the heap.
+	 * Chapters that fail are recorded instead of failing the volume, see {@link #retryFailedChapters}.
+	 * Chapters keep the order of the chapter urls list.
+	 *
+	 * @param fetchEngine
+	 * @param journal chapter journal, may be null
+	 * @param writer ebook writer, may be null to keep chapter texts in memory
+	 * @throws Exception
+	 */
+	public void generate(FetchEngine fetchEngine, ChapterJournal journal, EbookWriter writer) throws Exception {
+		if (journal != null) {
+			Set<String> journaledUrls = journal.getChapterUrls();
+			for (int i = 0; i < chapterUrls.size(); i++) {
+				String url = chapterUrls.get(i);
+				if (journaledUrls.contains(url)) {
+					addScrapedChapter(i, journal.read(url), writer);
+				}
+			}
+		}
+		List<String> missingUrls = chapterUrls.stream().filter(url -> !scrapedChapters.containsKey(url)).toList();
+		fetchChapters(fetchEngine, journal, writer, missingUrls);
+	}
+
+	/**
+	 * Scrape chapters that failed during the previous attempt again.
+	 *
+	 * @param fetchEngine
+	 * @param journal chapter journal, may be null
+	 * @param writer ebook writer the volume is streamed to, may be null
+	 * @throws Exception
+	 */
+	public void retryFailedChapters(FetchEngine fetchEngine, ChapterJournal journal, EbookWriter writer)
+			throws Exception {
+		List<String> failedUrls = getFailedChapterUrls();
+		failedChapters.clear();
+		fetchChapters(fetchEngine, journal, writer, failedUrls);
+	}
+
+	/**
+	 * Scrape chapters that failed during the previous attempt again, streaming the whole volume to a new ebook writer.
+	 * Chapters scraped before are read back from the journal, so the writer of the previous attempt can be discarded.
+	 *
+	 * @param fetchEngine
+	 * @param journal chapter journal every scraped chapter was appended to
+	 * @param writer new ebook writer, may be null
+	 * @throws Exception
+	 */
+	public void retryFailedChaptersFromJournal(FetchEngine fetchEngine, ChapterJournal journal, EbookWriter writer)
+			throws Exception {
+		failedChapters.clear();
+		generate(fetchEngine, journal, writer);
+	}
+
+	/** Are all chapters scraped */
+	public boolean isComplete() {
+		return failedChapters.isEmpty() && chapters.size() == chapterUrls.size();
+	}
+
+	/**
+	 * Get urls of the chapters that failed to be scraped.
+	 *
+	 * @return failed chapter urls, in volume order
+	 */
+	public List<String> getFailedChapterUrls() {
+		return chapterUrls.stream().filter(failedChapters::containsKey).toList();
+	}
+
+	private void fetchChapters(FetchEngine fetchEngine, ChapterJournal journal, EbookWriter writer, List<String> urls)
+			throws Exception {
+		Map<String, Integer> chapterIndexes = new HashMap<>();
+		for (int i = 0; i < chapterUrls.size(); i++) {
+			chapterIndexes.putIfAbsent(chapterUrls.get(i), i);
+		}
+
+		// Pages are fetched on virtual threads and parsed on the parse pool, then written in volume order by this thread.
+		// Failures are kept for a retry
+		fetchEngine.fetchAll(urls, url -> {
 			Chapter chapter = new Chapter(scraper, url);
-			chapter.generate();
-			this.chapters.add(chapter);
+			try {
+				return new FetchedChapter(chapter, chapter.fetch());
+			} catch (InterruptedException e) {
+				throw e;
+			} catch (Exception e) {
+				failedChapters.put(url, e);
+				return null;
+			}
+		}, (url, fetched) -> {
+			if (fetched == null) {
+				return null;
+			}
+			try {
+				fetched.chapter().parse(fetched.page());
+				return fetched.chapter();
+			} catch (Exception e) {
+				failedChapters.put(url, e);
+				return null;
+			}
+		}, (url, chapter) -> {
+			if (chapter == null) {
+				return;
+			}
+			int index = chapterIndexes.get(url);
+			if (chapter.getChapterNumber() == -1) {
+				// Chapter numbers are used in file names, so they are assigned before writing
+				chapter.setChapterNumber(chapterNumberOffset + index + 1);
+			}
+			if (journal != null) {
+				journal.append(chapter);
+			}
+			addScrapedChapter(index, chapter, writer);
+		});
+
+		// Chapters are only assembled once all of them are scraped
+		if (failedChapters.isEmpty()) {
+			this.chapters.clear();
+			for (String url : chapterUrls) {
+				this.chapters.add(scrapedChapters.get(url));
+			}
+		}
+	}
+
+	/** Chapter with its fetched page, waiting to be parsed */
+	private record FetchedChapter(Chapter chapter, FetchedPage page) {
+	}
+
+	private void addScrapedChapter(int index, Chapter chapter, EbookWriter writer) throws IOException {
+		chapter.setScraper(scraper);
+		if (chapterStore != null) {
+			chapter.storeText(chapterStore);
+		}
+		scrapedChapters.put(chapter.getUrl(), chapter);
+		if (writer != null) {
+			writer.addChapter(index, chapter);
 		}
 	}
 
@@ -21,6 +21,17 @@ public interface EbookFormat {
 	 */
 	void generate(Path directoryPath, Volume volume) throws IOException;
 
+	/**
+	 * Begin writing an ebook, chapters are then added as they are scraped.
+	 * Chapter texts are released once rendered.
+	 *
+	 * @param directoryPath
+	 * @param volume volume with title, author and chapter urls
+	 * @return ebook writer
+	 * @throws IOException
+	 */
+	EbookWriter begin(Path directoryPath, Volume volume) throws IOException;
+
 	/** Get file extension */
 	String getFileExtension();
 
@@ -0,0 +1,43 @@
+package com.nicolas_abroad.epub_scraper_desktop.format;
+
+import com.nicolas_abroad.epub_scraper_desktop.ebook.Chapter;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Incremental ebook writer.
+ * Chapters are written as soon as they are added, in volume order whatever the order they are added in,
+ * and indexing files are written once all chapters were added.
+ *
+ * @author Nicolas
+ */
+public interface EbookWriter extends Closeable {
+
+	/**
+	 * Add a chapter. Chapters following a missing one are buffered until it is added,
+	 * and adding a chapter may wait for the chapters added before it to be processed.
+	 *
+	 * @param index position of the chapter in the volume, starting from 0
+	 * @param chapter
+	 * @throws IOException
+	 */
+	void addChapter(int index, Chapter chapter) throws IOException;
+
+	/**
+	 * Write indexing files and publish the ebook.
+	 *
+	 * @return report of the written ebook
+	 * @throws IOException
+	 */
+	WriteReport finish() throws IOException;
+
+	/**
+	 * Close writer. An unfinished ebook is discarded.
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	void close() throws IOException;
+
+}
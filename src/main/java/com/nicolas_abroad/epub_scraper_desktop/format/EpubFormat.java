@@ -8,14 +8,17 @@ import org.thymeleaf.context.Context;
 import org.thymeleaf.templatemode.TemplateMode;
 import org.thymeleaf.templateresolver.StringTemplateResolver;
 
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
 
 /**
  * Epub format.
@@ -32,6 +35,73 @@ public class EpubFormat implements EbookFormat {
 
 	private static final String TEMPLATE_FOLDER = "epub_templates/";
 
+	private static final String CHAPTER_TEMPLATE = "OEBPS/chapter.xhtml";
+
+	/** Chapter text expression of the chapter template, the text is written around the template engine */
+	private static final String CHAPTER_TEXT_EXPRESSION = "[(${chapter.text})]";
+
+	/** Files copied as is, cached as ready-made zip entries, in archive order */
+	static final List<String> STATIC_FILES = List.of("mimetype", "META-INF/container.xml",
+			"OEBPS/horizontal.css", "OEBPS/page-template.xpgt");
+
+	/** Indexing files rendered from the volume, in archive order */
+	static final List<String> INDEX_FILES = List.of("OEBPS/nav.xhtml", "OEBPS/content.opf", "OEBPS/toc.ncx");
+
+	/** Default deflate compression level, the zlib default */
+	public static final int DEFAULT_COMPRESSION_LEVEL = 6;
+
+	/** Static file contents with their CRC-32, by file path */
+	private final Map<String, StaticFile> staticFiles = new HashMap<>();
+
+	/** Template contents, by file path. Parsed templates are cached by the template engine. */
+	private final Map<String, String> templates = new HashMap<>();
+
+	/** Chapter template up to the chapter text */
+	private final String chapterHeadTemplate;
+
+	/** Chapter template after the chapter text, without any expression */
+	private final byte[] chapterTail;
+
+	/** Deflate compression level of rendered files */
+	private final int compressionLevel;
+
+	/** Static file content with its CRC-32 */
+	record StaticFile(byte[] content, long crc) {
+	}
+
+	/** Create a new epub format with the default compression level */
+	public EpubFormat() {
+		this(DEFAULT_COMPRESSION_LEVEL);
+	}
+
+	/**
+	 * Create a new epub format, loading all templates once.
+	 *
+	 * @param compressionLevel deflate compression level of rendered files, from 0 to 9
+	 */
+	public EpubFormat(int compressionLevel) {
+		if (compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+			throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+		}
+		this.compressionLevel = compressionLevel;
+		try {
+			for (String filePath : STATIC_FILES) {
+				byte[] content = IOUtils.getFileContent(TEMPLATE_FOLDER + filePath).getBytes(StandardCharsets.UTF_8);
+				staticFiles.put(filePath, new StaticFile(content, IOUtils.calculateCrc(content)));
+			}
+			for (String filePath : INDEX_FILES) {
+				templates.put(filePath, IOUtils.getFileContent(TEMPLATE_FOLDER + filePath));
+			}
+			String chapterTemplate = IOUtils.getFileContent(TEMPLATE_FOLDER + CHAPTER_TEMPLATE);
+			int textIndex = chapterTemplate.indexOf(CHAPTER_TEXT_EXPRESSION);
+			chapterHeadTemplate = chapterTemplate.substring(0, textIndex);
+			chapterTail = chapterTemplate.substring(textIndex + CHAPTER_TEXT_EXPRESSION.length())
+					.getBytes(StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
 	// ----------------------------------------------------------
 	// Utils
 	// ----------------------------------------------------------
@@ -41,23 +111,13 @@ public class EpubFormat implements EbookFormat {
 
 		StringTemplateResolver resolver = new StringTemplateResolver();
 		resolver.setTemplateMode(TemplateMode.TEXT);
+		// Templates are the same string instances every time, so they are only parsed once
+		resolver.setCacheable(true);
 		engine.addTemplateResolver(resolver);
 
 		return engine;
 	}
 
-	/** Write file to zip stream */
-	public void writeFileToZip(ZipOutputStream zipOutputStream, String filePath, String fileContent) throws IOException {
-		ZipEntry entry = new ZipEntry(filePath);
-		entry.setMethod(ZipEntry.STORED);
-		byte[] entryBytes = fileContent.getBytes(StandardCharsets.UTF_8);
-		entry.setSize(entryBytes.length);
-		entry.setCrc(IOUtils.calculateCrc(entryBytes));
-		zipOutputStream.putNextEntry(entry);
-		zipOutputStream.write(entryBytes);
-		zipOutputStream.closeEntry();
-	}
-
 	private Context generateContext(Volume volume) {
 		Context context = new Context();
 		context.setVariable("volume", volume);
@@ -70,15 +130,34 @@ public class EpubFormat implements EbookFormat {
 		return context;
 	}
 
-	private void generateFile(ZipOutputStream zipOutputStream, String filePath) throws IOException {
-		String fileContent = IOUtils.getFileContent(TEMPLATE_FOLDER + filePath);
-		writeFileToZip(zipOutputStream, filePath, fileContent);
+	/** Get deflate compression level of rendered files */
+	int getCompressionLevel() {
+		return compressionLevel;
 	}
 
-	private void generateFile(ZipOutputStream zipOutputStream, String filePath, Context context) throws IOException {
-		String templateFileContent = IOUtils.getFileContent(TEMPLATE_FOLDER + filePath);
-		String fileContent = textTemplateEngine.process(templateFileContent, context);
-		writeFileToZip(zipOutputStream, filePath, fileContent);
+	/** Get static file content */
+	StaticFile getStaticFile(String filePath) {
+		return staticFiles.get(filePath);
+	}
+
+	/** Get chapter file path within the epub */
+	static String getChapterFilePath(Chapter chapter) {
+		return "OEBPS/c" + chapter.getChapterNumber() + ".xhtml";
+	}
+
+	/** Render chapter file, copying the chapter text as UTF-8 bytes rather than through the template engine */
+	void renderChapter(Chapter chapter, OutputStream outputStream) throws IOException {
+		// The writer is only flushed, the text is written to the stream
+		Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+		textTemplateEngine.process(chapterHeadTemplate, generateContext(chapter), writer);
+		writer.flush();
+		chapter.writeText(outputStream);
+		outputStream.write(chapterTail);
+	}
+
+	/** Render indexing file */
+	void renderIndex(String filePath, Volume volume, Writer writer) {
+		textTemplateEngine.process(templates.get(filePath), generateContext(volume), writer);
 	}
 
 	// ----------------------------------------------------------
@@ -87,79 +166,18 @@ public class EpubFormat implements EbookFormat {
 
 	@Override
 	public void generate(Path directoryPath, Volume volume) throws IOException {
-		String fileName = volume.getTitle() + ExtensionType.EPUB;
-		Path filePath = directoryPath.resolve(fileName);
-		try (FileOutputStream fileOutputStream = new FileOutputStream(filePath.toFile());
-			 BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(fileOutputStream);
-			 ZipOutputStream zipOutputStream = new ZipOutputStream(bufferedOutputStream)) {
-
-			// generate necessary files
-			generateMimetype(zipOutputStream);
-			generateContainer(zipOutputStream);
-			generateCss(zipOutputStream);
-			generateNav(zipOutputStream, volume);
-			generatePageTemplate(zipOutputStream);
-
-			// generate indexing files
-			generateContent(zipOutputStream, volume);
-			generateToc(zipOutputStream, volume);
-
-			// generate chapters
-			for (Chapter chapter : volume.getChapters()) {
-				generateChapter(zipOutputStream, chapter);
+		try (EbookWriter writer = new EpubWriter(this, directoryPath, volume, false)) {
+			List<Chapter> chapters = volume.getChapters();
+			for (int i = 0; i < chapters.size(); i++) {
+				writer.addChapter(i, chapters.get(i));
 			}
+			writer.finish();
 		}
 	}
 
-	/** Generate mimetype file within zip file */
-	public void generateMimetype(ZipOutputStream zipOutputStream) throws IOException {
-		generateFile(zipOutputStream, "mimetype");
-	}
-
-	/** Generate container file */
-	public void generateContainer(ZipOutputStream zipOutputStream) throws IOException {
-		generateFile(zipOutputStream, "META-INF/container.xml");
-	}
-
-	/** Generate content file */
-	public void generateContent(ZipOutputStream zipOutputStream, Volume volume) throws IOException {
-		Context context = generateContext(volume);
-		final String filePath = "OEBPS/content.opf";
-		generateFile(zipOutputStream, filePath, context);
-	}
-
-	/** Generate toc file */
-	public void generateToc(ZipOutputStream zipOutputStream, Volume volume) throws IOException {
-		Context context = generateContext(volume);
-		final String filePath = "OEBPS/toc.ncx";
-		generateFile(zipOutputStream, filePath, context);
-	}
-
-	/** Generate a single chapter file */
-	public void generateChapter(ZipOutputStream zipOutputStream, Chapter chapter) throws IOException {
-		Context context = generateContext(chapter);
-		final String filePath = "OEBPS/chapter.xhtml";
-		String templateFileContent = IOUtils.getFileContent(TEMPLATE_FOLDER + filePath);
-		String chapterFileName = "OEBPS/c" + chapter.getChapterNumber() + ".xhtml";
-		String fileContent = textTemplateEngine.process(templateFileContent, context);
-		writeFileToZip(zipOutputStream, chapterFileName, fileContent);
-	}
-
-	/** Generate css file */
-	public void generateCss(ZipOutputStream zipOutputStream) throws IOException {
-		generateFile(zipOutputStream, "OEBPS/horizontal.css");
-	}
-
-	/** Generate page template file */
-	public void generatePageTemplate(ZipOutputStream zipOutputStream) throws IOException {
-		generateFile(zipOutputStream, "OEBPS/page-template.xpgt");
-	}
-
-	/** Generate nav file */
-	public void generateNav(ZipOutputStream zipOutputStream, Volume volume) throws IOException {
-		Context context = generateContext(volume);
-		final String filePath = "OEBPS/nav.xhtml";
-		generateFile(zipOutputStream, filePath, context);
+	@Override
+	public EbookWriter begin(Path directoryPath, Volume volume) throws IOException {
+		return new EpubWriter(this, directoryPath, volume, true);
 	}
 
 	@Override
@@ -0,0 +1,388 @@
+package com.nicolas_abroad.epub_scraper_desktop.format;
+
+import com.nicolas_abroad.epub_scraper_desktop.ebook.Chapter;
+import com.nicolas_abroad.epub_scraper_desktop.ebook.Volume;
+import com.nicolas_abroad.epub_scraper_desktop.metrics.Metrics;
+import com.nicolas_abroad.epub_scraper_desktop.metrics.Phase;
+import com.nicolas_abroad.epub_scraper_desktop.utils.IOUtils;
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Deflater;
+
+/**
+ * Incremental epub writer.
+ * Chapters are rendered and deflated in parallel as soon as they are added, then appended to the archive
+ * in volume order as raw entries. Static files are stored, with the mimetype first as the epub specification requires.
+ * The epub is written to a temporary file, renamed once finished, so an interrupted run never leaves a broken epub.
+ * Memory does not grow with the volume: adding a chapter waits while too many chapters are being compressed,
+ * and compressed chapters waiting for a missing one are spilled to disk beyond a fixed window.
+ *
+ * @author Nicolas
+ */
+class EpubWriter implements EbookWriter {
+
+	private static final String PART_EXTENSION = ".part";
+	private static final String SPILL_EXTENSION = ".spill";
+
+	/** Maximum number of chapters being compressed, adding a chapter waits beyond */
+	static final int MAX_COMPRESSING_CHAPTERS = 2 * Runtime.getRuntime().availableProcessors();
+
+	/** Maximum number of compressed chapters kept in memory while waiting for a previous chapter */
+	static final int MAX_BUFFERED_CHAPTERS = 64;
+
+	/** Pool compressing chapters, sized to the number of cores */
+	private static final Executor COMPRESSION_POOL = ForkJoinPool.commonPool();
+
+	private final EpubFormat epubFormat;
+
+	private final Volume volume;
+
+	private final Path filePath;
+
+	private final Path partPath;
+
+	private final ZipArchiveOutputStream zipOutputStream;
+
+	/** Release chapter texts once rendered */
+	private final boolean releaseText;
+
+	/** Chapters being compressed or waiting for a previous chapter, by index */
+	private final Map<Integer, CompletableFuture<CompressedChapter>> pendingChapters = new HashMap<>();
+
+	/** Compressed chapters spilled to disk while waiting for a previous chapter, by index */
+	private final Map<Integer, SpilledChapter> spilledChapters = new HashMap<>();
+
+	private final Semaphore compressionSlots = new Semaphore(MAX_COMPRESSING_CHAPTERS);
+
+	private final Path spillPath;
+
+	/** Spill file, opened once a chapter is spilled */
+	private FileChannel spillChannel;
+
+	private long spillSize;
+
+	/** Written chapters, in volume order */
+	private final List<Chapter> writtenChapters = new ArrayList<>();
+
+	private final LongAdder contentSize = new LongAdder();
+
+	private final LongAdder compressionNanos = new LongAdder();
+
+	/** First failure while compressing or appending chapters */
+	private IOException failure;
+
+	private boolean finished;
+
+	/** Chapter rendered and deflated, ready to be appended as a raw entry */
+	private record CompressedChapter(Chapter chapter, byte[] data, long crc, long size) {
+	}
+
+	/** Compressed chapter spilled to disk, its deflated data is read back once it is next in order */
+	private record SpilledChapter(Chapter chapter, long offset, int length, long crc, long size) {
+	}
+
+	EpubWriter(EpubFormat epubFormat, Path directoryPath, Volume volume, boolean releaseText) throws IOException {
+		this.epubFormat = epubFormat;
+		this.volume = volume;
+		this.releaseText = releaseText;
+		this.filePath = directoryPath.resolve(volume.getTitle() + epubFormat.getFileExtension());
+		this.partPath = directoryPath.resolve(filePath.getFileName() + PART_EXTENSION);
+		this.spillPath = directoryPath.resolve(filePath.getFileName() + SPILL_EXTENSION);
+		this.zipOutputStream = new ZipArchiveOutputStream(partPath);
+		try {
+			// Epub readers do not need zip64, and the mimetype entry must not have extra fields
+			zipOutputStream.setUseZip64(Zip64Mode.Never);
+			zipOutputStream.setLevel(epubFormat.getCompressionLevel());
+			for (String staticFile : EpubFormat.STATIC_FILES) {
+				EpubFormat.StaticFile content = epubFormat.getStaticFile(staticFile);
+				writeRawEntry(staticFile, ZipArchiveEntry.STORED, content.content(), content.crc(),
+						content.content().length);
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	@Override
+	public void addChapter(int index, Chapter chapter) throws IOException {
+		// Wait for a compression slot without holding the lock compressed chapters are appended with
+		try {
+			compressionSlots.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a chapter to be compressed");
+		}
+		CompletableFuture<CompressedChapter> future;
+		try {
+			synchronized (this) {
+				if (finished || index < writtenChapters.size() || pendingChapters.containsKey(index)
+						|| spilledChapters.containsKey(index)) {
+					throw new IllegalStateException("Chapter " + index + " can not be added to " + volume.getTitle());
+				}
+				throwFailure();
+				future = CompletableFuture.supplyAsync(() -> compress(chapter), COMPRESSION_POOL);
+				pendingChapters.put(index, future);
+			}
+		} catch (IOException | RuntimeException e) {
+			compressionSlots.release();
+			throw e;
+		}
+		future.whenComplete((compressedChapter, throwable) -> {
+			compressionSlots.release();
+			onCompressed();
+		});
+	}
+
+	@Override
+	public WriteReport finish() throws IOException {
+		// Wait for chapters being compressed, without holding the lock they need to be appended
+		List<CompletableFuture<CompressedChapter>> futures;
+		synchronized (this) {
+			futures = new ArrayList<>(pendingChapters.values());
+		}
+		for (CompletableFuture<CompressedChapter> future : futures) {
+			future.exceptionally(throwable -> null).join();
+		}
+
+		synchronized (this) {
+			appendReadyChapters();
+			throwFailure();
+			if (!pendingChapters.isEmpty() || !spilledChapters.isEmpty()) {
+				throw new IllegalStateException("Chapter " + writtenChapters.size() + " is missing from " + volume.getTitle());
+			}
+
+			// generate indexing files from the written chapters
+			Volume indexVolume = new Volume();
+			indexVolume.setTitle(volume.getTitle());
+			indexVolume.setAuthor(volume.getAuthor());
+			indexVolume.setVolumeNumber(volume.getVolumeNumber());
+			indexVolume.setChapters(writtenChapters);
+			for (String indexFile : EpubFormat.INDEX_FILES) {
+				writeIndexEntry(indexFile, indexVolume);
+			}
+
+			zipOutputStream.close();
+			closeSpill();
+			Files.move(partPath, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			finished = true;
+			return new WriteReport(contentSize.sum(), Files.size(filePath), compressionNanos.sum());
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (finished) {
+			return;
+		}
+		finished = true;
+		pendingChapters.values().forEach(future -> future.cancel(false));
+		pendingChapters.clear();
+		spilledChapters.clear();
+		try {
+			zipOutputStream.close();
+		} finally {
+			try {
+				closeSpill();
+			} finally {
+				Files.deleteIfExists(partPath);
+			}
+		}
+	}
+
+	/** Get number of chapters being compressed or kept in memory while waiting for a previous chapter */
+	synchronized int getBufferedChapterCount() {
+		return pendingChapters.size();
+	}
+
+	/** Get number of chapters spilled to disk while waiting for a previous chapter */
+	synchronized int getSpilledChapterCount() {
+		return spilledChapters.size();
+	}
+
+	private synchronized void onCompressed() {
+		appendReadyChapters();
+		spillBufferedChapters();
+	}
+
+	/** Append every compressed chapter that is next in order, from memory or from the spill file */
+	private synchronized void appendReadyChapters() {
+		if (finished) {
+			return;
+		}
+		while (failure == null) {
+			int nextIndex = writtenChapters.size();
+			CompletableFuture<CompressedChapter> nextChapter = pendingChapters.get(nextIndex);
+			SpilledChapter spilledChapter = spilledChapters.remove(nextIndex);
+			if (spilledChapter == null && (nextChapter == null || !nextChapter.isDone())) {
+				return;
+			}
+			pendingChapters.remove(nextIndex);
+			try {
+				CompressedChapter compressedChapter = spilledChapter != null ? readSpilled(spilledChapter)
+						: nextChapter.join();
+				long start = System.nanoTime();
+				writeRawEntry(EpubFormat.getChapterFilePath(compressedChapter.chapter()), ZipArchiveEntry.DEFLATED,
+						compressedChapter.data(), compressedChapter.crc(), compressedChapter.size());
+				Metrics.getSharedMetrics().record(Phase.ZIP_WRITE, compressedChapter.chapter().getUrl(), start,
+						compressedChapter.data().length);
+				writtenChapters.add(compressedChapter.chapter());
+			} catch (CompletionException e) {
+				failure = e.getCause() instanceof IOException cause ? cause : new IOException(e.getCause());
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+	}
+
+	/** Spill compressed chapters beyond the in-memory window, those written last first */
+	private void spillBufferedChapters() {
+		if (finished || failure != null) {
+			return;
+		}
+		List<Integer> bufferedIndexes = pendingChapters.entrySet().stream()
+				.filter(entry -> entry.getValue().isDone() && !entry.getValue().isCompletedExceptionally())
+				.map(Map.Entry::getKey).sorted(Comparator.reverseOrder()).toList();
+		for (int i = 0; i < bufferedIndexes.size() - MAX_BUFFERED_CHAPTERS; i++) {
+			int index = bufferedIndexes.get(i);
+			CompressedChapter compressedChapter = pendingChapters.remove(index).join();
+			try {
+				if (spillChannel == null) {
+					spillChannel = FileChannel.open(spillPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+							StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+				}
+				ByteBuffer data = ByteBuffer.wrap(compressedChapter.data());
+				long offset = spillSize;
+				while (data.hasRemaining()) {
+					spillChannel.write(data, offset + data.position());
+				}
+				spillSize += compressedChapter.data().length;
+				spilledChapters.put(index, new SpilledChapter(compressedChapter.chapter(), offset,
+						compressedChapter.data().length, compressedChapter.crc(), compressedChapter.size()));
+			} catch (IOException e) {
+				failure = e;
+				return;
+			}
+		}
+	}
+
+	private CompressedChapter readSpilled(SpilledChapter spilledChapter) throws IOException {
+		ByteBuffer data = ByteBuffer.allocate(spilledChapter.length());
+		while (data.hasRemaining()) {
+			if (spillChannel.read(data, spilledChapter.offset() + data.position()) < 0) {
+				throw new IOException("Spilled chapter is truncated: " + spilledChapter.chapter().getUrl());
+			}
+		}
+		return new CompressedChapter(spilledChapter.chapter(), data.array(), spilledChapter.crc(),
+				spilledChapter.size());
+	}
+
+	private void closeSpill() throws IOException {
+		if (spillChannel != null) {
+			spillChannel.close();
+			spillChannel = null;
+		}
+	}
+
+	private CompressedChapter compress(Chapter chapter) {
+		Metrics metrics = Metrics.getSharedMetrics();
+		long start = System.nanoTime();
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		try {
+			epubFormat.renderChapter(chapter, content);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		if (releaseText) {
+			chapter.releaseText();
+		}
+		byte[] contentBytes = content.toByteArray();
+		metrics.record(Phase.RENDER, chapter.getUrl(), start, contentBytes.length);
+
+		long deflateStart = System.nanoTime();
+		byte[] data = deflate(contentBytes);
+		metrics.record(Phase.COMPRESS, chapter.getUrl(), deflateStart, data.length);
+		contentSize.add(contentBytes.length);
+		compressionNanos.add(System.nanoTime() - start);
+		return new CompressedChapter(chapter, data, IOUtils.calculateCrc(contentBytes), contentBytes.length);
+	}
+
+	private byte[] deflate(byte[] content) {
+		// Raw deflate data, the zip entry holds the header
+		Deflater deflater = new Deflater(epubFormat.getCompressionLevel(), true);
+		try {
+			deflater.setInput(content);
+			deflater.finish();
+			ByteArrayOutputStream data = new ByteArrayOutputStream(content.length / 2 + 64);
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				int length = deflater.deflate(buffer);
+				data.write(buffer, 0, length);
+			}
+			return data.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private void writeRawEntry(String entryPath, int method, byte[] data, long crc, long size) throws IOException {
+		ZipArchiveEntry entry = new ZipArchiveEntry(entryPath);
+		entry.setMethod(method);
+		entry.setCrc(crc);
+		entry.setSize(size);
+		entry.setCompressedSize(data.length);
+		zipOutputStream.addRawArchiveEntry(entry, new ByteArrayInputStream(data));
+		if (method == ZipArchiveEntry.STORED) {
+			contentSize.add(size);
+		}
+	}
+
+	/** Render indexing file straight into a deflated entry, without building its content in memory */
+	private void writeIndexEntry(String entryPath, Volume indexVolume) throws IOException {
+		long start = System.nanoTime();
+		ZipArchiveEntry entry = new ZipArchiveEntry(entryPath);
+		entry.setMethod(ZipArchiveEntry.DEFLATED);
+		zipOutputStream.putArchiveEntry(entry);
+		// The writer is only flushed, closing it would close the zip stream
+		Writer writer = new OutputStreamWriter(zipOutputStream, StandardCharsets.UTF_8);
+		epubFormat.renderIndex(entryPath, indexVolume, writer);
+		writer.flush();
+		zipOutputStream.closeArchiveEntry();
+		contentSize.add(entry.getSize());
+		compressionNanos.add(System.nanoTime() - start);
+	}
+
+	private void throwFailure() throws IOException {
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+}
@@ -0,0 +1,30 @@
+package com.nicolas_abroad.epub_scraper_desktop.format;
+
+/**
+ * Report of a written ebook.
+ *
+ * @param contentSize size of all files before compression, in bytes
+ * @param fileSize size of the written ebook, in bytes
+ * @param compressionNanos time spent rendering and compressing chapters, summed over all threads
+ * @author Nicolas
+ */
+public record WriteReport(long contentSize, long fileSize, long compressionNanos) {
+
+	private static final double MEGABYTE = 1024 * 1024;
+
+	/** Get ebook size relative to its content size, in percent */
+	public double getCompressionRatio() {
+		return contentSize == 0 ? 100 : 100.0 * fileSize / contentSize;
+	}
+
+	/** Get compression throughput of a single thread, in megabytes per second */
+	public double getThroughput() {
+		return compressionNanos == 0 ? 0 : contentSize / MEGABYTE / (compressionNanos / 1e9);
+	}
+
+	/** Get size of the written ebook, in megabytes */
+	public double getFileSizeMb() {
+		return fileSize / MEGABYTE;
+	}
+
+}
@@ -6,6 +6,7 @@ import com.nicolas_abroad.epub_scraper_desktop.scrape.sources.SyosetsuScraper;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -28,12 +29,13 @@ public class InputParser {
 	@Getter
 	public enum UrlScraperEnum {
 		/** Syosetsu mapper */
-		SYSOSETSU(SYSOSETSU_URL_REGEX, new SyosetsuScraper()),
+		SYSOSETSU(SYSOSETSU_URL_REGEX, SyosetsuScraper::new),
 		/** Kakuyomu mapper */
-		KAKUYOMU(KAKUYOMU_URL_REGEX, new KakuyomuScraper());
+		KAKUYOMU(KAKUYOMU_URL_REGEX, KakuyomuScraper::new);
 
 		private final String regex;
-		private final EbookScraper scraper;
+		/** Scrapers keep session state, so every story gets its own scraper */
+		private final Supplier<EbookScraper> scraperFactory;
 	}
 
 	private InputParser() {
@@ -54,20 +56,40 @@ public class InputParser {
 	 * @param url
 	 */
 	public void processUrl(String url) {
+		this.urlScraper = findUrlScraper(url);
+	}
+
+	/**
+	 * Find the website mapper of an url.
+	 *
+	 * @param url
+	 * @return url to scraper mapper, null when the url is not supported
+	 */
+	public static UrlScraperEnum findUrlScraper(String url) {
 		if (url == null || url.isEmpty()) {
-			this.urlScraper = null;
-			return;
+			return null;
 		}
 
 		for (UrlScraperEnum urlScraper : UrlScraperEnum.values()) {
 			Pattern pattern = Pattern.compile(urlScraper.regex);
 			Matcher matcher = pattern.matcher(url);
 			if (matcher.find()) {
-				this.urlScraper = urlScraper;
-				return;
+				return urlScraper;
 			}
 		}
-		this.urlScraper = null;
+		return null;
+	}
+
+	/**
+	 * Create a new ebook scraper for an url, with its own session.
+	 * Unlike {@link #processUrl}, this does not change the state of the input parser.
+	 *
+	 * @param url
+	 * @return new ebook scraper, null when the url is not supported
+	 */
+	public static EbookScraper createScraper(String url) {
+		UrlScraperEnum urlScraper = findUrlScraper(url);
+		return urlScraper == null ? null : urlScraper.getScraperFactory().get();
 	}
 
 	/**
@@ -80,7 +102,7 @@ public class InputParser {
 	}
 
 	/**
-	 * Get ebook scraper.
+	 * Get a new ebook scraper for the processed url.
 	 *
 	 * @return ebook scraper
 	 */
@@ -88,7 +110,7 @@ public class InputParser {
 		if (this.urlScraper == null) {
 			return null;
 		}
-		return this.urlScraper.getScraper();
+		return this.urlScraper.getScraperFactory().get();
 	}
 
 }
@@ -0,0 +1,110 @@
+package com.nicolas_abroad.epub_scraper_desktop.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with power of two buckets, from 1 microsecond to about a minute.
+ * Recording only increments striped counters, so concurrent threads do not contend.
+ *
+ * @author Nicolas
+ */
+public class LatencyHistogram {
+
+	/** Number of buckets, the last one holds every latency above the largest bound */
+	static final int BUCKET_COUNT = 28;
+
+	private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+
+	private final LongAdder count = new LongAdder();
+
+	private final LongAdder totalNanos = new LongAdder();
+
+	private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+	/** Create a new empty histogram */
+	public LatencyHistogram() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Record a latency.
+	 *
+	 * @param nanos latency, in nanoseconds
+	 */
+	public void record(long nanos) {
+		buckets[getBucketIndex(nanos)].increment();
+		count.increment();
+		totalNanos.add(nanos);
+		maxNanos.accumulate(nanos);
+	}
+
+	/** Index of the smallest bucket whose upper bound is above the latency */
+	static int getBucketIndex(long nanos) {
+		long micros = nanos / 1000;
+		if (micros <= 1) {
+			return 0;
+		}
+		return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros - 1));
+	}
+
+	/**
+	 * Get upper bound of a bucket.
+	 *
+	 * @param index bucket index
+	 * @return upper bound in nanoseconds, Long.MAX_VALUE for the last bucket
+	 */
+	public static long getBucketBoundNanos(int index) {
+		return index == BUCKET_COUNT - 1 ? Long.MAX_VALUE : (1L << index) * 1000;
+	}
+
+	/** Get number of recorded latencies in each bucket */
+	public long[] getBucketCounts() {
+		long[] counts = new long[BUCKET_COUNT];
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts[i] = buckets[i].sum();
+		}
+		return counts;
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getTotalNanos() {
+		return totalNanos.sum();
+	}
+
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	/**
+	 * Estimate a percentile from the bucket bounds.
+	 *
+	 * @param percentile from 0 to 100
+	 * @return upper bound of the bucket holding the percentile, capped by the maximum latency, in nanoseconds
+	 */
+	public long getPercentileNanos(double percentile) {
+		long[] counts = getBucketCounts();
+		long total = 0;
+		for (long bucketCount : counts) {
+			total += bucketCount;
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * percentile / 100);
+		long cumulativeCount = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			cumulativeCount += counts[i];
+			if (cumulativeCount >= Math.max(rank, 1)) {
+				return Math.min(getBucketBoundNanos(i), getMaxNanos());
+			}
+		}
+		return getMaxNanos();
+	}
+
+}
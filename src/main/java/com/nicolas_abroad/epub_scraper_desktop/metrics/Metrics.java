@@ -0,0 +1,263 @@
+package com.nicolas_abroad.epub_scraper_desktop.metrics;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Run-level metrics: counters and latency histograms by phase and host.
+ * Metrics are exported as JSON, and in the Prometheus text format.
+ *
+ * @author Nicolas
+ */
+public class Metrics {
+
+	private static final Metrics sharedMetrics = new Metrics();
+
+	/** JSON export file name */
+	public static final String JSON_FILE_NAME = "metrics.json";
+
+	/** Prometheus text export file name, readable by the node exporter textfile collector */
+	public static final String PROMETHEUS_FILE_NAME = "metrics.prom";
+
+	private static final String METRIC_PREFIX = "ebook_scraper_";
+
+	private static final double NANOS_PER_SECOND = 1e9;
+
+	private static final double NANOS_PER_MILLISECOND = 1e6;
+
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+	private final Map<PhaseKey, PhaseMetrics> phaseMetrics = new ConcurrentHashMap<>();
+
+	private volatile long startNanos = System.nanoTime();
+
+	private volatile Instant startedAt = Instant.now();
+
+	/** Phase and host of recorded metrics */
+	private record PhaseKey(Phase phase, String host) {
+	}
+
+	/** Metrics of a phase for a single host */
+	private static class PhaseMetrics {
+		private final LatencyHistogram latencies = new LatencyHistogram();
+		private final LongAdder errors = new LongAdder();
+		private final LongAdder bytes = new LongAdder();
+	}
+
+	/** Exported metrics of a phase for a single host */
+	public record PhaseSnapshot(String phase, String host, long count, long errors, long bytes, double totalSeconds,
+			double throughputPerSecond, double meanMs, double p50Ms, double p90Ms, double p99Ms, double maxMs) {
+	}
+
+	/** Exported metrics of a run */
+	public record RunSnapshot(String startedAt, double durationSeconds, List<PhaseSnapshot> phases) {
+	}
+
+	/**
+	 * Get metrics shared by all scraping runs.
+	 *
+	 * @return shared metrics
+	 */
+	public static Metrics getSharedMetrics() {
+		return sharedMetrics;
+	}
+
+	/**
+	 * Record the latency of a phase.
+	 *
+	 * @param phase
+	 * @param url url being processed, its host labels the metrics
+	 * @param startNanos start of the phase, from {@link System#nanoTime()}
+	 */
+	public void record(Phase phase, String url, long startNanos) {
+		getPhaseMetrics(phase, url).latencies.record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Record the latency of a phase, and the number of bytes it produced.
+	 *
+	 * @param phase
+	 * @param url url being processed, its host labels the metrics
+	 * @param startNanos start of the phase, from {@link System#nanoTime()}
+	 * @param bytes number of bytes produced
+	 */
+	public void record(Phase phase, String url, long startNanos, long bytes) {
+		PhaseMetrics metrics = getPhaseMetrics(phase, url);
+		metrics.latencies.record(System.nanoTime() - startNanos);
+		metrics.bytes.add(bytes);
+	}
+
+	/**
+	 * Record a failure of a phase.
+	 *
+	 * @param phase
+	 * @param url url being processed, its host labels the metrics
+	 */
+	public void recordError(Phase phase, String url) {
+		getPhaseMetrics(phase, url).errors.increment();
+	}
+
+	/** Clear all metrics, starting a new run */
+	public void reset() {
+		phaseMetrics.clear();
+		startNanos = System.nanoTime();
+		startedAt = Instant.now();
+	}
+
+	private PhaseMetrics getPhaseMetrics(Phase phase, String url) {
+		return phaseMetrics.computeIfAbsent(new PhaseKey(phase, getHost(url)), key -> new PhaseMetrics());
+	}
+
+	/** Get host of an url without parsing it, urls may not have a scheme */
+	static String getHost(String url) {
+		if (url == null) {
+			return "";
+		}
+		int hostStart = url.indexOf("://");
+		hostStart = hostStart < 0 ? 0 : hostStart + 3;
+		int hostEnd = url.indexOf('/', hostStart);
+		return url.substring(hostStart, hostEnd < 0 ? url.length() : hostEnd);
+	}
+
+	// ----------------------------------------------------------
+	// Export
+	// ----------------------------------------------------------
+
+	/**
+	 * Get a snapshot of the metrics of the current run.
+	 *
+	 * @return run metrics, phases sorted by phase then host
+	 */
+	public RunSnapshot snapshot() {
+		double durationSeconds = (System.nanoTime() - startNanos) / NANOS_PER_SECOND;
+		List<PhaseSnapshot> phases = getSortedEntries().stream()
+				.map(entry -> snapshot(entry.getKey(), entry.getValue(), durationSeconds))
+				.toList();
+		return new RunSnapshot(startedAt.toString(), durationSeconds, phases);
+	}
+
+	private List<Map.Entry<PhaseKey, PhaseMetrics>> getSortedEntries() {
+		return phaseMetrics.entrySet().stream()
+				.sorted(Comparator.comparing((Map.Entry<PhaseKey, PhaseMetrics> entry) -> entry.getKey().phase())
+						.thenComparing(entry -> entry.getKey().host()))
+				.toList();
+	}
+
+	private static PhaseSnapshot snapshot(PhaseKey key, PhaseMetrics metrics, double durationSeconds) {
+		LatencyHistogram latencies = metrics.latencies;
+		long count = latencies.getCount();
+		double meanMs = count == 0 ? 0 : latencies.getTotalNanos() / NANOS_PER_MILLISECOND / count;
+		return new PhaseSnapshot(key.phase().getLabel(), key.host(), count, metrics.errors.sum(), metrics.bytes.sum(),
+				latencies.getTotalNanos() / NANOS_PER_SECOND, durationSeconds > 0 ? count / durationSeconds : 0, meanMs,
+				latencies.getPercentileNanos(50) / NANOS_PER_MILLISECOND,
+				latencies.getPercentileNanos(90) / NANOS_PER_MILLISECOND,
+				latencies.getPercentileNanos(99) / NANOS_PER_MILLISECOND,
+				latencies.getMaxNanos() / NANOS_PER_MILLISECOND);
+	}
+
+	/**
+	 * Export metrics as JSON.
+	 *
+	 * @return JSON document
+	 * @throws IOException
+	 */
+	public String toJson() throws IOException {
+		return OBJECT_MAPPER.writeValueAsString(snapshot());
+	}
+
+	/**
+	 * Export metrics in the Prometheus text format.
+	 *
+	 * @return Prometheus text exposition
+	 */
+	public String toPrometheus() {
+		List<Map.Entry<PhaseKey, PhaseMetrics>> entries = getSortedEntries();
+		StringBuilder text = new StringBuilder();
+
+		String durationName = METRIC_PREFIX + "phase_duration_seconds";
+		text.append("# HELP ").append(durationName).append(" Latency of scraping phases.\n");
+		text.append("# TYPE ").append(durationName).append(" histogram\n");
+		for (Map.Entry<PhaseKey, PhaseMetrics> entry : entries) {
+			String labels = formatLabels(entry.getKey());
+			LatencyHistogram latencies = entry.getValue().latencies;
+			long[] counts = latencies.getBucketCounts();
+			long cumulativeCount = 0;
+			for (int i = 0; i < counts.length; i++) {
+				cumulativeCount += counts[i];
+				String bound = i == counts.length - 1 ? "+Inf"
+						: formatNumber(LatencyHistogram.getBucketBoundNanos(i) / NANOS_PER_SECOND);
+				text.append(durationName).append("_bucket{").append(labels).append(",le=\"").append(bound)
+						.append("\"} ").append(cumulativeCount).append('\n');
+			}
+			text.append(durationName).append("_sum{").append(labels).append("} ")
+					.append(formatNumber(latencies.getTotalNanos() / NANOS_PER_SECOND)).append('\n');
+			text.append(durationName).append("_count{").append(labels).append("} ").append(cumulativeCount).append('\n');
+		}
+
+		appendCounter(text, entries, "phase_errors_total", "Failures of scraping phases.",
+				metrics -> metrics.errors.sum());
+		appendCounter(text, entries, "phase_bytes_total", "Bytes produced by scraping phases.",
+				metrics -> metrics.bytes.sum());
+
+		String runName = METRIC_PREFIX + "run_duration_seconds";
+		text.append("# HELP ").append(runName).append(" Duration of the current run.\n");
+		text.append("# TYPE ").append(runName).append(" gauge\n");
+		text.append(runName).append(' ').append(formatNumber((System.nanoTime() - startNanos) / NANOS_PER_SECOND))
+				.append('\n');
+		return text.toString();
+	}
+
+	private static void appendCounter(StringBuilder text, List<Map.Entry<PhaseKey, PhaseMetrics>> entries,
+			String name, String help, ToLongFunction<PhaseMetrics> value) {
+		String metricName = METRIC_PREFIX + name;
+		text.append("# HELP ").append(metricName).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(metricName).append(" counter\n");
+		for (Map.Entry<PhaseKey, PhaseMetrics> entry : entries) {
+			text.append(metricName).append('{').append(formatLabels(entry.getKey())).append("} ")
+					.append(value.applyAsLong(entry.getValue())).append('\n');
+		}
+	}
+
+	private static String formatLabels(PhaseKey key) {
+		String host = key.host().replace("\\", "\\\\").replace("\"", "\\\"");
+		return "phase=\"" + key.phase().getLabel() + "\",host=\"" + host + "\"";
+	}
+
+	private static String formatNumber(double value) {
+		return String.format(Locale.ROOT, "%.6g", value);
+	}
+
+	/**
+	 * Write JSON and Prometheus exports to a directory, replacing previous exports.
+	 *
+	 * @param directory export directory, created when missing
+	 * @throws IOException
+	 */
+	public void export(Path directory) throws IOException {
+		Files.createDirectories(directory);
+		write(directory.resolve(JSON_FILE_NAME), toJson());
+		write(directory.resolve(PROMETHEUS_FILE_NAME), toPrometheus());
+	}
+
+	/** Write through a temporary file, so collectors never read a partial export */
+	private static void write(Path path, String content) throws IOException {
+		Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+		Files.writeString(tempPath, content, StandardCharsets.UTF_8);
+		Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+}
@@ -0,0 +1,30 @@
+package com.nicolas_abroad.epub_scraper_desktop.metrics;
+
+import java.util.Locale;
+
+/**
+ * Measured phase of a scraping run.
+ *
+ * @author Nicolas
+ */
+public enum Phase {
+	/** Story index fetch, including all index pages */
+	INDEX_FETCH,
+	/** Chapter page fetch */
+	CHAPTER_FETCH,
+	/** Chapter parsing, including sanitizing */
+	PARSE,
+	/** Chapter text sanitizing */
+	SANITIZE,
+	/** Chapter template rendering */
+	RENDER,
+	/** Chapter deflating */
+	COMPRESS,
+	/** Compressed chapter appended to the ebook archive */
+	ZIP_WRITE;
+
+	/** Get label used in exports */
+	public String getLabel() {
+		return name().toLowerCase(Locale.ROOT);
+	}
+}
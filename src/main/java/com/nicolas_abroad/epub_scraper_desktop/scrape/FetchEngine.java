@@ -0,0 +1,342 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Concurrent fetch engine.
+ * Each fetch runs on its own virtual thread, bounded by a global limit and a per-host limit.
+ * Staged fetches hand fetched pages to a parse pool sized to the number of cores, through a bounded queue,
+ * then hand parsed results to a single writer, the calling thread, through another bounded queue.
+ *
+ * @author Nicolas
+ */
+public class FetchEngine implements AutoCloseable {
+
+	/** Default number of parse threads, one per core */
+	public static final int DEFAULT_PARSE_THREADS = Runtime.getRuntime().availableProcessors();
+
+	/** Number of fetched pages that can wait for a parse thread, per parse thread */
+	private static final int PARSE_QUEUE_PER_THREAD = 2;
+
+	/** Number of parsed results that can wait for the writer, per parse thread */
+	private static final int WRITE_QUEUE_PER_THREAD = 2;
+
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+	private final ExecutorService parseExecutor;
+
+	/** Parse tasks running or queued, fetching waits once none is left */
+	private final Semaphore parseSlots;
+
+	private final Semaphore globalPermits;
+
+	private final int maxFetchesPerHost;
+
+	/** Capacity of the queue between the parse pool and the writer of a staged fetch */
+	private final int writeQueueCapacity;
+
+	/** Maximum number of urls of a staged fetch started but not written yet */
+	private final int stagedWindow;
+
+	private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+	/** Fetch task executed for a single url */
+	@FunctionalInterface
+	public interface FetchTask<T> {
+		T fetch(String url) throws Exception;
+	}
+
+	/** Parse task executed on the parse pool for a fetched result */
+	@FunctionalInterface
+	public interface ParseTask<T, R> {
+		R parse(String url, T fetched) throws Exception;
+	}
+
+	/** Task consuming a parsed result, in url order on the thread running the staged fetch */
+	@FunctionalInterface
+	public interface ResultTask<R> {
+		void accept(String url, R parsed) throws Exception;
+	}
+
+	/**
+	 * Create a new fetch engine.
+	 *
+	 * @param maxConcurrentFetches maximum number of fetches running at the same time
+	 * @param maxFetchesPerHost maximum number of fetches running at the same time for a single host
+	 */
+	public FetchEngine(int maxConcurrentFetches, int maxFetchesPerHost) {
+		this(maxConcurrentFetches, maxFetchesPerHost, DEFAULT_PARSE_THREADS);
+	}
+
+	/**
+	 * Create a new fetch engine.
+	 *
+	 * @param maxConcurrentFetches maximum number of fetches running at the same time
+	 * @param maxFetchesPerHost maximum number of fetches running at the same time for a single host
+	 * @param parseThreads number of threads parsing fetched pages
+	 */
+	public FetchEngine(int maxConcurrentFetches, int maxFetchesPerHost, int parseThreads) {
+		if (maxConcurrentFetches < 1 || maxFetchesPerHost < 1 || parseThreads < 1) {
+			throw new IllegalArgumentException("Fetch limits must be positive");
+		}
+		this.globalPermits = new Semaphore(maxConcurrentFetches, true);
+		this.maxFetchesPerHost = maxFetchesPerHost;
+		this.parseExecutor = Executors.newFixedThreadPool(parseThreads,
+				Thread.ofPlatform().name("parse-", 0).daemon().factory());
+		this.parseSlots = new Semaphore(parseThreads * (1 + PARSE_QUEUE_PER_THREAD));
+		this.writeQueueCapacity = parseThreads * WRITE_QUEUE_PER_THREAD;
+		this.stagedWindow = maxConcurrentFetches + parseThreads * (1 + PARSE_QUEUE_PER_THREAD) + writeQueueCapacity;
+	}
+
+	/**
+	 * Create a new fetch engine from scrape options.
+	 *
+	 * @param options
+	 */
+	public FetchEngine(ScrapeOptions options) {
+		this(options.getMaxConcurrentFetches(), options.getMaxFetchesPerHost());
+	}
+
+	/** Create a fetch engine running one fetch and one parse at a time */
+	public static FetchEngine sequential() {
+		return new FetchEngine(1, 1, 1);
+	}
+
+	/**
+	 * Run a fetch task for every url.
+	 * Results are returned in the same order as the urls, whatever the completion order.
+	 * When a task fails, the remaining tasks are cancelled and the failure is rethrown.
+	 *
+	 * @param urls
+	 * @param task
+	 * @return fetch results, in url order
+	 * @throws Exception
+	 */
+	public <T> List<T> fetchAll(List<String> urls, FetchTask<T> task) throws Exception {
+		return runAll(urls, url -> fetch(url, task));
+	}
+
+	/**
+	 * Run a staged fetch for every url: the fetch task runs on a virtual thread within the fetch limits,
+	 * its result is parsed on the parse pool, then the parsed result is consumed by the calling thread, in url order.
+	 * Every stage hands over to the next through a bounded queue: a parse thread waits while the writer queue is full,
+	 * and fetch permits are held until the fetched result is queued for parsing, so a slow writer slows parsing down,
+	 * which slows fetching down. Urls are started as results are written, never more than a fixed window ahead.
+	 * When a task fails, the remaining tasks are cancelled and the failure is rethrown.
+	 *
+	 * @param urls
+	 * @param fetchTask blocking fetch, without parsing
+	 * @param parseTask parsing of a fetched result
+	 * @param resultTask consumer of a parsed result
+	 * @throws Exception
+	 */
+	public <T, R> void fetchAll(List<String> urls, FetchTask<T> fetchTask, ParseTask<T, R> parseTask,
+			ResultTask<R> resultTask) throws Exception {
+		BlockingQueue<Staged<R>> writeQueue = new ArrayBlockingQueue<>(writeQueueCapacity);
+		StagedTasks running = new StagedTasks();
+		Map<Integer, Staged<R>> reorderBuffer = new HashMap<>();
+		int started = 0;
+		int written = 0;
+		try {
+			while (written < urls.size()) {
+				while (started < urls.size() && started - written < stagedWindow) {
+					startStaged(started, urls.get(started), fetchTask, parseTask, writeQueue, running);
+					started++;
+				}
+				// Drain the queue even when the next result is missing, so parse threads never wait on each other
+				Staged<R> staged = reorderBuffer.remove(written);
+				if (staged == null) {
+					staged = writeQueue.take();
+					if (staged.index() != written) {
+						reorderBuffer.put(staged.index(), staged);
+						continue;
+					}
+				}
+				if (staged.failure() != null) {
+					if (staged.failure() instanceof Exception failure) {
+						throw failure;
+					}
+					throw (Error) staged.failure();
+				}
+				resultTask.accept(urls.get(written), staged.result());
+				written++;
+			}
+		} finally {
+			running.cancel();
+		}
+	}
+
+	/** Parsed result of a staged fetch, or its failure, waiting for the writer */
+	private record Staged<R>(int index, R result, Throwable failure) {
+	}
+
+	/** Start fetching a url on its own virtual thread, then parse it and queue the result for the writer */
+	private <T, R> void startStaged(int index, String url, FetchTask<T> fetchTask, ParseTask<T, R> parseTask,
+			BlockingQueue<Staged<R>> writeQueue, StagedTasks running) {
+		running.execute(new FutureTask<Void>(() -> {
+			try {
+				fetch(url, fetchedUrl -> {
+					T fetched = fetchTask.fetch(fetchedUrl);
+					queueParse(() -> {
+						Staged<R> staged;
+						try {
+							staged = new Staged<>(index, parseTask.parse(url, fetched), null);
+						} catch (Throwable e) {
+							staged = new Staged<>(index, null, e);
+						}
+						try {
+							writeQueue.put(staged);
+						} catch (InterruptedException e) {
+							// Cancelled, the writer is gone
+							Thread.currentThread().interrupt();
+						}
+					}, running);
+					return null;
+				});
+			} catch (InterruptedException e) {
+				// Cancelled, the writer is gone
+			} catch (Throwable e) {
+				writeQueue.put(new Staged<>(index, null, e));
+			}
+			return null;
+		}), executor);
+	}
+
+	/** Tasks of a staged fetch, cancelled together */
+	private static final class StagedTasks {
+
+		private final Set<Future<?>> running = ConcurrentHashMap.newKeySet();
+
+		private volatile boolean cancelled;
+
+		/** Execute a task, keeping it until it is done so that it can be cancelled */
+		void execute(FutureTask<Void> task, ExecutorService executor) {
+			running.add(task);
+			if (cancelled) {
+				// Started while the staged fetch was being cancelled
+				task.cancel(true);
+			}
+			try {
+				executor.execute(() -> {
+					try {
+						task.run();
+					} finally {
+						running.remove(task);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				running.remove(task);
+				throw e;
+			}
+		}
+
+		void cancel() {
+			cancelled = true;
+			cancelAll(running);
+		}
+
+	}
+
+	/** Run a task for every url on its own virtual thread, returning results in url order */
+	private <T> List<T> runAll(List<String> urls, FetchTask<T> task) throws Exception {
+		List<Future<T>> futures = new ArrayList<>(urls.size());
+		for (String url : urls) {
+			futures.add(executor.submit(() -> task.fetch(url)));
+		}
+
+		List<T> results = new ArrayList<>(urls.size());
+		try {
+			for (Future<T> future : futures) {
+				results.add(future.get());
+			}
+		} catch (ExecutionException e) {
+			cancelAll(futures);
+			if (e.getCause() instanceof Exception cause) {
+				throw cause;
+			}
+			throw e;
+		} catch (InterruptedException e) {
+			cancelAll(futures);
+			Thread.currentThread().interrupt();
+			throw e;
+		}
+		return results;
+	}
+
+	/** Get maximum number of urls of a staged fetch started but not written yet */
+	int getStagedWindow() {
+		return stagedWindow;
+	}
+
+	private <T> T fetch(String url, FetchTask<T> task) throws Exception {
+		Semaphore hostSemaphore = hostPermits.computeIfAbsent(getHost(url),
+				host -> new Semaphore(maxFetchesPerHost, true));
+		hostSemaphore.acquire();
+		try {
+			globalPermits.acquire();
+			try {
+				return task.fetch(url);
+			} finally {
+				globalPermits.release();
+			}
+		} finally {
+			hostSemaphore.release();
+		}
+	}
+
+	/** Queue a parse task, waiting while the parse queue is full */
+	private void queueParse(Runnable parseTask, StagedTasks running) throws InterruptedException {
+		parseSlots.acquire();
+		FutureTask<Void> parseFuture = new FutureTask<>(parseTask, null) {
+			@Override
+			protected void done() {
+				// Run once, whether the task completed or was cancelled
+				parseSlots.release();
+			}
+		};
+		try {
+			running.execute(parseFuture, parseExecutor);
+		} catch (RejectedExecutionException e) {
+			parseSlots.release();
+			throw e;
+		}
+	}
+
+	private static String getHost(String url) {
+		try {
+			String host = URI.create(url).getHost();
+			return host == null ? "" : host;
+		} catch (IllegalArgumentException e) {
+			return "";
+		}
+	}
+
+	private static void cancelAll(Collection<? extends Future<?>> futures) {
+		for (Future<?> future : futures) {
+			future.cancel(true);
+		}
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+		parseExecutor.shutdownNow();
+	}
+
+}
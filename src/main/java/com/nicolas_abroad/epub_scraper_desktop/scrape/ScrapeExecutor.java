@@ -1,24 +1,47 @@
 package com.nicolas_abroad.epub_scraper_desktop.scrape;
 
+import com.nicolas_abroad.epub_scraper_desktop.ebook.ChapterStore;
 import com.nicolas_abroad.epub_scraper_desktop.ebook.Story;
 import com.nicolas_abroad.epub_scraper_desktop.ebook.Volume;
 import com.nicolas_abroad.epub_scraper_desktop.format.EbookFormat;
+import com.nicolas_abroad.epub_scraper_desktop.format.EbookWriter;
 import com.nicolas_abroad.epub_scraper_desktop.format.EpubFormat;
+import com.nicolas_abroad.epub_scraper_desktop.format.WriteReport;
 import com.nicolas_abroad.epub_scraper_desktop.input.InputParser;
+import com.nicolas_abroad.epub_scraper_desktop.metrics.Metrics;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.batch.BatchJob;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.batch.BatchScheduler;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.http.FixtureStore;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.http.HttpTransport;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.http.ResponseCache;
 import com.nicolas_abroad.epub_scraper_desktop.scrape.sources.EbookScraper;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.sync.ChapterJournal;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.sync.StoryManifest;
 import com.nicolas_abroad.epub_scraper_desktop.user_interface.MessageEnum;
 import com.nicolas_abroad.epub_scraper_desktop.utils.IOUtils;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 /**
  * Scraping execution.
@@ -27,6 +50,9 @@ import java.util.Set;
  */
 public class ScrapeExecutor {
 
+	/** Timeout multiplier applied when retrying failed chapters */
+	private static final int RETRY_TIMEOUT_MULTIPLIER = 3;
+
 	private ScrapeExecutor() {
 	}
 
@@ -41,62 +67,417 @@ public class ScrapeExecutor {
 	}
 
 	public static boolean executeScraping(String url, Set<Integer> targetVolumeNumbers) {
-		try {
+		return executeScraping(url, targetVolumeNumbers, new ScrapeOptions());
+	}
+
+	/**
+	 * Execute scraping.
+	 *
+	 * @param url target url
+	 * @param targetVolumeNumbers volumes to scrape, all volumes when empty
+	 * @param options scrape options
+	 * @return whether scrapping completed successfully
+	 */
+	public static boolean executeScraping(String url, Set<Integer> targetVolumeNumbers, ScrapeOptions options) {
+		try (FetchEngine fetchEngine = new FetchEngine(options)) {
+			configureTransport(options);
+			return scrapeStory(url, targetVolumeNumbers, options, fetchEngine, new ScrapeProgress());
+		} catch (Exception e) {
+			logExceptionToFile(e);
+			return false;
+		} finally {
+			flushCache();
+			exportMetrics(options);
+		}
+	}
+
+	/**
+	 * Execute scraping of many stories.
+	 * Stories are scheduled across websites, and share the fetch limits of the scrape options.
+	 *
+	 * @param jobs stories to scrape
+	 * @param options scrape options
+	 * @return jobs that failed, in job order
+	 */
+	public static List<BatchJob> executeBatch(List<BatchJob> jobs, ScrapeOptions options) {
+		BatchScheduler scheduler = new BatchScheduler(options.getMaxConcurrentStories(), options.getMaxStoriesPerHost());
+		try (FetchEngine fetchEngine = new FetchEngine(options)) {
+			configureTransport(options);
+			return scheduler.run(jobs, job -> {
+				System.out.println(String.format(MessageEnum.BATCH_JOB_STARTED.getMessage(), job.url()));
+				boolean hasScraped = scrapeStory(job.url(), job.targetVolumeNumbers(), options, fetchEngine,
+						new ScrapeProgress());
+				MessageEnum message = hasScraped ? MessageEnum.BATCH_JOB_FINISHED : MessageEnum.BATCH_JOB_FAILED;
+				System.out.println(String.format(message.getMessage(), job.url()));
+				return hasScraped;
+			});
+		} catch (Exception e) {
+			logExceptionToFile(e);
+			return jobs;
+		} finally {
+			flushCache();
+			exportMetrics(options);
+		}
+	}
+
+	/**
+	 * Execute scraping with a fetch engine shared between stories, for long-lived processes.
+	 * Connection pools and caches stay warm between stories.
+	 * The shared transport is configured once with {@link #configureSharedTransport}, and the page cache and metrics
+	 * are saved with {@link #saveSharedState}, so stories running at the same time do not reconfigure them.
+	 * The story stops when the calling thread is interrupted, discarding unfinished ebooks.
+	 *
+	 * @param url target url
+	 * @param targetVolumeNumbers volumes to scrape, all volumes when empty
+	 * @param options scrape options
+	 * @param fetchEngine fetch engine shared between stories
+	 * @param progress progress of the story, updated while scraping
+	 * @return whether scrapping completed successfully
+	 */
+	public static boolean executeScraping(String url, Set<Integer> targetVolumeNumbers, ScrapeOptions options,
+			FetchEngine fetchEngine, ScrapeProgress progress) {
+		return scrapeStory(url, targetVolumeNumbers, options, fetchEngine, progress);
+	}
+
+	/**
+	 * Configure the transport shared by the stories of a long-lived process, before its first story.
+	 *
+	 * @param options scrape options
+	 * @throws IOException when the page cache can not be opened
+	 */
+	public static void configureSharedTransport(ScrapeOptions options) throws IOException {
+		configureTransport(options);
+	}
+
+	/**
+	 * Save the page cache index and export the metrics of a long-lived process, periodically or once it stops.
+	 *
+	 * @param options scrape options
+	 */
+	public static void saveSharedState(ScrapeOptions options) {
+		flushCache();
+		exportMetrics(options);
+	}
+
+	/**
+	 * Scrape a story with its own scraper.
+	 *
+	 * @return whether scrapping completed successfully
+	 */
+	private static boolean scrapeStory(String url, Set<Integer> targetVolumeNumbers, ScrapeOptions options,
+			FetchEngine fetchEngine, ScrapeProgress progress) {
+		// The chapter store is closed last, once no volume is running
+		try (ChapterStore chapterStore = options.isOffHeapChapters() ? ChapterStore.create() : null;
+				ExecutorService volumeExecutor = Executors.newVirtualThreadPerTaskExecutor()) {
 			// Get target volume basic info
-			Story story = generateStory(url);
+			Story story = generateStory(url, options, fetchEngine);
 			story.parseVolumeInfo(targetVolumeNumbers);
+			progress.addVolumes(story.getVolumes());
 
 			// Create output directory
 			Path outputDirectory = IOUtils.createOutputDirectory(story.getVolumes().getFirst().getAuthor());
 
 			// Scrape & generate by volume
-			EbookFormat ebookFormat = new EpubFormat();
-			for (Volume volume : story.getVolumes()) {
-				// Skip scraping & generation if already exists
-				if (IOUtils.exists(outputDirectory, volume.getTitle() + ebookFormat.getFileExtension())) {
-					System.out.println(volume.getTitle() + ": " + MessageEnum.SKIP_GENERATION.getMessage());
-					continue;
+			EbookFormat ebookFormat = new EpubFormat(options.getCompressionLevel());
+			StoryManifest manifest = StoryManifest.load(outputDirectory, url);
+			VolumeRun run = new VolumeRun(fetchEngine, outputDirectory, ebookFormat, manifest,
+					story.getChapterRevisions(), options, progress, Collections.synchronizedMap(new IdentityHashMap<>()));
+			List<Volume> pendingVolumes = new ArrayList<>();
+			List<Future<Boolean>> volumeFutures = new ArrayList<>();
+			try {
+				// Volumes are pipelined: the next volume is fetched while the previous one is still being written
+				Semaphore volumePermits = new Semaphore(options.getMaxVolumesInFlight());
+				List<Volume> startedVolumes = new ArrayList<>();
+				for (Volume volume : story.getVolumes()) {
+					if (shouldSkip(volume, run)) {
+						continue;
+					}
+					volumePermits.acquire();
+					volume.setChapterStore(chapterStore);
+					startedVolumes.add(volume);
+					volumeFutures.add(volumeExecutor.submit(() -> {
+						try {
+							return generateVolume(volume, run);
+						} finally {
+							volumePermits.release();
+						}
+					}));
+				}
+				try {
+					for (int i = 0; i < volumeFutures.size(); i++) {
+						if (!volumeFutures.get(i).get()) {
+							pendingVolumes.add(startedVolumes.get(i));
+						}
+					}
+				} catch (ExecutionException e) {
+					throw e.getCause() instanceof Exception cause ? cause : e;
 				}
 
-				volume.generate();
-				System.out.println(volume.getTitle());
-				ebookFormat.generate(outputDirectory, volume);
+				retryPendingVolumes(pendingVolumes, run);
+			} finally {
+				// Stop volumes still running after a failure, before discarding their ebooks
+				volumeFutures.forEach(future -> future.cancel(true));
+				for (EbookWriter writer : List.copyOf(run.writers().values())) {
+					writer.close();
+				}
 			}
-			story.assignNonScrapedChapterNumbers();
 
+			if (!pendingVolumes.isEmpty()) {
+				progress.fail(reportPermanentFailures(pendingVolumes));
+				return false;
+			}
 			return true;
+		} catch (InterruptedException e) {
+			// Stopped on purpose, unfinished ebooks were discarded
+			Thread.currentThread().interrupt();
+			return false;
 		} catch (Exception e) {
 			logExceptionToFile(e);
+			progress.fail(e.toString());
 			return false;
 		}
 	}
 
+	/**
+	 * State shared by the volumes of a scraping run.
+	 * Writers stay open until their volume is complete, unfinished ebooks are discarded on close.
+	 */
+	private record VolumeRun(FetchEngine fetchEngine, Path outputDirectory, EbookFormat ebookFormat,
+			StoryManifest manifest, Map<String, String> revisions, ScrapeOptions options, ScrapeProgress progress,
+			Map<Volume, EbookWriter> writers) {
+	}
+
+	private static boolean shouldSkip(Volume volume, VolumeRun run) {
+		EbookFormat ebookFormat = run.ebookFormat();
+		String fileName = volume.getTitle() + ebookFormat.getFileExtension();
+		boolean exists = IOUtils.exists(run.outputDirectory(), fileName);
+		if (run.options().isSync()) {
+			// Skip scraping & generation if no chapter was added or revised
+			if (exists && run.manifest().isUnchanged(volume, run.revisions())) {
+				System.out.println(volume.getTitle() + ": " + MessageEnum.SKIP_UP_TO_DATE.getMessage());
+				run.progress().skipVolume(volume, run.outputDirectory().resolve(fileName));
+				return true;
+			}
+			// Unchanged chapters are read from the page cache, for this run only since every run has its own scraper
+			Set<String> unchangedUrls = run.manifest().findUnchangedChapterUrls(volume, run.revisions());
+			volume.getScraper().markFresh(unchangedUrls);
+		} else if (exists) {
+			// Skip scraping & generation if already exists
+			System.out.println(volume.getTitle() + ": " + MessageEnum.SKIP_GENERATION.getMessage());
+			run.progress().skipVolume(volume, run.outputDirectory().resolve(fileName));
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Scrape a volume and stream it to its ebook.
+	 *
+	 * @return whether the volume is complete, otherwise its failed chapters are retried at the end of the run
+	 */
+	private static boolean generateVolume(Volume volume, VolumeRun run) throws Exception {
+		// Resume from the chapters scraped by an interrupted run
+		Path journalPath = ChapterJournal.getPath(run.outputDirectory(), volume.getTitle());
+		try (ChapterJournal journal = ChapterJournal.open(journalPath)) {
+			int journaledChapters = journal.getChapterUrls().size();
+			if (journaledChapters > 0) {
+				System.out.println(volume.getTitle() + ": "
+						+ String.format(MessageEnum.RESUME_FROM_JOURNAL.getMessage(), journaledChapters));
+			}
+
+			// Chapters are written to the ebook as they are scraped
+			EbookWriter writer = run.ebookFormat().begin(run.outputDirectory(), volume);
+			run.writers().put(volume, writer);
+			volume.generate(run.fetchEngine(), journal, writer);
+			if (!volume.isComplete()) {
+				// Failed chapters are retried once all volumes were scraped. The unfinished ebook is discarded before
+				// the volume permit is released, so volumes waiting for a retry hold no writer nor buffered chapter
+				run.writers().remove(volume).close();
+				System.out.println(volume.getTitle() + ": "
+						+ String.format(MessageEnum.RETRY_LATER.getMessage(), volume.getFailedChapters().size()));
+				return false;
+			}
+			finishVolume(volume, writer, run);
+			journal.delete();
+			return true;
+		}
+	}
+
+	private static void finishVolume(Volume volume, EbookWriter writer, VolumeRun run) throws Exception {
+		StoryManifest manifest = run.manifest();
+		String fileName = volume.getTitle() + run.ebookFormat().getFileExtension();
+		boolean exists = IOUtils.exists(run.outputDirectory(), fileName);
+		if (run.options().isSync() && exists && manifest.hasSameContent(volume)) {
+			// Revised chapters turned out identical, keep the existing ebook
+			System.out.println(volume.getTitle() + ": " + MessageEnum.SKIP_UP_TO_DATE.getMessage());
+			writer.close();
+		} else {
+			WriteReport report = writer.finish();
+			System.out.println(volume.getTitle() + " " + String.format(MessageEnum.GENERATION_REPORT.getMessage(),
+					report.getFileSizeMb(), report.getCompressionRatio(), report.getThroughput()));
+		}
+		// Volumes finish concurrently, the manifest is shared
+		synchronized (manifest) {
+			manifest.record(volume, run.revisions());
+			manifest.save(run.outputDirectory());
+		}
+		run.progress().finishVolume(run.outputDirectory().resolve(fileName));
+	}
+
+	/**
+	 * Retry failed chapters with longer timeouts, and finish volumes once all their chapters are scraped.
+	 * Volumes are retried one at a time, each with a new writer fed from its journal, discarded again when incomplete.
+	 * Volumes that are still incomplete after all retry rounds are left in the pending volumes list.
+	 */
+	private static void retryPendingVolumes(List<Volume> pendingVolumes, VolumeRun run) throws Exception {
+		if (pendingVolumes.isEmpty()) {
+			return;
+		}
+		// Stories of a batch share the transport, so longer timeouts only go with the requests of this story
+		for (Volume volume : pendingVolumes) {
+			volume.getScraper().setTimeoutMultiplier(RETRY_TIMEOUT_MULTIPLIER);
+		}
+		for (int round = 0; round < run.options().getRetryRounds() && !pendingVolumes.isEmpty(); round++) {
+			Iterator<Volume> iterator = pendingVolumes.iterator();
+			while (iterator.hasNext()) {
+				Volume volume = iterator.next();
+				Path journalPath = ChapterJournal.getPath(run.outputDirectory(), volume.getTitle());
+				try (ChapterJournal journal = ChapterJournal.open(journalPath)) {
+					EbookWriter writer = run.ebookFormat().begin(run.outputDirectory(), volume);
+					run.writers().put(volume, writer);
+					volume.retryFailedChaptersFromJournal(run.fetchEngine(), journal, writer);
+					if (volume.isComplete()) {
+						finishVolume(volume, writer, run);
+						journal.delete();
+						iterator.remove();
+					} else {
+						run.writers().remove(volume).close();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Report chapters that could not be scraped, on the console and in a log file.
+	 *
+	 * @return failure message
+	 */
+	private static String reportPermanentFailures(List<Volume> failedVolumes) {
+		Exception failures = new Exception(MessageEnum.PERMANENT_FAILURES.getMessage().strip());
+		System.out.println(MessageEnum.PERMANENT_FAILURES.getMessage());
+		List<String> failedChapterUrls = new ArrayList<>();
+		for (Volume volume : failedVolumes) {
+			for (String chapterUrl : volume.getFailedChapterUrls()) {
+				Exception exception = volume.getFailedChapters().get(chapterUrl);
+				System.out.println(volume.getTitle() + ": " + chapterUrl + " (" + exception + ")");
+				failures.addSuppressed(exception);
+				failedChapterUrls.add(chapterUrl);
+			}
+		}
+		logExceptionToFile(failures);
+		return failures.getMessage() + " " + String.join(", ", failedChapterUrls);
+	}
+
 	public static List<String> fetchAllVolumeInfo(String url) {
-		try {
-			Story story = generateStory(url);
+		return fetchAllVolumeInfo(url, new ScrapeOptions());
+	}
+
+	/**
+	 * Fetch titles of all volumes.
+	 *
+	 * @param url target url
+	 * @param options scrape options
+	 * @return volume titles
+	 */
+	public static List<String> fetchAllVolumeInfo(String url, ScrapeOptions options) {
+		try (FetchEngine fetchEngine = new FetchEngine(options)) {
+			configureTransport(options);
+			Story story = generateStory(url, options, fetchEngine);
 			List<Volume> volumeList = story.parseAllVolumeInfo();
 			return volumeList.stream().map(Volume::getTitle).toList();
 		} catch (Exception e) {
 			logExceptionToFile(e);
 			return Collections.emptyList();
+		} finally {
+			flushCache();
+		}
+	}
+
+	/** Configure the shared transport, one run at a time so that a single page cache is opened */
+	private static synchronized void configureTransport(ScrapeOptions options) throws IOException {
+		HttpTransport transport = HttpTransport.getSharedTransport();
+		transport.setMaxConnections(Math.max(HttpTransport.DEFAULT_MAX_CONNECTIONS, options.getMaxConcurrentFetches()));
+		transport.setMaxConnectionsPerHost(options.getMaxFetchesPerHost());
+		options.getHostPoolSizes().forEach(transport::setMaxConnectionsPerHost);
+		options.getHostRates().forEach(transport.getRateLimiter()::setHostRate);
+
+		if (options.isCacheEnabled() && transport.getCache() == null) {
+			long maxSizeBytes = options.getMaxCacheSizeMb() * 1024 * 1024;
+			transport.setCache(new ResponseCache(options.getCacheDirectory(), maxSizeBytes));
+		} else if (!options.isCacheEnabled()) {
+			transport.setCache(null);
+		}
+		transport.setOffline(options.isOffline());
+		transport.setBaseUrl(options.getBaseUrl());
+		FixtureStore recorder = transport.getRecorder();
+		if (options.getRecordDirectory() == null) {
+			transport.setRecorder(null);
+		} else if (recorder == null || !recorder.getDirectory().equals(options.getRecordDirectory())) {
+			transport.setRecorder(new FixtureStore(options.getRecordDirectory()));
 		}
 	}
 
-	private static Story generateStory(String url) {
-		InputParser inputParser = InputParser.getInputParser();
-		EbookScraper scraper = inputParser.getEbookScraper();
-		return new Story(scraper, url);
+	private static void flushCache() {
+		ResponseCache cache = HttpTransport.getSharedTransport().getCache();
+		if (cache == null) {
+			return;
+		}
+		try {
+			cache.flush();
+		} catch (IOException e) {
+			logExceptionToFile(e);
+		}
+	}
+
+	/** Export metrics of the run, when a metrics directory is set */
+	private static void exportMetrics(ScrapeOptions options) {
+		if (options.getMetricsDirectory() == null) {
+			return;
+		}
+		try {
+			Metrics.getSharedMetrics().export(options.getMetricsDirectory());
+		} catch (IOException e) {
+			logExceptionToFile(e);
+		}
+	}
+
+	private static Story generateStory(String url, ScrapeOptions options, FetchEngine fetchEngine) {
+		// Every story gets its own scraper session, index pages are fetched within the limits of the run
+		EbookScraper scraper = InputParser.createScraper(url);
+		scraper.setFetchEngine(fetchEngine);
+		Story story = new Story(scraper, url);
+		story.setMaxChaptersPerPart(options.getMaxChaptersPerPart());
+		return story;
 	}
 
 	private static void logExceptionToFile(Exception exception) {
 		try {
-			String pathString = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_hhmmss")) + ".txt";
-			Path path = Paths.get(pathString);
+			String baseName = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_hhmmss"));
 
 			StringWriter sw = new StringWriter();
 			exception.printStackTrace(new PrintWriter(sw));
 			String exceptionString = sw.toString();
-			Files.write(path, exceptionString.getBytes());
+			// Stories failing within the same second, such as concurrent jobs, get their own file
+			for (int i = 0; ; i++) {
+				Path path = Paths.get(i == 0 ? baseName + ".txt" : baseName + "_" + i + ".txt");
+				try {
+					Files.write(path, exceptionString.getBytes(), StandardOpenOption.CREATE_NEW);
+					return;
+				} catch (FileAlreadyExistsException e) {
+					// Taken by another story, try the next suffix
+				}
+			}
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
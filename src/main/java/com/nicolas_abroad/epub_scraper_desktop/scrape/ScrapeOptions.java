@@ -0,0 +1,89 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape;
+
+import com.nicolas_abroad.epub_scraper_desktop.format.EpubFormat;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.batch.BatchScheduler;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.http.ResponseCache;
+import lombok.Data;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Options used while scraping.
+ *
+ * @author Nicolas
+ */
+@Data
+public class ScrapeOptions {
+
+	/** Default maximum number of chapters fetched at the same time */
+	public static final int DEFAULT_MAX_CONCURRENT_FETCHES = 8;
+
+	/** Default maximum number of chapters fetched at the same time from a single host */
+	public static final int DEFAULT_MAX_FETCHES_PER_HOST = 4;
+
+	/** Default maximum number of volumes scraped or written at the same time */
+	public static final int DEFAULT_MAX_VOLUMES_IN_FLIGHT = 2;
+
+	/** Default number of end-of-run retry rounds for failed chapters */
+	public static final int DEFAULT_RETRY_ROUNDS = 2;
+
+	/** Maximum number of chapters fetched at the same time */
+	private int maxConcurrentFetches = DEFAULT_MAX_CONCURRENT_FETCHES;
+
+	/** Maximum number of chapters fetched at the same time from a single host */
+	private int maxFetchesPerHost = DEFAULT_MAX_FETCHES_PER_HOST;
+
+	/** Maximum number of volumes scraped or written at the same time */
+	private int maxVolumesInFlight = DEFAULT_MAX_VOLUMES_IN_FLIGHT;
+
+	/** Maximum number of stories scraped at the same time in batch mode */
+	private int maxConcurrentStories = BatchScheduler.DEFAULT_MAX_CONCURRENT_STORIES;
+
+	/** Maximum number of stories scraped at the same time from a single host in batch mode */
+	private int maxStoriesPerHost = BatchScheduler.DEFAULT_MAX_STORIES_PER_HOST;
+
+	/** Connection pool size by host, overriding the per-host fetch limit */
+	private Map<String, Integer> hostPoolSizes = new HashMap<>();
+
+	/** Request rate by host, in requests per second, overriding the default rates */
+	private Map<String, Double> hostRates = new HashMap<>();
+
+	/** Cache fetched pages on disk */
+	private boolean cacheEnabled = true;
+
+	/** Response cache directory */
+	private Path cacheDirectory = ResponseCache.DEFAULT_DIRECTORY;
+
+	/** Response cache size limit, in megabytes */
+	private long maxCacheSizeMb = ResponseCache.DEFAULT_MAX_SIZE_MB;
+
+	/** Build ebooks from cached pages only, without any network request */
+	private boolean offline;
+
+	/** Base url of a local stand-in of the websites requests are sent to, null to fetch from the websites */
+	private String baseUrl;
+
+	/** Directory fetched pages are recorded to as fixtures, null to disable recording */
+	private Path recordDirectory;
+
+	/** Only fetch new or revised chapters, and only rebuild volumes containing them */
+	private boolean sync;
+
+	/** Number of end-of-run retry rounds for failed chapters */
+	private int retryRounds = DEFAULT_RETRY_ROUNDS;
+
+	/** Maximum number of chapters of a part when a story without volumes is split, 0 to never split */
+	private int maxChaptersPerPart;
+
+	/** Keep scraped chapter texts in a memory-mapped temporary file rather than on the heap */
+	private boolean offHeapChapters;
+
+	/** Deflate compression level of ebook files, from 0 to 9 */
+	private int compressionLevel = EpubFormat.DEFAULT_COMPRESSION_LEVEL;
+
+	/** Directory metrics are exported to at the end of a run, null to disable exports */
+	private Path metricsDirectory;
+
+}
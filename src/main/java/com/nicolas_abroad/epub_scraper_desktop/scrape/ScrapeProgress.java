@@ -0,0 +1,92 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape;
+
+import com.nicolas_abroad.epub_scraper_desktop.ebook.Volume;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of a story being scraped, readable while the story is running.
+ *
+ * @author Nicolas
+ */
+public class ScrapeProgress {
+
+	/** Target volumes of the story */
+	private final List<Volume> volumes = new CopyOnWriteArrayList<>();
+
+	/** Ebook files of the finished volumes, generated or already up to date */
+	private final List<Path> files = new CopyOnWriteArrayList<>();
+
+	/** Number of chapters of the volumes that did not need scraping */
+	private final AtomicInteger skippedChapters = new AtomicInteger();
+
+	/** Why the story failed, null unless it failed */
+	private volatile String failure;
+
+	/**
+	 * Add the target volumes of the story.
+	 *
+	 * @param volumes
+	 */
+	public void addVolumes(List<Volume> volumes) {
+		this.volumes.addAll(volumes);
+	}
+
+	/**
+	 * Record a volume that did not need scraping.
+	 *
+	 * @param volume
+	 * @param file existing ebook file
+	 */
+	public void skipVolume(Volume volume, Path file) {
+		skippedChapters.addAndGet(volume.getChapterUrls().size());
+		files.add(file);
+	}
+
+	/**
+	 * Record a finished volume.
+	 *
+	 * @param file ebook file
+	 */
+	public void finishVolume(Path file) {
+		files.add(file);
+	}
+
+	/**
+	 * Record why the story failed.
+	 *
+	 * @param failure failure message
+	 */
+	public void fail(String failure) {
+		this.failure = failure;
+	}
+
+	public String getFailure() {
+		return failure;
+	}
+
+	public int getTotalVolumes() {
+		return volumes.size();
+	}
+
+	public int getFinishedVolumes() {
+		return files.size();
+	}
+
+	public int getTotalChapters() {
+		return volumes.stream().mapToInt(volume -> volume.getChapterUrls().size()).sum();
+	}
+
+	/** Get number of chapters scraped so far, including the chapters of skipped volumes */
+	public int getScrapedChapters() {
+		return skippedChapters.get() + volumes.stream().mapToInt(volume -> volume.getScrapedChapters().size()).sum();
+	}
+
+	public List<Path> getFiles() {
+		return List.copyOf(files);
+	}
+
+}
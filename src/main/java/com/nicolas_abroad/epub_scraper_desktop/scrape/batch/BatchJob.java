@@ -0,0 +1,97 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.batch;
+
+import com.nicolas_abroad.epub_scraper_desktop.input.InputParser;
+import com.nicolas_abroad.epub_scraper_desktop.input.VolumeInputConverter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Story scraped by a batch run.
+ * Batch files hold one story per line: the story url, optionally followed by the volumes to scrape,
+ * as comma-separated values (1,2,4) or ranges (2-5). All volumes are scraped when none are specified.
+ * Empty lines and lines starting with # are ignored.
+ *
+ * @param url story url
+ * @param targetVolumeNumbers volumes to scrape, null for all volumes
+ * @author Nicolas
+ */
+public record BatchJob(String url, Set<Integer> targetVolumeNumbers) {
+
+	private static final String COMMENT_PREFIX = "#";
+
+	private static final String ALL_VOLUMES = "all";
+
+	private static final String URL_SCHEME_SEPARATOR = "://";
+
+	/**
+	 * Read all jobs of a batch file.
+	 *
+	 * @param path batch file path
+	 * @return jobs, in file order
+	 * @throws IOException
+	 * @throws IllegalArgumentException when a line is not a valid job
+	 */
+	public static List<BatchJob> readFile(Path path) throws IOException {
+		List<String> lines = Files.readAllLines(path);
+		List<BatchJob> jobs = new ArrayList<>();
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i).strip();
+			if (line.isEmpty() || line.startsWith(COMMENT_PREFIX)) {
+				continue;
+			}
+			try {
+				jobs.add(parse(line));
+			} catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException(path + ":" + (i + 1) + ": " + e.getMessage(), e);
+			}
+		}
+		return jobs;
+	}
+
+	/**
+	 * Parse a single batch file line.
+	 *
+	 * @param line url, optionally followed by volumes
+	 * @return job
+	 * @throws IllegalArgumentException when the url is not supported or the volumes are invalid
+	 */
+	public static BatchJob parse(String line) {
+		String[] values = line.strip().split("\\s+");
+		if (values.length > 2) {
+			throw new IllegalArgumentException("Unexpected value: " + values[2]);
+		}
+		String url = values[0];
+		if (InputParser.findUrlScraper(url) == null) {
+			throw new IllegalArgumentException("Unsupported url: " + url);
+		}
+		if (values.length == 1 || values[1].equalsIgnoreCase(ALL_VOLUMES)) {
+			return new BatchJob(url, null);
+		}
+		Set<Integer> targetVolumeNumbers = new VolumeInputConverter().convert(values[1]);
+		if (targetVolumeNumbers.isEmpty()) {
+			throw new IllegalArgumentException("Invalid volumes: " + values[1]);
+		}
+		return new BatchJob(url, targetVolumeNumbers);
+	}
+
+	/**
+	 * Get host of the story url, which may not have a scheme.
+	 *
+	 * @return host
+	 */
+	public String getHost() {
+		String host = url;
+		int schemeEnd = host.indexOf(URL_SCHEME_SEPARATOR);
+		if (schemeEnd >= 0) {
+			host = host.substring(schemeEnd + URL_SCHEME_SEPARATOR.length());
+		}
+		int pathStart = host.indexOf('/');
+		return pathStart >= 0 ? host.substring(0, pathStart) : host;
+	}
+
+}
@@ -0,0 +1,123 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Cross-story scheduler of batch runs.
+ * Each story runs on its own virtual thread, bounded by a global limit and a per-host limit,
+ * so a website with many queued stories does not hold back the stories of other websites.
+ *
+ * @author Nicolas
+ */
+public class BatchScheduler {
+
+	/** Default maximum number of stories scraped at the same time */
+	public static final int DEFAULT_MAX_CONCURRENT_STORIES = 4;
+
+	/** Default maximum number of stories scraped at the same time from a single host */
+	public static final int DEFAULT_MAX_STORIES_PER_HOST = 2;
+
+	private final Semaphore globalPermits;
+
+	private final int maxStoriesPerHost;
+
+	private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+	/** Task scraping a single story */
+	@FunctionalInterface
+	public interface JobTask {
+		/**
+		 * Scrape a story.
+		 *
+		 * @param job
+		 * @return whether the story was scraped successfully
+		 * @throws Exception
+		 */
+		boolean run(BatchJob job) throws Exception;
+	}
+
+	/**
+	 * Create a new batch scheduler.
+	 *
+	 * @param maxConcurrentStories maximum number of stories scraped at the same time
+	 * @param maxStoriesPerHost maximum number of stories scraped at the same time from a single host
+	 */
+	public BatchScheduler(int maxConcurrentStories, int maxStoriesPerHost) {
+		if (maxConcurrentStories < 1 || maxStoriesPerHost < 1) {
+			throw new IllegalArgumentException("Story limits must be positive");
+		}
+		this.globalPermits = new Semaphore(maxConcurrentStories, true);
+		this.maxStoriesPerHost = maxStoriesPerHost;
+	}
+
+	/**
+	 * Run a task for every job.
+	 * A failed job does not stop the other jobs.
+	 *
+	 * @param jobs
+	 * @param task
+	 * @return failed jobs, in job order
+	 * @throws InterruptedException
+	 */
+	public List<BatchJob> run(List<BatchJob> jobs, JobTask task) throws InterruptedException {
+		List<BatchJob> failedJobs = new ArrayList<>();
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			List<Future<Boolean>> futures = new ArrayList<>(jobs.size());
+			for (BatchJob job : jobs) {
+				futures.add(executor.submit(() -> runJob(job, task)));
+			}
+			try {
+				for (int i = 0; i < futures.size(); i++) {
+					if (!getResult(futures.get(i))) {
+						failedJobs.add(jobs.get(i));
+					}
+				}
+			} catch (InterruptedException e) {
+				executor.shutdownNow();
+				throw e;
+			}
+		}
+		return failedJobs;
+	}
+
+	/**
+	 * Run a task for a single job, once the global and per-host limits allow it.
+	 *
+	 * @param job
+	 * @param task
+	 * @return whether the job was successful
+	 * @throws Exception
+	 */
+	public boolean runJob(BatchJob job, JobTask task) throws Exception {
+		Semaphore hostSemaphore = hostPermits.computeIfAbsent(job.getHost(),
+				host -> new Semaphore(maxStoriesPerHost, true));
+		hostSemaphore.acquire();
+		try {
+			globalPermits.acquire();
+			try {
+				return task.run(job);
+			} finally {
+				globalPermits.release();
+			}
+		} finally {
+			hostSemaphore.release();
+		}
+	}
+
+	private static boolean getResult(Future<Boolean> future) throws InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.http;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Page fetched by the http transport.
+ *
+ * @author Nicolas
+ */
+@AllArgsConstructor
+@Getter
+public class FetchedPage {
+
+	/** Final url, after redirects */
+	private final String url;
+
+	/** Http status code */
+	private final int statusCode;
+
+	/** Charset declared by the server, null when unknown */
+	private final String charset;
+
+	/** Response headers, keyed by lower case name */
+	private final Map<String, String> headers;
+
+	/** Cookies known after the request */
+	private final Map<String, String> cookies;
+
+	/** Decoded response body */
+	private final byte[] body;
+
+	/**
+	 * Get header value.
+	 *
+	 * @param name case insensitive header name
+	 * @return header value, null when not set
+	 */
+	public String header(String name) {
+		return headers.get(name.toLowerCase(Locale.ROOT));
+	}
+
+	/**
+	 * Get cookie value.
+	 *
+	 * @param name
+	 * @return cookie value, null when not set
+	 */
+	public String cookie(String name) {
+		return cookies.get(name);
+	}
+
+	/**
+	 * Parse body as an HTML document.
+	 *
+	 * @return HTML document
+	 * @throws IOException
+	 */
+	public Document parse() throws IOException {
+		return Jsoup.parse(new ByteArrayInputStream(body), charset, url);
+	}
+
+}
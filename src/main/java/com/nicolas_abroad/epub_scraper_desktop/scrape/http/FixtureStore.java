@@ -0,0 +1,138 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.http;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Recorded http responses, replayed by the replay server.
+ * Every response is stored as a metadata file and a raw body file, in a folder per host.
+ * Responses are addressed by their url without scheme, so a page recorded from https can be replayed over http.
+ * Redirected responses are stored as a redirect to the final url, followed by the page of the final url.
+ *
+ * @author Nicolas
+ */
+public class FixtureStore {
+
+	private static final String METADATA_EXTENSION = ".json";
+	private static final String BODY_EXTENSION = ".body";
+
+	private static final ObjectMapper jsonMapper = new ObjectMapper();
+
+	private final Path directory;
+
+	/**
+	 * Recorded response.
+	 *
+	 * @param url requested url
+	 * @param statusCode http status code
+	 * @param charset charset declared by the server, null when unknown
+	 * @param headers response headers, keyed by lower case name
+	 * @param body raw response body, empty for redirects
+	 */
+	public record Fixture(String url, int statusCode, String charset, Map<String, String> headers, byte[] body) {
+	}
+
+	/** Fixture metadata, stored next to the body */
+	private record Metadata(String url, int statusCode, String charset, Map<String, String> headers) {
+	}
+
+	/**
+	 * Open a fixture store.
+	 *
+	 * @param directory fixture directory, created when recording
+	 */
+	public FixtureStore(Path directory) {
+		this.directory = directory;
+	}
+
+	/** Get fixture directory */
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Record a fetched page.
+	 *
+	 * @param requestUrl requested url
+	 * @param page fetched page
+	 * @throws IOException
+	 */
+	public void record(String requestUrl, FetchedPage page) throws IOException {
+		if (!toKey(requestUrl).equals(toKey(page.getUrl()))) {
+			write(new Fixture(requestUrl, 302, null, Map.of("location", page.getUrl()), new byte[0]));
+		}
+		write(new Fixture(page.getUrl(), page.getStatusCode(), page.getCharset(), page.getHeaders(), page.getBody()));
+	}
+
+	/**
+	 * Find recorded response.
+	 *
+	 * @param url requested url, with or without scheme
+	 * @return recorded response, null when not recorded
+	 * @throws IOException
+	 */
+	public Fixture find(String url) throws IOException {
+		Path metadataPath = fixturePath(url, METADATA_EXTENSION);
+		if (!Files.exists(metadataPath)) {
+			return null;
+		}
+		Metadata metadata = jsonMapper.readValue(metadataPath.toFile(), Metadata.class);
+		byte[] body = Files.readAllBytes(fixturePath(url, BODY_EXTENSION));
+		return new Fixture(metadata.url(), metadata.statusCode(), metadata.charset(), metadata.headers(), body);
+	}
+
+	private synchronized void write(Fixture fixture) throws IOException {
+		Path metadataPath = fixturePath(fixture.url(), METADATA_EXTENSION);
+		Files.createDirectories(metadataPath.getParent());
+		// Body first, so a fixture is never found without its body
+		writeAtomically(fixturePath(fixture.url(), BODY_EXTENSION), fixture.body());
+		Metadata metadata = new Metadata(fixture.url(), fixture.statusCode(), fixture.charset(), fixture.headers());
+		writeAtomically(metadataPath, jsonMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(metadata));
+	}
+
+	private static void writeAtomically(Path path, byte[] content) throws IOException {
+		Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+		Files.write(temporaryPath, content);
+		Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private Path fixturePath(String url, String extension) {
+		String key = toKey(url);
+		String host = key.substring(0, key.indexOf('/'));
+		return directory.resolve(host).resolve(hash(key) + extension);
+	}
+
+	/**
+	 * Get the key of an url: its host, path and query, without scheme.
+	 *
+	 * @param url url, with or without scheme
+	 * @return key, for example ncode.syosetu.com/n0000aa/?p=2
+	 */
+	static String toKey(String url) {
+		URI uri = URI.create(url.contains("://") ? url : "https://" + url);
+		String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+		String query = uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery();
+		return uri.getHost().toLowerCase(Locale.ROOT) + path + query;
+	}
+
+	private static String hash(String key) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+			return HexFormat.of().formatHex(digest, 0, 16);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
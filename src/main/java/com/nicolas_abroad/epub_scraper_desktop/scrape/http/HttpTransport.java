@@ -0,0 +1,442 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.http;
+
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.classic.methods.HttpGet;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.cookie.BasicCookieStore;
+import org.apache.hc.client5.http.cookie.Cookie;
+import org.apache.hc.client5.http.impl.DefaultHttpRequestRetryStrategy;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.cookie.BasicClientCookie;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.jsoup.HttpStatusException;
+import org.jsoup.helper.HttpConnection;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Http transport shared by all scrapers.
+ * Connections are pooled and kept alive, so chapters fetched from the same website reuse the same connections.
+ * Compressed responses (gzip, deflate, brotli) are decoded transparently.
+ * Requests are rate limited by host, and throttled requests are retried with backoff.
+ * When a response cache is set, cached pages are revalidated with conditional requests,
+ * and in offline mode pages are served from the cache only.
+ * Requests can be sent to a local stand-in of the websites through a base url, and fetched pages can be
+ * recorded as fixtures the stand-in replays, see {@link ReplayServer}.
+ *
+ * @author Nicolas
+ */
+public class HttpTransport implements Closeable {
+
+	/** Default maximum number of pooled connections */
+	public static final int DEFAULT_MAX_CONNECTIONS = 32;
+
+	/** Default maximum number of pooled connections to a single host */
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;
+
+	private static final Timeout CONNECT_TIMEOUT = Timeout.ofSeconds(10);
+	private static final Timeout SOCKET_TIMEOUT = Timeout.ofSeconds(30);
+	private static final TimeValue CONNECTION_TIME_TO_LIVE = TimeValue.ofMinutes(5);
+	private static final TimeValue IDLE_CONNECTION_EVICTION = TimeValue.ofSeconds(30);
+
+	private static final HttpTransport singleton = new HttpTransport();
+
+	private final PoolingHttpClientConnectionManager connectionManager;
+
+	private final CloseableHttpClient httpClient;
+
+	private final RateLimiter rateLimiter = new RateLimiter();
+
+	private volatile ResponseCache cache;
+
+	private volatile boolean offline;
+
+	/** Base url requests are sent to instead of the websites, null to fetch from the websites */
+	private volatile String baseUrl;
+
+	/** Store fetched pages are recorded to, null to disable recording */
+	private volatile FixtureStore recorder;
+
+	/** Create a new http transport with its own connection pool */
+	public HttpTransport() {
+		ConnectionConfig connectionConfig = ConnectionConfig.custom()
+				.setConnectTimeout(CONNECT_TIMEOUT)
+				.setSocketTimeout(SOCKET_TIMEOUT)
+				.setTimeToLive(CONNECTION_TIME_TO_LIVE)
+				.build();
+		this.connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+				.setMaxConnTotal(DEFAULT_MAX_CONNECTIONS)
+				.setMaxConnPerRoute(DEFAULT_MAX_CONNECTIONS_PER_HOST)
+				.setDefaultConnectionConfig(connectionConfig)
+				.build();
+		this.httpClient = HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setUserAgent(HttpConnection.DEFAULT_UA)
+				.evictIdleConnections(IDLE_CONNECTION_EVICTION)
+				.setRetryStrategy(new ConnectionRetryStrategy())
+				.build();
+	}
+
+	/** Retry strategy retrying connection failures only. Throttled responses are handled by the rate limiter. */
+	private static class ConnectionRetryStrategy extends DefaultHttpRequestRetryStrategy {
+		@Override
+		public boolean retryRequest(HttpResponse response, int execCount, HttpContext context) {
+			return false;
+		}
+	}
+
+	/**
+	 * Get http transport shared by all scrapers.
+	 *
+	 * @return shared http transport
+	 */
+	public static HttpTransport getSharedTransport() {
+		return singleton;
+	}
+
+	/**
+	 * Get rate limiter used by this transport.
+	 *
+	 * @return rate limiter
+	 */
+	public RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 * Get response cache.
+	 *
+	 * @return response cache, null when caching is disabled
+	 */
+	public ResponseCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Set response cache.
+	 *
+	 * @param cache response cache, null to disable caching
+	 */
+	public void setCache(ResponseCache cache) {
+		this.cache = cache;
+	}
+
+	/** Is offline mode enabled */
+	public boolean isOffline() {
+		return offline;
+	}
+
+	/**
+	 * Set offline mode. In offline mode, pages are served from the response cache only.
+	 *
+	 * @param offline
+	 */
+	public void setOffline(boolean offline) {
+		this.offline = offline;
+	}
+
+	/** Get base url requests are sent to, null when fetching from the websites */
+	public String getBaseUrl() {
+		return baseUrl;
+	}
+
+	/**
+	 * Send requests to a local stand-in of the websites, such as a replay server.
+	 * Pages keep the urls of the websites, so scrapers do not notice the stand-in.
+	 *
+	 * @param baseUrl base url of the stand-in, for example http://127.0.0.1:8080, null to fetch from the websites
+	 */
+	public void setBaseUrl(String baseUrl) {
+		this.baseUrl = baseUrl == null ? null : baseUrl.replaceAll("/+$", "");
+	}
+
+	/** Get store fetched pages are recorded to, null when not recording */
+	public FixtureStore getRecorder() {
+		return recorder;
+	}
+
+	/**
+	 * Record fetched pages as fixtures. The response cache is bypassed while recording, so every page is fetched.
+	 *
+	 * @param recorder fixture store, null to disable recording
+	 */
+	public void setRecorder(FixtureStore recorder) {
+		this.recorder = recorder;
+	}
+
+	/**
+	 * Set maximum number of pooled connections.
+	 *
+	 * @param maxConnections
+	 */
+	public void setMaxConnections(int maxConnections) {
+		connectionManager.setMaxTotal(maxConnections);
+	}
+
+	/**
+	 * Set default maximum number of pooled connections to a single host.
+	 *
+	 * @param maxConnections
+	 */
+	public void setMaxConnectionsPerHost(int maxConnections) {
+		connectionManager.setDefaultMaxPerRoute(maxConnections);
+	}
+
+	/**
+	 * Set maximum number of pooled connections to the given host.
+	 *
+	 * @param host host name, for example ncode.syosetu.com
+	 * @param maxConnections
+	 */
+	public void setMaxConnectionsPerHost(String host, int maxConnections) {
+		connectionManager.setMaxPerRoute(new HttpRoute(new HttpHost("https", host, 443), null, true), maxConnections);
+		connectionManager.setMaxPerRoute(new HttpRoute(new HttpHost("http", host, 80), null, false), maxConnections);
+	}
+
+	/**
+	 * Fetch page.
+	 * Throttled requests are retried until the rate limiter gives up.
+	 *
+	 * @param url
+	 * @param cookies cookies sent with the request
+	 * @return fetched page
+	 * @throws IOException
+	 */
+	public FetchedPage get(String url, Map<String, String> cookies) throws IOException {
+		return get(url, cookies, false, 1);
+	}
+
+	/**
+	 * Fetch page.
+	 * Throttled requests are retried until the rate limiter gives up.
+	 *
+	 * @param url
+	 * @param cookies cookies sent with the request
+	 * @param fresh whether the cached page is known to be up to date, it is then served without revalidation
+	 * @param timeoutMultiplier response timeout multiplier of this request, 1 for the default timeout
+	 * @return fetched page
+	 * @throws IOException
+	 */
+	public FetchedPage get(String url, Map<String, String> cookies, boolean fresh, int timeoutMultiplier)
+			throws IOException {
+		Timeout responseTimeout = Timeout.ofSeconds(SOCKET_TIMEOUT.toSeconds() * timeoutMultiplier);
+		FixtureStore fixtureStore = this.recorder;
+		ResponseCache responseCache = fixtureStore == null ? this.cache : null;
+		ResponseCache.CacheEntry cacheEntry = responseCache == null ? null : responseCache.get(url, cookies);
+		if (offline || (cacheEntry != null && fresh)) {
+			FetchedPage cachedPage = cacheEntry == null ? null : readCachedPage(responseCache, cacheEntry, cookies);
+			if (cachedPage != null) {
+				return cachedPage;
+			}
+			if (offline) {
+				throw new IOException("Page is not cached, it can not be fetched in offline mode: " + url);
+			}
+			cacheEntry = null;
+		}
+
+		URI uri = toUri(url);
+		TokenBucket bucket = rateLimiter.getBucket(uri.getHost());
+		for (int attempt = 0; ; attempt++) {
+			acquire(bucket);
+			FetchedPage page = execute(uri, cookies, ResponseCache.conditionalHeaders(cacheEntry), responseTimeout);
+			int statusCode = page.getStatusCode();
+
+			if (statusCode == HttpStatus.SC_NOT_MODIFIED && cacheEntry != null) {
+				bucket.succeed();
+				// Cached body is still valid, keep the cookies of the revalidation
+				FetchedPage cachedPage = readCachedPage(responseCache, cacheEntry, page.getCookies());
+				if (cachedPage != null) {
+					return cachedPage;
+				}
+				// Cached body was evicted in the meantime, fetch the whole page again
+				cacheEntry = null;
+				continue;
+			}
+
+			if (!RateLimiter.isThrottled(statusCode)) {
+				bucket.succeed();
+				if (statusCode >= 400) {
+					throw new HttpStatusException("HTTP error fetching URL", statusCode, page.getUrl());
+				}
+				if (responseCache != null && statusCode == HttpStatus.SC_OK) {
+					responseCache.put(url, cookies, page);
+				}
+				if (fixtureStore != null) {
+					fixtureStore.record(url, page);
+				}
+				return page;
+			}
+
+			if (attempt >= rateLimiter.getMaxRetries()) {
+				throw new HttpStatusException("HTTP error fetching URL", statusCode, page.getUrl());
+			}
+			bucket.throttle(rateLimiter.computeBackoffNanos(attempt, page.header("Retry-After")));
+		}
+	}
+
+	private static void acquire(TokenBucket bucket) throws InterruptedIOException {
+		try {
+			bucket.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for rate limiter");
+		}
+	}
+
+	private static FetchedPage readCachedPage(ResponseCache responseCache, ResponseCache.CacheEntry entry,
+			Map<String, String> cookies) {
+		try {
+			byte[] body = responseCache.readBody(entry);
+			Map<String, String> headers = new HashMap<>();
+			if (entry.getEtag() != null) {
+				headers.put("etag", entry.getEtag());
+			}
+			if (entry.getLastModified() != null) {
+				headers.put("last-modified", entry.getLastModified());
+			}
+			// Cookies of the cached response resume its session, cookies of the request take precedence
+			Map<String, String> pageCookies = new HashMap<>();
+			if (entry.getCookies() != null) {
+				pageCookies.putAll(entry.getCookies());
+			}
+			pageCookies.putAll(cookies);
+			return new FetchedPage(entry.getUrl(), HttpStatus.SC_OK, entry.getCharset(), headers, pageCookies, body);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private FetchedPage execute(URI uri, Map<String, String> cookies, Map<String, String> headers,
+			Timeout responseTimeout) throws IOException {
+		String standInUrl = this.baseUrl;
+		URI requestUri = standInUrl == null ? uri : toBaseUrl(standInUrl, uri);
+		HttpGet request = new HttpGet(requestUri);
+		request.setConfig(RequestConfig.custom().setResponseTimeout(responseTimeout).build());
+		headers.forEach(request::addHeader);
+
+		// Every request gets its own cookie store, so scraper sessions never leak into each other
+		BasicCookieStore cookieStore = new BasicCookieStore();
+		cookies.forEach((name, value) -> {
+			BasicClientCookie cookie = new BasicClientCookie(name, value);
+			cookie.setDomain(requestUri.getHost());
+			cookie.setPath("/");
+			cookieStore.addCookie(cookie);
+		});
+		HttpClientContext context = HttpClientContext.create();
+		context.setCookieStore(cookieStore);
+
+		return httpClient.execute(request, context, response -> {
+			String finalUrl = getFinalUrl(uri.toString(), context);
+			if (standInUrl != null) {
+				finalUrl = fromBaseUrl(standInUrl, uri, finalUrl);
+			}
+			int statusCode = response.getCode();
+			HttpEntity entity = response.getEntity();
+			byte[] body;
+			if (statusCode >= 400) {
+				EntityUtils.consume(entity);
+				body = new byte[0];
+			} else {
+				body = entity == null ? new byte[0] : EntityUtils.toByteArray(entity);
+			}
+			return new FetchedPage(finalUrl, statusCode, getCharset(entity), toHeaderMap(response.getHeaders()),
+					toCookieMap(cookieStore.getCookies()), body);
+		});
+	}
+
+	private static URI toUri(String url) throws IOException {
+		try {
+			return new URI(url);
+		} catch (URISyntaxException e) {
+			throw new IOException("Malformed URL: " + url, e);
+		}
+	}
+
+	/**
+	 * Get the url of a page on a stand-in of the websites.
+	 *
+	 * @param baseUrl base url of the stand-in
+	 * @param uri url of the page on the website
+	 * @return url of the page on the stand-in, with the host and port of the website as first path segment
+	 */
+	static URI toBaseUrl(String baseUrl, URI uri) {
+		String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+		String query = uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery();
+		return URI.create(baseUrl + "/" + uri.getRawAuthority() + path + query);
+	}
+
+	/** Get the url of a page on the website from its url on a stand-in, keeping the scheme of the request */
+	private static String fromBaseUrl(String baseUrl, URI requestUri, String url) {
+		if (!url.startsWith(baseUrl + "/")) {
+			return url;
+		}
+		return requestUri.getScheme() + "://" + url.substring(baseUrl.length() + 1);
+	}
+
+	private static String getFinalUrl(String url, HttpClientContext context) {
+		List<URI> redirectLocations = context.getRedirectLocations().getAll();
+		if (redirectLocations.isEmpty()) {
+			return url;
+		}
+		return redirectLocations.getLast().toString();
+	}
+
+	private static String getCharset(HttpEntity entity) {
+		if (entity == null || entity.getContentType() == null) {
+			return null;
+		}
+		try {
+			Charset charset = ContentType.parse(entity.getContentType()).getCharset();
+			return charset == null ? null : charset.name();
+		} catch (Exception e) {
+			// let jsoup detect the charset from the document itself
+			return null;
+		}
+	}
+
+	private static Map<String, String> toHeaderMap(Header[] headers) {
+		Map<String, String> headerMap = new HashMap<>();
+		for (Header header : headers) {
+			headerMap.putIfAbsent(header.getName().toLowerCase(Locale.ROOT), header.getValue());
+		}
+		return headerMap;
+	}
+
+	private static Map<String, String> toCookieMap(List<Cookie> cookies) {
+		Map<String, String> cookieMap = new HashMap<>();
+		for (Cookie cookie : cookies) {
+			cookieMap.put(cookie.getName(), cookie.getValue());
+		}
+		return cookieMap;
+	}
+
+	@Override
+	public void close() {
+		httpClient.close(CloseMode.GRACEFUL);
+	}
+
+}
@@ -0,0 +1,134 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.http;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate limiter keyed by host.
+ * Every host gets its own token bucket, and throttled requests (429/503) are retried
+ * after the delay requested by the host, or after an exponential backoff with jitter.
+ *
+ * @author Nicolas
+ */
+public class RateLimiter {
+
+	/** Default rate for hosts without a specific rate, in requests per second */
+	public static final double DEFAULT_RATE = 2.0;
+
+	/** Default number of retries of a throttled request */
+	public static final int DEFAULT_MAX_RETRIES = 6;
+
+	/** Rates tolerated by supported websites, in requests per second */
+	private static final Map<String, Double> DEFAULT_HOST_RATES = Map.of(
+			"ncode.syosetu.com", 2.0,
+			"novel18.syosetu.com", 2.0,
+			"kakuyomu.jp", 4.0);
+
+	private static final long BASE_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private static final long MAX_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+	private final Map<String, Double> hostRates = new ConcurrentHashMap<>(DEFAULT_HOST_RATES);
+
+	private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+	private volatile int maxRetries = DEFAULT_MAX_RETRIES;
+
+	/**
+	 * Set rate of a single host.
+	 *
+	 * @param host host name, for example ncode.syosetu.com
+	 * @param rate requests per second
+	 */
+	public void setHostRate(String host, double rate) {
+		hostRates.put(host, rate);
+		buckets.remove(host);
+	}
+
+	/** Get number of retries of a throttled request */
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/** Set number of retries of a throttled request */
+	public void setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+
+	/**
+	 * Get token bucket of a host.
+	 *
+	 * @param host
+	 * @return token bucket
+	 */
+	public TokenBucket getBucket(String host) {
+		String key = host == null ? "" : host;
+		return buckets.computeIfAbsent(key, h -> {
+			double rate = hostRates.getOrDefault(h, DEFAULT_RATE);
+			return new TokenBucket(rate, Math.max(1, rate * 2));
+		});
+	}
+
+	/**
+	 * Check if the host throttled the request.
+	 *
+	 * @param statusCode http status code
+	 * @return true when throttled
+	 */
+	public static boolean isThrottled(int statusCode) {
+		return statusCode == 429 || statusCode == 503;
+	}
+
+	/**
+	 * Compute delay before retrying a throttled request.
+	 * Retry-After is honoured when present. Otherwise the delay grows exponentially with each attempt,
+	 * with full jitter so that concurrent requests do not retry all at once.
+	 *
+	 * @param attempt number of attempts already throttled, starting at 0
+	 * @param retryAfter Retry-After header value, may be null
+	 * @return delay in nanoseconds
+	 */
+	public long computeBackoffNanos(int attempt, String retryAfter) {
+		long ceiling = BASE_BACKOFF_NANOS << Math.min(attempt, 16);
+		long backoff = ThreadLocalRandom.current().nextLong(Math.min(ceiling, MAX_BACKOFF_NANOS) + 1);
+		Long requested = parseRetryAfter(retryAfter, Instant.now());
+		if (requested == null) {
+			return Math.max(backoff, BASE_BACKOFF_NANOS / 10);
+		}
+		return requested + backoff / 4;
+	}
+
+	/**
+	 * Parse Retry-After header value. Both delay in seconds and http date formats are supported.
+	 *
+	 * @param retryAfter Retry-After header value
+	 * @param now current time
+	 * @return delay in nanoseconds, null when not parsable
+	 */
+	static Long parseRetryAfter(String retryAfter, Instant now) {
+		if (retryAfter == null || retryAfter.isBlank()) {
+			return null;
+		}
+		String value = retryAfter.trim();
+		try {
+			long seconds = Long.parseLong(value);
+			return TimeUnit.SECONDS.toNanos(Math.max(0, seconds));
+		} catch (NumberFormatException e) {
+			// not a delay in seconds, try http date
+		}
+		try {
+			Instant date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+			return Math.max(0, Duration.between(now, date).toNanos());
+		} catch (DateTimeParseException e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,136 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Local http server replaying recorded responses, standing in for the websites.
+ * Transports point at it through their base url, see {@link HttpTransport#setBaseUrl}:
+ * https://ncode.syosetu.com/n0000aa/ is requested as {base url}/ncode.syosetu.com/n0000aa/.
+ * Every response is delayed by a random latency, so replayed runs behave like runs against the websites.
+ * Urls that were not recorded get a 404 response.
+ *
+ * @author Nicolas
+ */
+public final class ReplayServer implements AutoCloseable {
+
+	/** Headers describing the recorded transfer rather than the page, never replayed */
+	private static final Set<String> TRANSFER_HEADERS = Set.of("content-length", "content-encoding",
+			"transfer-encoding", "connection", "keep-alive", "location");
+
+	private final FixtureStore fixtureStore;
+
+	private final HttpServer httpServer;
+
+	private final ExecutorService requestExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+	private volatile long minLatencyNanos;
+
+	private volatile long maxLatencyNanos;
+
+	/**
+	 * Create a new replay server listening on the loopback address.
+	 *
+	 * @param port listening port, 0 for any free port
+	 * @param fixtureStore recorded responses
+	 * @throws IOException
+	 */
+	public ReplayServer(int port, FixtureStore fixtureStore) throws IOException {
+		this.fixtureStore = fixtureStore;
+		this.httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		httpServer.createContext("/", this::handle);
+		httpServer.setExecutor(requestExecutor);
+	}
+
+	/**
+	 * Set latency added to every response, picked uniformly between a minimum and a maximum.
+	 *
+	 * @param minLatency
+	 * @param maxLatency
+	 */
+	public void setLatency(Duration minLatency, Duration maxLatency) {
+		if (minLatency.isNegative() || maxLatency.compareTo(minLatency) < 0) {
+			throw new IllegalArgumentException("Invalid latency: " + minLatency + " to " + maxLatency);
+		}
+		this.minLatencyNanos = minLatency.toNanos();
+		this.maxLatencyNanos = maxLatency.toNanos();
+	}
+
+	/** Start accepting requests */
+	public void start() {
+		httpServer.start();
+	}
+
+	/** Get base url transports point at */
+	public String getBaseUrl() {
+		return "http://" + httpServer.getAddress().getHostString() + ":" + httpServer.getAddress().getPort();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			delay();
+			// The first path segment is the host and port of the recorded url
+			URI requestUri = exchange.getRequestURI();
+			String key = requestUri.getRawPath().substring(1)
+					+ (requestUri.getRawQuery() == null ? "" : "?" + requestUri.getRawQuery());
+			FixtureStore.Fixture fixture = key.isEmpty() ? null : fixtureStore.find(key);
+			if (fixture == null) {
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+
+			fixture.headers().forEach((name, value) -> {
+				if (!TRANSFER_HEADERS.contains(name)) {
+					exchange.getResponseHeaders().set(name, value);
+				}
+			});
+			String location = fixture.headers().get("location");
+			if (location != null) {
+				exchange.getResponseHeaders().set("Location", HttpTransport.toBaseUrl(getBaseUrl(), URI.create(location))
+						.toString());
+			}
+			if (fixture.charset() != null && exchange.getResponseHeaders().getFirst("content-type") == null) {
+				exchange.getResponseHeaders().set("Content-Type", "text/html; charset=" + fixture.charset());
+			}
+			byte[] body = fixture.body();
+			exchange.sendResponseHeaders(fixture.statusCode(), body.length == 0 ? -1 : body.length);
+			if (body.length > 0) {
+				try (OutputStream output = exchange.getResponseBody()) {
+					output.write(body);
+				}
+			}
+		}
+	}
+
+	private void delay() {
+		long latencyNanos = minLatencyNanos == maxLatencyNanos ? minLatencyNanos
+				: ThreadLocalRandom.current().nextLong(minLatencyNanos, maxLatencyNanos + 1);
+		if (latencyNanos <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(Duration.ofNanos(latencyNanos));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Stop the server */
+	@Override
+	public void close() {
+		httpServer.stop(0);
+		requestExecutor.shutdownNow();
+	}
+
+}
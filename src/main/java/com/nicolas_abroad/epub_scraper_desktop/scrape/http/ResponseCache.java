@@ -0,0 +1,340 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.http;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Persistent http response cache.
+ * Response bodies are stored gzip compressed and addressed by the SHA-256 of their content,
+ * so identical pages are stored once. An index maps every url to its body and its validators
+ * (ETag, Last-Modified), which are used to revalidate the page with a conditional request.
+ * Pages requested with cookies are stored apart from pages requested without, so an age check page
+ * served without a session never stands in for the page served with one.
+ * Least recently used pages are evicted once the cache exceeds its size limit.
+ *
+ * @author Nicolas
+ */
+public class ResponseCache implements Closeable {
+
+	/** Default cache directory */
+	public static final Path DEFAULT_DIRECTORY = Paths.get(System.getProperty("user.home"), ".epub_scraper", "cache");
+
+	/** Default cache size limit, in megabytes */
+	public static final long DEFAULT_MAX_SIZE_MB = 512;
+
+	private static final String INDEX_FILE = "index.json";
+	private static final String OBJECTS_DIRECTORY = "objects";
+	private static final String OBJECT_EXTENSION = ".gz";
+
+	private static final ObjectMapper jsonMapper = new ObjectMapper();
+
+	private final Path directory;
+
+	private final long maxSizeBytes;
+
+	/** Cache entries by url, in access order */
+	private final LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/** Compressed size of stored bodies, by content hash */
+	private final Map<String, Long> objectSizes = new HashMap<>();
+
+	/** Number of entries referencing each stored body, by content hash */
+	private final Map<String, Integer> references = new HashMap<>();
+
+	private long totalSize;
+
+	private boolean dirty;
+
+	/** Cached response metadata */
+	@Data
+	@NoArgsConstructor
+	public static class CacheEntry {
+		/** SHA-256 of the response body */
+		private String hash;
+		/** Final url, after redirects */
+		private String url;
+		/** Charset declared by the server */
+		private String charset;
+		/** ETag validator */
+		private String etag;
+		/** Last-Modified validator */
+		private String lastModified;
+		/** Cookies known after the response, so that a session started by a cached page can be resumed */
+		private Map<String, String> cookies;
+	}
+
+	/**
+	 * Open a response cache.
+	 *
+	 * @param directory cache directory, created when missing
+	 * @param maxSizeBytes size limit of stored bodies
+	 * @throws IOException
+	 */
+	public ResponseCache(Path directory, long maxSizeBytes) throws IOException {
+		this.directory = directory;
+		this.maxSizeBytes = maxSizeBytes;
+		Files.createDirectories(directory.resolve(OBJECTS_DIRECTORY));
+		load();
+	}
+
+	/**
+	 * Get cached response of a request sent without cookies.
+	 *
+	 * @param url requested url
+	 * @return cache entry, null when not cached
+	 */
+	public CacheEntry get(String url) {
+		return get(url, Collections.emptyMap());
+	}
+
+	/**
+	 * Get cached response.
+	 *
+	 * @param url requested url
+	 * @param cookies cookies sent with the request
+	 * @return cache entry, null when not cached
+	 */
+	public synchronized CacheEntry get(String url, Map<String, String> cookies) {
+		return entries.get(key(url, cookies));
+	}
+
+	/**
+	 * Read cached body.
+	 *
+	 * @param entry
+	 * @return decompressed body
+	 * @throws IOException
+	 */
+	public byte[] readBody(CacheEntry entry) throws IOException {
+		try (InputStream inputStream = new GZIPInputStream(
+				new BufferedInputStream(Files.newInputStream(objectPath(entry.getHash()))))) {
+			return inputStream.readAllBytes();
+		}
+	}
+
+	/**
+	 * Store response of a request sent without cookies.
+	 *
+	 * @param requestUrl requested url
+	 * @param page fetched page
+	 * @throws IOException
+	 */
+	public void put(String requestUrl, FetchedPage page) throws IOException {
+		put(requestUrl, Collections.emptyMap(), page);
+	}
+
+	/**
+	 * Store response.
+	 *
+	 * @param requestUrl requested url
+	 * @param cookies cookies sent with the request
+	 * @param page fetched page
+	 * @throws IOException
+	 */
+	public synchronized void put(String requestUrl, Map<String, String> cookies, FetchedPage page)
+			throws IOException {
+		String hash = hash(page.getBody());
+		if (!objectSizes.containsKey(hash)) {
+			long objectSize = writeObject(objectPath(hash), page.getBody());
+			objectSizes.put(hash, objectSize);
+			totalSize += objectSize;
+		}
+
+		CacheEntry entry = new CacheEntry();
+		entry.setHash(hash);
+		entry.setUrl(page.getUrl());
+		entry.setCharset(page.getCharset());
+		entry.setEtag(page.header("ETag"));
+		entry.setLastModified(page.header("Last-Modified"));
+		entry.setCookies(page.getCookies().isEmpty() ? null : new TreeMap<>(page.getCookies()));
+
+		addReference(hash);
+		CacheEntry previous = entries.put(key(requestUrl, cookies), entry);
+		if (previous != null) {
+			removeReference(previous.getHash());
+		}
+		dirty = true;
+		evict();
+	}
+
+	/**
+	 * Get conditional request headers revalidating a cached response.
+	 *
+	 * @param entry cache entry, may be null
+	 * @return request headers
+	 */
+	public static Map<String, String> conditionalHeaders(CacheEntry entry) {
+		if (entry == null) {
+			return Collections.emptyMap();
+		}
+		Map<String, String> headers = new HashMap<>();
+		if (entry.getEtag() != null) {
+			headers.put("If-None-Match", entry.getEtag());
+		}
+		if (entry.getLastModified() != null) {
+			headers.put("If-Modified-Since", entry.getLastModified());
+		}
+		return headers;
+	}
+
+	/**
+	 * Write index to disk.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		if (!dirty) {
+			return;
+		}
+		Path indexPath = directory.resolve(INDEX_FILE);
+		Path temporaryPath = directory.resolve(INDEX_FILE + ".tmp");
+		// Least recently used entries come first, so the access order survives restarts
+		jsonMapper.writeValue(temporaryPath.toFile(), new LinkedHashMap<>(entries));
+		Files.move(temporaryPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		dirty = false;
+	}
+
+	/** Get total size of stored bodies, in bytes */
+	public synchronized long getTotalSize() {
+		return totalSize;
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+	}
+
+	private void load() throws IOException {
+		try (Stream<Path> objects = Files.list(directory.resolve(OBJECTS_DIRECTORY))) {
+			objects.filter(path -> path.getFileName().toString().endsWith(OBJECT_EXTENSION)).forEach(path -> {
+				String fileName = path.getFileName().toString();
+				String hash = fileName.substring(0, fileName.length() - OBJECT_EXTENSION.length());
+				try {
+					long size = Files.size(path);
+					objectSizes.put(hash, size);
+					totalSize += size;
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		}
+
+		Path indexPath = directory.resolve(INDEX_FILE);
+		if (Files.exists(indexPath)) {
+			LinkedHashMap<String, CacheEntry> storedEntries = jsonMapper.readValue(indexPath.toFile(),
+					new TypeReference<LinkedHashMap<String, CacheEntry>>() {
+					});
+			storedEntries.forEach((url, entry) -> {
+				// Drop entries whose body is missing
+				if (objectSizes.containsKey(entry.getHash())) {
+					entries.put(url, entry);
+					addReference(entry.getHash());
+				}
+			});
+		}
+
+		// Drop bodies no entry references
+		for (String hash : objectSizes.keySet().toArray(new String[0])) {
+			if (!references.containsKey(hash)) {
+				deleteObject(hash);
+			}
+		}
+		evict();
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, CacheEntry>> iterator = entries.entrySet().iterator();
+		while (totalSize > maxSizeBytes && iterator.hasNext()) {
+			CacheEntry entry = iterator.next().getValue();
+			iterator.remove();
+			removeReference(entry.getHash());
+			dirty = true;
+		}
+	}
+
+	private void addReference(String hash) {
+		references.merge(hash, 1, Integer::sum);
+	}
+
+	private void removeReference(String hash) {
+		Integer count = references.merge(hash, -1, Integer::sum);
+		if (count != null && count <= 0) {
+			references.remove(hash);
+			deleteObject(hash);
+		}
+	}
+
+	private void deleteObject(String hash) {
+		Long size = objectSizes.remove(hash);
+		if (size != null) {
+			totalSize -= size;
+		}
+		try {
+			Files.deleteIfExists(objectPath(hash));
+		} catch (IOException e) {
+			// an orphan body is dropped on next load
+		}
+	}
+
+	private long writeObject(Path objectPath, byte[] body) throws IOException {
+		Path temporaryPath = Files.createTempFile(objectPath.getParent(), "object", ".tmp");
+		try (OutputStream outputStream = new GZIPOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(temporaryPath)))) {
+			outputStream.write(body);
+		}
+		Files.move(temporaryPath, objectPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return Files.size(objectPath);
+	}
+
+	/**
+	 * Get index key of a request. Cookie names are part of the key, but not their values,
+	 * so pages stay cached across sessions.
+	 */
+	private static String key(String url, Map<String, String> cookies) {
+		if (cookies.isEmpty()) {
+			return url;
+		}
+		return url + " cookies=" + String.join(",", new TreeSet<>(cookies.keySet()));
+	}
+
+	private Path objectPath(String hash) {
+		return directory.resolve(OBJECTS_DIRECTORY).resolve(hash + OBJECT_EXTENSION);
+	}
+
+	private static String hash(byte[] body) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return HexFormat.of().formatHex(digest.digest(body));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
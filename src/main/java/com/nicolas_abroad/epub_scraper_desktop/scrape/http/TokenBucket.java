@@ -0,0 +1,147 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.http;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Token bucket limiting the request rate to a single host.
+ * The rate adapts to the host: it is halved every time the host throttles us,
+ * and slowly grows back to the configured rate while requests succeed.
+ *
+ * @author Nicolas
+ */
+public class TokenBucket {
+
+	/** Lowest rate reachable through throttling, as a fraction of the configured rate */
+	private static final double MIN_RATE_FRACTION = 1.0 / 16;
+
+	/** Rate recovered after each successful request, as a fraction of the configured rate */
+	private static final double RECOVERY_FRACTION = 1.0 / 20;
+
+	private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final LongSupplier nanoClock;
+
+	/** Configured rate, in requests per second */
+	private final double maxRate;
+
+	/** Maximum number of requests sent in a burst */
+	private final double capacity;
+
+	/** Current rate, in requests per second */
+	private double rate;
+
+	/** Available tokens. Negative when requests are queued. */
+	private double tokens;
+
+	private long lastRefillTime;
+
+	/** No request is sent to the host before this time */
+	private long pausedUntil;
+
+	/**
+	 * Create a new token bucket.
+	 *
+	 * @param rate requests per second
+	 * @param capacity maximum number of requests sent in a burst
+	 */
+	public TokenBucket(double rate, double capacity) {
+		this(rate, capacity, System::nanoTime);
+	}
+
+	TokenBucket(double rate, double capacity, LongSupplier nanoClock) {
+		if (rate <= 0 || capacity < 1) {
+			throw new IllegalArgumentException("Rate and capacity must be positive");
+		}
+		this.nanoClock = nanoClock;
+		this.maxRate = rate;
+		this.rate = rate;
+		this.capacity = capacity;
+		this.tokens = capacity;
+		this.lastRefillTime = nanoClock.getAsLong();
+		this.pausedUntil = lastRefillTime;
+	}
+
+	/**
+	 * Wait until a request can be sent.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void acquire() throws InterruptedException {
+		long waitNanos = reserve();
+		if (waitNanos > 0) {
+			TimeUnit.NANOSECONDS.sleep(waitNanos);
+		}
+	}
+
+	/**
+	 * Reserve a token.
+	 *
+	 * @return nanoseconds to wait before using the token
+	 */
+	long reserve() {
+		lock.lock();
+		try {
+			long now = nanoClock.getAsLong();
+			refill(now);
+			tokens -= 1;
+			long waitNanos = tokens >= 0 ? 0 : (long) (-tokens / rate * NANOS_PER_SECOND);
+			return Math.max(waitNanos, pausedUntil - now);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Host throttled us: halve the rate and pause every request for the given delay.
+	 *
+	 * @param delayNanos
+	 */
+	public void throttle(long delayNanos) {
+		lock.lock();
+		try {
+			long now = nanoClock.getAsLong();
+			refill(now);
+			rate = Math.max(maxRate * MIN_RATE_FRACTION, rate / 2);
+			tokens = Math.min(tokens, 0);
+			pausedUntil = Math.max(pausedUntil, now + delayNanos);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Request succeeded: recover part of the configured rate. */
+	public void succeed() {
+		lock.lock();
+		try {
+			if (rate < maxRate) {
+				refill(nanoClock.getAsLong());
+				rate = Math.min(maxRate, rate + maxRate * RECOVERY_FRACTION);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Get current rate, in requests per second */
+	public double getRate() {
+		lock.lock();
+		try {
+			return rate;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void refill(long now) {
+		long elapsed = now - lastRefillTime;
+		if (elapsed > 0) {
+			tokens = Math.min(capacity, tokens + elapsed * rate / NANOS_PER_SECOND);
+			lastRefillTime = now;
+		}
+	}
+
+}
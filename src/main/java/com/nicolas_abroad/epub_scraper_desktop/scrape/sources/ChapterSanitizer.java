@@ -0,0 +1,114 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.sources;
+
+import org.jsoup.nodes.Attribute;
+import org.jsoup.nodes.CDataNode;
+import org.jsoup.nodes.Comment;
+import org.jsoup.nodes.DataNode;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeFilter;
+import org.jsoup.select.NodeTraversor;
+
+import java.util.function.Predicate;
+
+/**
+ * Chapter text sanitizer, serializing chapter elements to XHTML in a single pass.
+ * Images are dropped, link and border attributes are stripped, void elements are closed,
+ * and non-breaking spaces are written as character references.
+ *
+ * @author Nicolas
+ */
+final class ChapterSanitizer implements NodeFilter {
+
+	private static final int INITIAL_CAPACITY = 16 * 1024;
+
+	private final StringBuilder output;
+
+	private ChapterSanitizer(StringBuilder output) {
+		this.output = output;
+	}
+
+	/**
+	 * Serialize the child elements of a chapter text container.
+	 *
+	 * @param container chapter text container
+	 * @param excluded child elements left out of the text, such as advertising
+	 * @return sanitized XHTML text
+	 */
+	static String sanitize(Element container, Predicate<Element> excluded) {
+		ChapterSanitizer sanitizer = new ChapterSanitizer(new StringBuilder(INITIAL_CAPACITY));
+		for (Element child : container.children()) {
+			if (!excluded.test(child)) {
+				NodeTraversor.filter(sanitizer, child);
+			}
+		}
+		return sanitizer.output.toString();
+	}
+
+	@Override
+	public FilterResult head(Node node, int depth) {
+		if (node instanceof Element element) {
+			if (element.normalName().equals("img")) {
+				return FilterResult.SKIP_ENTIRELY;
+			}
+			output.append('<').append(element.tagName());
+			for (Attribute attribute : element.attributes()) {
+				if (!isStripped(attribute)) {
+					output.append(' ').append(attribute.getKey()).append("=\"");
+					appendEscaped(attribute.getValue(), true);
+					output.append('"');
+				}
+			}
+			output.append('>');
+		} else if (node instanceof CDataNode) {
+			output.append(node.outerHtml());
+		} else if (node instanceof TextNode text) {
+			appendEscaped(text.getWholeText(), false);
+		} else if (node instanceof DataNode data) {
+			output.append(data.getWholeData());
+		} else if (node instanceof Comment comment) {
+			output.append("<!--").append(comment.getData()).append("-->");
+		} else {
+			output.append(node.outerHtml());
+			return FilterResult.SKIP_ENTIRELY;
+		}
+		return FilterResult.CONTINUE;
+	}
+
+	@Override
+	public FilterResult tail(Node node, int depth) {
+		if (node instanceof Element element) {
+			// Void elements are closed too, XHTML has no unclosed tags
+			output.append("</").append(element.tagName()).append('>');
+		}
+		return FilterResult.CONTINUE;
+	}
+
+	private static boolean isStripped(Attribute attribute) {
+		String key = attribute.getKey();
+		return key.equals("href") || key.startsWith("border")
+				|| (key.equals("target") && attribute.getValue().equals("_blank"));
+	}
+
+	/** Append text escaped as jsoup does in xhtml mode, copying unescaped runs at once */
+	private void appendEscaped(String text, boolean inAttribute) {
+		int runStart = 0;
+		for (int i = 0; i < text.length(); i++) {
+			String escaped = switch (text.charAt(i)) {
+				case '&' -> "&amp;";
+				case '<' -> "&lt;";
+				case '>' -> inAttribute ? null : "&gt;";
+				case '"' -> inAttribute ? "&quot;" : null;
+				case '\u00a0' -> "&#xa0;";
+				default -> null;
+			};
+			if (escaped != null) {
+				output.append(text, runStart, i).append(escaped);
+				runStart = i + 1;
+			}
+		}
+		output.append(text, runStart, text.length());
+	}
+
+}
@@ -1,10 +1,21 @@
 package com.nicolas_abroad.epub_scraper_desktop.scrape.sources;
 
+import com.nicolas_abroad.epub_scraper_desktop.scrape.FetchEngine;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.http.FetchedPage;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.http.HttpTransport;
+import lombok.Getter;
+import lombok.Setter;
 import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Document.OutputSettings;
+import org.jsoup.nodes.Entities.EscapeMode;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Ebook scraper interface.
@@ -14,6 +25,113 @@ import java.util.Map;
  */
 public abstract class EbookScraper {
 
+	/** Http transport used to fetch pages */
+	@Getter
+	@Setter
+	private HttpTransport transport = HttpTransport.getSharedTransport();
+
+	/** Fetch engine of the run, so that pages the scraper fetches itself share the run limits, null to fetch them one at a time */
+	@Getter
+	@Setter
+	private FetchEngine fetchEngine;
+
+	/** Response timeout multiplier of the requests of this scraper, raised while failed chapters are retried */
+	@Getter
+	@Setter
+	private volatile int timeoutMultiplier = 1;
+
+	/** Urls whose cached page is known to be up to date, for the story run this scraper serves */
+	private final Set<String> freshUrls = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Mark cached pages as up to date, for example when the story index shows that a chapter was not revised.
+	 * These pages are served from the cache without revalidation, by this scraper only.
+	 *
+	 * @param urls
+	 */
+	public void markFresh(Collection<String> urls) {
+		freshUrls.addAll(urls);
+	}
+
+	/**
+	 * Fetch page through the http transport.
+	 *
+	 * @param url
+	 * @return fetched page
+	 * @throws IOException
+	 */
+	protected FetchedPage fetchPage(String url) throws IOException {
+		return fetchPage(url, Collections.emptyMap());
+	}
+
+	/**
+	 * Fetch page through the http transport.
+	 *
+	 * @param url
+	 * @param cookies cookies sent with the request
+	 * @return fetched page
+	 * @throws IOException
+	 */
+	protected FetchedPage fetchPage(String url, Map<String, String> cookies) throws IOException {
+		return transport.get(url, cookies, freshUrls.contains(url), timeoutMultiplier);
+	}
+
+	/**
+	 * Fetch pages concurrently through the fetch engine of the run, or one at a time when none is set.
+	 *
+	 * @param urls
+	 * @param task fetch task executed for every url
+	 * @return results, in url order
+	 * @throws Exception
+	 */
+	protected <T> List<T> fetchAll(List<String> urls, FetchEngine.FetchTask<T> task) throws Exception {
+		FetchEngine runFetchEngine = this.fetchEngine;
+		if (runFetchEngine != null) {
+			return runFetchEngine.fetchAll(urls, task);
+		}
+		try (FetchEngine sequentialFetchEngine = FetchEngine.sequential()) {
+			return sequentialFetchEngine.fetchAll(urls, task);
+		}
+	}
+
+	/**
+	 * Fetch a chapter page without parsing it, so that pages are fetched and parsed on separate threads.
+	 *
+	 * @param url
+	 * @return fetched page
+	 * @throws Exception
+	 */
+	public FetchedPage fetchChapterPage(String url) throws Exception {
+		return fetchPage(url);
+	}
+
+	/**
+	 * Parse a fetched chapter page.
+	 *
+	 * @param page
+	 * @return HTML document
+	 * @throws IOException
+	 */
+	public Document parseChapterPage(FetchedPage page) throws IOException {
+		Document document = page.parse().normalise();
+		applyOutputSettings(document);
+		return document;
+	}
+
+	/**
+	 * Apply the output settings chapter text is serialized with.
+	 *
+	 * @param document
+	 */
+	protected static void applyOutputSettings(Document document) {
+		OutputSettings settings = new OutputSettings();
+		settings.escapeMode(EscapeMode.xhtml);
+		settings.prettyPrint(false);
+		settings.indentAmount(0);
+		settings.charset("UTF-8");
+		document.outputSettings(settings);
+	}
+
 	/**
 	 * Parse HTML document.
 	 *
@@ -101,6 +219,18 @@ public abstract class EbookScraper {
 	 */
 	public abstract int parseChapterNumber(Document document);
 
+	/**
+	 * Parse chapter revisions from the story index.
+	 * A revision changes whenever the chapter is published again or revised. Used to find updated chapters.
+	 *
+	 * @param document
+	 * @return revisions by chapter url, empty when the index provides none
+	 * @throws Exception
+	 */
+	public Map<String, String> parseChapterRevisions(Document document) throws Exception {
+		return Collections.emptyMap();
+	}
+
 	static String cleanChapterTitle(String title) {
 		title = title.replaceAll("&", "&amp;");
 		title = title.replaceAll("<", "&lt;");
@@ -108,6 +238,13 @@ public abstract class EbookScraper {
 		return title;
 	}
 
+	/**
+	 * Clean serialized chapter text with the regex chain the chapter sanitizer replaced.
+	 * Kept as the reference the sanitizer output is checked against.
+	 *
+	 * @param text outer html of the chapter elements
+	 * @return cleaned text
+	 */
 	static String cleanChapterText(String text) {
 		text = text.replaceAll("\u00a0", "");
 		text = text.replaceAll("<br>", "<br></br>");
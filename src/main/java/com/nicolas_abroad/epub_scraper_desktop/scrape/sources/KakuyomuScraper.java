@@ -1,25 +1,19 @@
 package com.nicolas_abroad.epub_scraper_desktop.scrape.sources;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import org.jsoup.Connection;
-import org.jsoup.Connection.Method;
-import org.jsoup.Connection.Response;
-import org.jsoup.Jsoup;
+import com.nicolas_abroad.epub_scraper_desktop.metrics.Metrics;
+import com.nicolas_abroad.epub_scraper_desktop.metrics.Phase;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.http.FetchedPage;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.sources.KakuyomuWork.Episode;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.sources.KakuyomuWork.TocEntry;
 import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Document.OutputSettings;
-import org.jsoup.nodes.Element;
-import org.jsoup.nodes.Entities.EscapeMode;
-import org.jsoup.select.Elements;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.regex.Pattern;
 
 /**
  * Ebook scraper for kakuyomu.jp
@@ -28,33 +22,40 @@ import java.util.Map;
  */
 public class KakuyomuScraper extends EbookScraper {
 
-	private static final String BASE_URL = "https://kakuyomu.jp";
-
 	// Chapter parsing
 	private static final String CHAPTER_TITLE_SELECTOR = ".widget-episodeTitle";
 	private static final String CHAPTER_TEXT_SELECTOR = "div#contentMain-inner";
 
 	// Json parsing
 	private static final String JSON_SELECTOR = "#__NEXT_DATA__";
+	private static final Pattern INDEX_URL_PATTERN = Pattern.compile("/works/[^/?#]+/?(?:[?#].*)?$");
+
+	/** Works parsed from index pages, released with their page. Documents are compared by identity. */
+	private final Map<Document, KakuyomuWork> works = new WeakHashMap<>();
 
 	// --------------------------------------
 	// General Parsing
 	// --------------------------------------
 
 	public Document parseHTMLDocument(String url) throws IOException {
-		Connection connection = Jsoup.connect(url).method(Method.GET);
-
 		// Get html source
-		Response response = connection.execute();
-		Document document = response.parse().normalise();
-
-		OutputSettings settings = new OutputSettings();
-		settings.escapeMode(EscapeMode.xhtml);
-		settings.prettyPrint(false);
-		settings.indentAmount(0);
-		settings.charset("UTF-8");
-		document.outputSettings(settings);
-		return document;
+		FetchedPage page = fetchPage(url);
+		if (INDEX_URL_PATTERN.matcher(url).find() && isUtf8(page)) {
+			// Index methods only read the work, so the page is not parsed as HTML
+			KakuyomuWork work = KakuyomuWork.parsePage(page.getBody());
+			if (work != null) {
+				Document document = Document.createShell(page.getUrl());
+				synchronized (works) {
+					works.put(document, work);
+				}
+				return document;
+			}
+		}
+		return parseChapterPage(page);
+	}
+
+	private boolean isUtf8(FetchedPage page) {
+		return page.getCharset() == null || page.getCharset().equalsIgnoreCase("UTF-8");
 	}
 
 	// --------------------------------------
@@ -62,57 +63,36 @@ public class KakuyomuScraper extends EbookScraper {
 	// --------------------------------------
 
 	public String parseAuthor(Document document) throws Exception {
-		JsonNode rootNode = parseJsonNode(document);
-		String workId = parseWordId(rootNode);
-		String authorReference = parseAuthorReference(rootNode, workId);
-		JsonNode dataNode = findDataNode(rootNode);
-		return dataNode.path(authorReference).path("activityName").asText();
+		return getWork(document).author();
 	}
 
 	public String parseStoryTitle(Document document) throws Exception {
-		JsonNode rootNode = parseJsonNode(document);
-		String workId = parseWordId(rootNode);
-		return findWorkNode(rootNode, workId).path("title").asText();
+		return getWork(document).title();
 	}
 
 	public boolean hasVolumes(Document document) throws Exception {
-		JsonNode rootNode = parseJsonNode(document);
-		String workId = parseWordId(rootNode);
-		JsonNode tocNode = findWorkNode(rootNode, workId).path("tableOfContents");
-		return tocNode.size() > 1; // a story without volumes has one empty node
+		return getWork(document).tableOfContents().size() > 1; // a story without volumes has one empty node
 	}
 
 	public List<String> parseVolumeTitles(Document document) throws Exception {
 		List<String> titles = new ArrayList<>();
-		JsonNode rootNode = parseJsonNode(document);
-		String workId = parseWordId(rootNode);
-
-		List<JsonNode> volumeNodes = findVolumeNodes(rootNode, workId);
-		if (volumeNodes.size() == 1) {
+		List<TocEntry> tocEntries = getWork(document).tableOfContents();
+		if (tocEntries.size() == 1) {
 			return titles; // a story without volumes has one empty node
 		}
 
-		JsonNode dataNode = findDataNode(rootNode);
-		for (int i = 0; i < volumeNodes.size(); i++) {
-			JsonNode volumeNode = volumeNodes.get(i);
-			String volumeTitle = parseVolumeTitle(dataNode, volumeNode);
-			if (volumeTitle == null) {
-				continue;
+		for (TocEntry tocEntry : tocEntries) {
+			if (tocEntry.volumeTitle()) {
+				titles.add(tocEntry.title());
 			}
-			titles.add(volumeTitle);
 		}
 		return titles;
 	}
 
 	public List<String> parseAllChapterUrls(Document document) throws Exception {
-		JsonNode rootNode = parseJsonNode(document);
-		String workId = parseWordId(rootNode);
-
-		List<JsonNode> volumeNodes = findVolumeNodes(rootNode, workId);
-		assert volumeNodes.size() == 1;
-		JsonNode volumeNode = volumeNodes.get(0);
-
-		return parseVolumeUrls(rootNode, workId, volumeNode);
+		List<TocEntry> tocEntries = getWork(document).tableOfContents();
+		assert tocEntries.size() == 1;
+		return parseVolumeUrls(tocEntries.get(0));
 	}
 
 	public Map<Integer, List<String>> parseChapterUrlsByVolume(Document document) throws Exception {
@@ -120,17 +100,13 @@ public class KakuyomuScraper extends EbookScraper {
 		List<String> urls = null;
 		List<String> subtitleUrls = new ArrayList<>();
 
-		JsonNode rootNode = parseJsonNode(document);
-		String workId = parseWordId(rootNode);
-		JsonNode dataNode = findDataNode(rootNode);
-
-		List<JsonNode> volumeNodes = findVolumeNodes(rootNode, workId);
-		for (int i = 0; i < volumeNodes.size(); i++) {
-			JsonNode volumeNode = volumeNodes.get(i);
+		List<TocEntry> tocEntries = getWork(document).tableOfContents();
+		for (int i = 0; i < tocEntries.size(); i++) {
+			TocEntry tocEntry = tocEntries.get(i);
 
-			boolean isVolumeTitleNode = isVolumeTitleNode(dataNode, volumeNode);
+			boolean isVolumeTitleNode = tocEntry.volumeTitle();
 
-			urls = parseVolumeUrls(rootNode, workId, volumeNode);
+			urls = parseVolumeUrls(tocEntry);
 			boolean hasVolumeUrls = !urls.isEmpty();
 
 			if (isVolumeTitleNode && hasVolumeUrls) {
@@ -154,91 +130,41 @@ public class KakuyomuScraper extends EbookScraper {
 		return volumes;
 	}
 
-	private JsonNode parseJsonNode(Document document) throws JsonMappingException, JsonProcessingException {
-		ObjectMapper jsonMapper = new ObjectMapper();
-		String json = document.selectFirst(JSON_SELECTOR).html();
-		JsonNode rootNode = jsonMapper.readTree(json);
-		return rootNode;
-	}
-
-	private String parseWordId(JsonNode rootNode) {
-		return rootNode.path("query").path("workId").asText();
-	}
-
-	private JsonNode findDataNode(JsonNode rootNode) {
-		return rootNode.path("props").path("pageProps").path("__APOLLO_STATE__");
-	}
-
-	private JsonNode findWorkNode(JsonNode rootNode, String workId) {
-		return findDataNode(rootNode).path("Work:" + workId);
-	}
-
-	private String parseAuthorReference(JsonNode rootNode, String workId) {
-		return findWorkNode(rootNode, workId).path("author").path("__ref").asText();
-	}
-
-	private List<JsonNode> findVolumeNodes(JsonNode rootNode, String workId) {
-		List<JsonNode> volumeNodes = new ArrayList<>();
-		JsonNode tocNode = findWorkNode(rootNode, workId).path("tableOfContents");
-		JsonNode dataNode = findDataNode(rootNode);
-		for (Iterator<JsonNode> iterator = tocNode.elements(); iterator.hasNext(); ) {
-			JsonNode node = iterator.next();
-			String volumeReference = node.path("__ref").asText();
-			JsonNode volumeNode = dataNode.path(volumeReference);
-			volumeNodes.add(volumeNode);
-		}
-		return volumeNodes;
-	}
-
-	private List<String> parseVolumeUrls(JsonNode rootNode, String workId, JsonNode volumeNode) {
-		List<String> urls = new ArrayList<>();
-		JsonNode chaptersNode = volumeNode.path("episodeUnions");
-		JsonNode dataNode = findDataNode(rootNode);
-		for (Iterator<JsonNode> iterator = chaptersNode.elements(); iterator.hasNext(); ) {
-			JsonNode node = iterator.next();
-			String chapterReference = node.path("__ref").asText();
-			String chapterId = dataNode.path(chapterReference).path("id").asText();
-			String url = generateChapterUrl(workId, chapterId);
-			urls.add(url);
+	public Map<String, String> parseChapterRevisions(Document document) throws Exception {
+		Map<String, String> revisions = new HashMap<>();
+		for (TocEntry tocEntry : getWork(document).tableOfContents()) {
+			for (Episode episode : tocEntry.episodes()) {
+				revisions.put(episode.url(), episode.revision());
+			}
 		}
-		return urls;
-	}
-
-	private String parseVolumeTitle(JsonNode dataNode, JsonNode volumeNode) {
-		JsonNode volumeTitleNode = findVolumeTitleNode(dataNode, volumeNode);
-		if (isVolumeTitleNode(dataNode, volumeNode)) {
-			String volumeTitle = volumeTitleNode.path("title").asText();
-			return volumeTitle;
+		return revisions;
+	}
+
+	/**
+	 * Get the work of an index page, parsed once per page.
+	 * Concurrent callers wait for the first one to parse the page rather than parsing it again.
+	 *
+	 * @param document index page
+	 * @return work
+	 * @throws IOException
+	 */
+	KakuyomuWork getWork(Document document) throws IOException {
+		synchronized (works) {
+			KakuyomuWork work = works.get(document);
+			if (work == null) {
+				work = KakuyomuWork.parse(document.selectFirst(JSON_SELECTOR).html());
+				works.put(document, work);
+			}
+			return work;
 		}
-		return null;
 	}
 
-	private JsonNode findVolumeTitleNode(JsonNode dataNode, JsonNode volumeNode) {
-		String volumeTitleReference = volumeNode.path("chapter").path("__ref").asText();
-		JsonNode volumeTitleNode = dataNode.path(volumeTitleReference);
-		return volumeTitleNode;
-	}
-
-	private boolean isVolumeTitleNode(JsonNode dataNode, JsonNode volumeNode) {
-		JsonNode volumeTitleNode = findVolumeTitleNode(dataNode, volumeNode);
-		int level = volumeTitleNode.path("level").asInt();
-		switch (level) {
-			case 1: // title
-				return true;
-			case 2: // subtitle
-			default:
-				return false;
+	private List<String> parseVolumeUrls(TocEntry tocEntry) {
+		List<String> urls = new ArrayList<>(tocEntry.episodes().size());
+		for (Episode episode : tocEntry.episodes()) {
+			urls.add(episode.url());
 		}
-	}
-
-	private String generateChapterUrl(String workId, String chapterId) {
-		StringBuilder sb = new StringBuilder();
-		sb.append(BASE_URL);
-		sb.append("/works/");
-		sb.append(workId);
-		sb.append("/episodes/");
-		sb.append(chapterId);
-		return sb.toString();
+		return urls;
 	}
 
 	// --------------------------------------
@@ -252,16 +178,11 @@ public class KakuyomuScraper extends EbookScraper {
 	}
 
 	public String parseChapterText(Document document) {
-		// Parse text
-		StringBuilder text = new StringBuilder();
-		Elements allElements = document.select(CHAPTER_TEXT_SELECTOR).first().children();
-		for (Element element : allElements) {
-			text.append(element.outerHtml());
-		}
-
-		// Clean text
-		String chapterText = text.toString();
-		chapterText = cleanChapterText(chapterText);
+		// Parse and clean text
+		long start = System.nanoTime();
+		String chapterText = ChapterSanitizer.sanitize(document.select(CHAPTER_TEXT_SELECTOR).first(),
+				element -> false);
+		Metrics.getSharedMetrics().record(Phase.SANITIZE, document.location(), start);
 		return chapterText;
 	}
 
@@ -0,0 +1,240 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.sources;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Kakuyomu work, resolved once from the Next.js data of its index page.
+ * The data is a flat map of entities referencing each other, every reference is resolved while parsing.
+ *
+ * @param id work id
+ * @param title story title
+ * @param author author activity name
+ * @param tableOfContents table of contents entries, in story order
+ * @author Nicolas
+ */
+record KakuyomuWork(String id, String title, String author, List<TocEntry> tableOfContents) {
+
+	private static final String BASE_URL = "https://kakuyomu.jp";
+
+	private static final JsonFactory jsonFactory = new JsonFactory();
+
+	// Next.js data script, as served
+	private static final String NEXT_DATA_MARKER = "id=\"__NEXT_DATA__\"";
+	private static final String SCRIPT_END = "</script>";
+	private static final String APOLLO_STATE = "__APOLLO_STATE__";
+
+	/** Entity types a work is resolved from, every other entity of the data is skipped */
+	private static final Set<String> ENTITY_TYPES = Set.of("Work:", "UserAccount:", "TableOfContentsChapter:",
+			"Chapter:", "Episode:");
+
+	/** Entity fields a work is resolved from, values of other fields are skipped without being decoded */
+	private static final Set<String> ENTITY_FIELDS = Set.of("workId", "title", "author", "activityName",
+			"tableOfContents", "chapter", "level", "episodeUnions", "id", "publishedAt");
+
+	/**
+	 * Table of contents entry: a run of episodes, optionally under a chapter title.
+	 * A story without volumes has a single entry without title.
+	 *
+	 * @param volumeTitle whether the entry starts a volume, only top level chapter titles do
+	 * @param title chapter title, null when volumeTitle is false
+	 * @param episodes episodes of the entry, in story order
+	 */
+	record TocEntry(boolean volumeTitle, String title, List<Episode> episodes) {
+	}
+
+	/**
+	 * Episode.
+	 *
+	 * @param url chapter url
+	 * @param revision publication date and title, changing whenever the episode is published again or renamed
+	 */
+	record Episode(String url, String revision) {
+	}
+
+	/**
+	 * Parse a work from the Next.js data of its index page.
+	 *
+	 * @param json content of the __NEXT_DATA__ script
+	 * @return work
+	 * @throws IOException
+	 */
+	static KakuyomuWork parse(String json) throws IOException {
+		try (JsonParser parser = jsonFactory.createParser(json)) {
+			return parse(parser);
+		}
+	}
+
+	/**
+	 * Parse a work from the raw bytes of its UTF-8 index page, without building the page DOM.
+	 * The __NEXT_DATA__ script is found by a byte scan and its content is streamed.
+	 *
+	 * @param page index page body
+	 * @return work, null when the page has no __NEXT_DATA__ script
+	 * @throws IOException
+	 */
+	static KakuyomuWork parsePage(byte[] page) throws IOException {
+		// Latin-1 maps every byte to one char, so string offsets are byte offsets
+		String latin1Page = new String(page, StandardCharsets.ISO_8859_1);
+		int marker = latin1Page.indexOf(NEXT_DATA_MARKER);
+		if (marker < 0) {
+			return null;
+		}
+		int start = latin1Page.indexOf('>', marker) + 1;
+		int end = start > 0 ? latin1Page.indexOf(SCRIPT_END, start) : -1;
+		if (end < 0) {
+			return null;
+		}
+		try (JsonParser parser = jsonFactory.createParser(page, start, end - start)) {
+			return parse(parser);
+		}
+	}
+
+	/**
+	 * Stream the Next.js data, keeping only the entities a work is resolved from.
+	 * Entities are read before the work id, which comes last, so they are resolved once the data is read.
+	 */
+	private static KakuyomuWork parse(JsonParser parser) throws IOException {
+		Map<String, Map<String, Object>> entities = new HashMap<>();
+		String workId = "";
+		parser.nextToken();
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.currentName();
+			parser.nextToken();
+			if (field.equals("props")) {
+				readProps(parser, entities);
+			} else if (field.equals("query")) {
+				workId = text(readEntity(parser), "workId");
+			} else {
+				parser.skipChildren();
+			}
+		}
+
+		Map<String, Object> workEntity = entity(entities, "Work:" + workId);
+		String author = text(entity(entities, text(workEntity, "author")), "activityName");
+
+		List<TocEntry> tableOfContents = new ArrayList<>();
+		for (String tocReference : references(workEntity, "tableOfContents")) {
+			Map<String, Object> tocEntity = entity(entities, tocReference);
+			Map<String, Object> chapterEntity = entity(entities, text(tocEntity, "chapter"));
+			// Level 1 chapters are volumes, level 2 chapters are subtitles within a volume
+			boolean volumeTitle = text(chapterEntity, "level").equals("1");
+			String title = volumeTitle ? text(chapterEntity, "title") : null;
+
+			List<Episode> episodes = new ArrayList<>();
+			for (String episodeReference : references(tocEntity, "episodeUnions")) {
+				Map<String, Object> episodeEntity = entity(entities, episodeReference);
+				String url = generateChapterUrl(workId, text(episodeEntity, "id"));
+				String revision = text(episodeEntity, "publishedAt") + " " + text(episodeEntity, "title");
+				episodes.add(new Episode(url, revision.trim()));
+			}
+			tableOfContents.add(new TocEntry(volumeTitle, title, List.copyOf(episodes)));
+		}
+		return new KakuyomuWork(workId, text(workEntity, "title"), author, List.copyOf(tableOfContents));
+	}
+
+	private static void readProps(JsonParser parser, Map<String, Map<String, Object>> entities) throws IOException {
+		if (parser.currentToken() != JsonToken.START_OBJECT) {
+			parser.skipChildren();
+			return;
+		}
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.currentName();
+			parser.nextToken();
+			if (field.equals("pageProps")) {
+				readProps(parser, entities);
+			} else if (field.equals(APOLLO_STATE) && parser.currentToken() == JsonToken.START_OBJECT) {
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String key = parser.currentName();
+					parser.nextToken();
+					if (ENTITY_TYPES.contains(key.substring(0, key.indexOf(':') + 1))) {
+						entities.put(key, readEntity(parser));
+					} else {
+						parser.skipChildren();
+					}
+				}
+			} else {
+				parser.skipChildren();
+			}
+		}
+	}
+
+	/**
+	 * Read the fields a work is resolved from of the current entity object, keeping scalar values as text and references as entity keys.
+	 * Arrays are kept as the list of references they hold, other nested objects are skipped.
+	 */
+	private static Map<String, Object> readEntity(JsonParser parser) throws IOException {
+		Map<String, Object> entity = new HashMap<>();
+		if (parser.currentToken() != JsonToken.START_OBJECT) {
+			parser.skipChildren();
+			return entity;
+		}
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.currentName();
+			JsonToken token = parser.nextToken();
+			if (!ENTITY_FIELDS.contains(field)) {
+				parser.skipChildren();
+			} else if (token == JsonToken.START_OBJECT) {
+				String reference = readReference(parser);
+				if (reference != null) {
+					entity.put(field, reference);
+				}
+			} else if (token == JsonToken.START_ARRAY) {
+				List<String> references = new ArrayList<>();
+				while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+					String reference = token == JsonToken.START_OBJECT ? readReference(parser) : null;
+					if (reference != null) {
+						references.add(reference);
+					}
+					parser.skipChildren();
+				}
+				entity.put(field, references);
+			} else {
+				entity.put(field, parser.getText());
+			}
+		}
+		return entity;
+	}
+
+	/** Read the current object, returning its __ref value, null when it is not a reference */
+	private static String readReference(JsonParser parser) throws IOException {
+		String reference = null;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.currentName();
+			JsonToken token = parser.nextToken();
+			if (field.equals("__ref") && token == JsonToken.VALUE_STRING) {
+				reference = parser.getText();
+			} else {
+				parser.skipChildren();
+			}
+		}
+		return reference;
+	}
+
+	private static Map<String, Object> entity(Map<String, Map<String, Object>> entities, String key) {
+		return entities.getOrDefault(key, Map.of());
+	}
+
+	private static String text(Map<String, Object> entity, String field) {
+		return entity.get(field) instanceof String value ? value : "";
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<String> references(Map<String, Object> entity, String field) {
+		return entity.get(field) instanceof List<?> references ? (List<String>) references : List.of();
+	}
+
+	private static String generateChapterUrl(String workId, String chapterId) {
+		return BASE_URL + "/works/" + workId + "/episodes/" + chapterId;
+	}
+
+}
@@ -1,20 +1,20 @@
 package com.nicolas_abroad.epub_scraper_desktop.scrape.sources;
 
+import com.nicolas_abroad.epub_scraper_desktop.metrics.Metrics;
+import com.nicolas_abroad.epub_scraper_desktop.metrics.Phase;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.http.FetchedPage;
 import org.apache.hc.core5.http.NameValuePair;
 import org.apache.hc.core5.net.URIBuilder;
 import org.apache.hc.core5.net.URLEncodedUtils;
-import org.jsoup.Connection;
-import org.jsoup.Connection.Method;
-import org.jsoup.Connection.Response;
-import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Document.OutputSettings;
 import org.jsoup.nodes.Element;
-import org.jsoup.nodes.Entities.EscapeMode;
 import org.jsoup.select.Elements;
 
+import java.io.IOException;
+import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -32,6 +32,9 @@ public class SyosetsuScraper extends EbookScraper {
 
 	private static final String BASE_URL = "https://ncode.syosetu.com";
 
+	// Age check, only found in the 18+ section
+	private static final String ADULT_HOST_PREFIX = "novel18.";
+
 	// Pagination parsing
 	private static final String PAGINATION_BAR = ".c-pager";
 	private static final String PAGINATION_LAST_PAGE = "a.c-pager__item--last";
@@ -49,57 +52,69 @@ public class SyosetsuScraper extends EbookScraper {
 	private static final String CHAPTER_TITLE_CONTAINER_SELECTOR_IN_CHAPTER_URL_CONTAINER = ".p-eplist__sublist";
 	private static final String CHAPTER_TITLE_SELECTOR_IN_CHAPTER_URL_CONTAINER = "a.p-eplist__subtitle";
 	private static final String VOLUME_TITLES_SELECTOR = ".p-novel > .p-eplist > .p-eplist__chapter-title";
+	private static final String CHAPTER_ENTRIES_SELECTOR = ".p-novel > .p-eplist > .p-eplist__sublist";
+	private static final String CHAPTER_UPDATE_SELECTOR_IN_CHAPTER_ENTRY = ".p-eplist__update";
+	private static final String CHAPTER_REVISION_SELECTOR_IN_CHAPTER_UPDATE = "span[title]";
 
 	// Chapter parsing
 	private static final String CHAPTER_TITLE_SELECTOR = ".p-novel .p-novel__title";
 	private static final String CHAPTER_TEXT_SELECTOR = ".p-novel";
 	private static final String CHAPTER_NUMBER = ".p-novel .p-novel__number";
 
-	private String sessionId;
+	private volatile String sessionId;
 
 	// --------------------------------------
 	// General Parsing
 	// --------------------------------------
 
 	public Document parseHTMLDocument(String url) throws Exception {
-		Connection connection = Jsoup.connect(url).method(Method.GET);
-		if (this.sessionId != null && !this.sessionId.isEmpty()) {
-			set18PlusCookies(connection);
+		Document document = fetchDocument(url);
+
+		// Merge all pages if main index page
+		if (!url.matches(SYSOSETSU_URL_MULTIPAGE_REGEX) && !url.matches(SYSOSETSU_URL_CHAPTER_REGEX)) {
+			Integer lastPageNumber = getLastPageNumber(document);
+			if (lastPageNumber != null) {
+				scrapeAllIndexes(document, lastPageNumber);
+			}
 		}
 
+		return document;
+	}
+
+	private Document fetchDocument(String url) throws IOException {
 		// Get html source
-		Response response = connection.execute();
-		Document document = response.parse().normalise();
+		FetchedPage page = fetchPage(url, generateCookies());
+		Document document = page.parse().normalise();
 
 		if (this.sessionId == null || this.sessionId.isEmpty()) {
 			boolean is18Plus = is18Plus(document);
 			if (is18Plus) {
 				// Get session id when target url is from the 18+ section
-				this.sessionId = response.cookie("ses");
+				this.sessionId = page.cookie("ses");
 				// Get html source again (with correct cookie data)
-				connection = Jsoup.connect(url).method(Method.GET);
-				set18PlusCookies(connection);
-				response = connection.execute();
-				document = response.parse().normalise();
+				page = fetchPage(url, generateCookies());
+				document = page.parse().normalise();
 			}
 		}
 
-		OutputSettings settings = new OutputSettings();
-		settings.escapeMode(EscapeMode.xhtml);
-		settings.prettyPrint(false);
-		settings.indentAmount(0);
-		settings.charset("UTF-8");
-		document.outputSettings(settings);
+		applyOutputSettings(document);
+		return document;
+	}
 
-		// Merge all pages if main index page
-		if (!url.matches(SYSOSETSU_URL_MULTIPAGE_REGEX) && !url.matches(SYSOSETSU_URL_CHAPTER_REGEX)) {
-			Integer lastPageNumber = getLastPageNumber(document);
-			if (lastPageNumber != null) {
-				scrapeAllIndexes(document, lastPageNumber);
-			}
+	@Override
+	public FetchedPage fetchChapterPage(String url) throws IOException {
+		FetchedPage page = fetchPage(url, generateCookies());
+		// Only the 18+ section has an age check, the page is parsed for it until a session is known
+		if ((this.sessionId == null || this.sessionId.isEmpty()) && isAdultSection(url) && is18Plus(page.parse())) {
+			this.sessionId = page.cookie("ses");
+			page = fetchPage(url, generateCookies());
 		}
+		return page;
+	}
 
-		return document;
+	private boolean isAdultSection(String url) {
+		String host = URI.create(url).getHost();
+		return host != null && host.startsWith(ADULT_HOST_PREFIX);
 	}
 
 	private boolean is18Plus(Document document) {
@@ -111,9 +126,14 @@ public class SyosetsuScraper extends EbookScraper {
 		}
 	}
 
-	private void set18PlusCookies(Connection connection) {
-		connection.cookie("ses", this.sessionId);
-		connection.cookie("over18", "yes");
+	private Map<String, String> generateCookies() {
+		if (this.sessionId == null || this.sessionId.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		Map<String, String> cookies = new HashMap<>();
+		cookies.put("ses", this.sessionId);
+		cookies.put("over18", "yes");
+		return cookies;
 	}
 
 	// --------------------------------------
@@ -175,6 +195,25 @@ public class SyosetsuScraper extends EbookScraper {
 		return volumes;
 	}
 
+	public Map<String, String> parseChapterRevisions(Document document) {
+		Map<String, String> revisions = new HashMap<>();
+		for (Element element : document.select(CHAPTER_ENTRIES_SELECTOR)) {
+			Element chapterUrlElement = element.selectFirst(CHAPTER_TITLE_SELECTOR_IN_CHAPTER_URL_CONTAINER);
+			Element updateElement = element.selectFirst(CHAPTER_UPDATE_SELECTOR_IN_CHAPTER_ENTRY);
+			if (chapterUrlElement == null || updateElement == null) {
+				continue;
+			}
+			// Publication date, followed by revision date when the chapter was revised
+			String revision = updateElement.ownText();
+			Element revisionElement = updateElement.selectFirst(CHAPTER_REVISION_SELECTOR_IN_CHAPTER_UPDATE);
+			if (revisionElement != null) {
+				revision += " " + revisionElement.attr("title");
+			}
+			revisions.put(parseChapterUrl(chapterUrlElement), revision.trim());
+		}
+		return revisions;
+	}
+
 	private String parseChapterUrl(Element element) {
 		return BASE_URL + element.attr("href");
 	}
@@ -194,17 +233,23 @@ public class SyosetsuScraper extends EbookScraper {
 	}
 
 	private void scrapeAllIndexes(Document document, Integer lastPageNumber) throws Exception {
+		// Build urls with page number as parameter
+		List<String> pageUrls = new ArrayList<>();
 		for (int i = 2; i <= lastPageNumber; i++) {
-			// Build url with page number as parameter
 			URIBuilder uriBuilder = new URIBuilder(document.location());
 			uriBuilder.addParameter("p", Integer.toString(i));
+			pageUrls.add(uriBuilder.build().toString());
+		}
 
-			// Scrape index entries
-			Document page = parseHTMLDocument(uriBuilder.build().toString());
-			Elements indexEntries = page.selectFirst(CHAPTER_URLS_CONTAINER).children();
+		// Scrape index pages within the limits of the run, reusing the session of the first page
+		List<Elements> pagesIndexEntries = fetchAll(pageUrls, pageUrl -> {
+			Document page = fetchPage(pageUrl, generateCookies()).parse().normalise();
+			return page.selectFirst(CHAPTER_URLS_CONTAINER).children();
+		});
 
-			// Append index entries to original document
-			Element indexElement = document.selectFirst(CHAPTER_URLS_CONTAINER);
+		// Append index entries to original document, in page order
+		Element indexElement = document.selectFirst(CHAPTER_URLS_CONTAINER);
+		for (Elements indexEntries : pagesIndexEntries) {
 			indexElement.insertChildren(-1, indexEntries);
 		}
 	}
@@ -220,21 +265,11 @@ public class SyosetsuScraper extends EbookScraper {
 	}
 
 	public String parseChapterText(Document document) {
-		// Parse text
-		StringBuilder text = new StringBuilder();
-		Elements allElements = document.select(CHAPTER_TEXT_SELECTOR).first().children();
-		for (Element element : allElements) {
-			// Remove advertising
-			if (element.className().contains("ad") || element.className().contains("koukoku")) {
-				continue;
-			}
-
-			text.append(element.outerHtml());
-		}
-
-		// Clean text
-		String chapterText = text.toString();
-		chapterText = cleanChapterText(chapterText);
+		// Parse and clean text, leaving advertising out
+		long start = System.nanoTime();
+		String chapterText = ChapterSanitizer.sanitize(document.select(CHAPTER_TEXT_SELECTOR).first(),
+				element -> element.className().contains("ad") || element.className().contains("koukoku"));
+		Metrics.getSharedMetrics().record(Phase.SANITIZE, document.location(), start);
 		return chapterText;
 	}
 
@@ -0,0 +1,277 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.sync;
+
+import com.nicolas_abroad.epub_scraper_desktop.ebook.Chapter;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the chapters scraped for a volume.
+ * Every chapter is appended as soon as it is parsed, so an interrupted scrape resumes
+ * from the journal and only fetches missing chapters.
+ * Only record offsets are kept in memory, chapters are read back from disk when needed.
+ * Each record is length-prefixed and checksummed; a torn record left by a crash is truncated on open.
+ * Writes are forced to disk in batches rather than one by one.
+ *
+ * @author Nicolas
+ */
+public class ChapterJournal implements Closeable {
+
+	private static final String FILE_EXTENSION = ".journal";
+
+	/** Maximum number of records appended before forcing them to disk */
+	static final int SYNC_BATCH_SIZE = 16;
+
+	/** Maximum delay before forcing appended records to disk */
+	private static final long SYNC_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	/** Size of the record header: payload length and CRC-32 */
+	private static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+	private final Path path;
+
+	private final FileChannel channel;
+
+	/** Offsets of recovered and appended records, by chapter url */
+	private final Map<String, Long> recordOffsets = new LinkedHashMap<>();
+
+	private int pendingRecords;
+
+	private long lastSyncNanos = System.nanoTime();
+
+	private ChapterJournal(Path path, FileChannel channel) {
+		this.path = path;
+		this.channel = channel;
+	}
+
+	/**
+	 * Get journal path of a volume.
+	 *
+	 * @param outputDirectory directory containing the story ebooks
+	 * @param volumeTitle
+	 * @return journal path
+	 */
+	public static Path getPath(Path outputDirectory, String volumeTitle) {
+		return outputDirectory.resolve("." + volumeTitle + FILE_EXTENSION);
+	}
+
+	/**
+	 * Open a journal, recovering the chapters it already contains.
+	 *
+	 * @param path journal path, created when missing
+	 * @return opened journal
+	 * @throws IOException
+	 */
+	public static ChapterJournal open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		ChapterJournal journal = new ChapterJournal(path, channel);
+		try {
+			long validLength = journal.recover();
+			// Drop a record torn by a crash
+			channel.truncate(validLength);
+			channel.position(validLength);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return journal;
+	}
+
+	/**
+	 * Get urls of the chapters recovered from disk or appended since opening.
+	 *
+	 * @return chapter urls, in journal order
+	 */
+	public synchronized Set<String> getChapterUrls() {
+		return Collections.unmodifiableSet(new LinkedHashSet<>(recordOffsets.keySet()));
+	}
+
+	/**
+	 * Read a chapter from disk.
+	 *
+	 * @param url chapter url
+	 * @return chapter, null when not in the journal
+	 * @throws IOException
+	 */
+	public synchronized Chapter read(String url) throws IOException {
+		Long offset = recordOffsets.get(url);
+		if (offset == null) {
+			return null;
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		readFully(header, offset);
+		header.flip();
+		ByteBuffer payload = ByteBuffer.allocate(header.getInt());
+		readFully(payload, offset + HEADER_SIZE);
+		return decode(payload.array());
+	}
+
+	/**
+	 * Append a scraped chapter.
+	 *
+	 * @param chapter
+	 * @throws IOException
+	 */
+	public synchronized void append(Chapter chapter) throws IOException {
+		byte[] payload = encode(chapter);
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+		buffer.putInt(payload.length);
+		buffer.putInt((int) crc.getValue());
+		buffer.put(payload);
+		buffer.flip();
+		long offset = channel.position();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		recordOffsets.put(chapter.getUrl(), offset);
+
+		pendingRecords++;
+		if (pendingRecords >= SYNC_BATCH_SIZE || System.nanoTime() - lastSyncNanos >= SYNC_INTERVAL_NANOS) {
+			sync();
+		}
+	}
+
+	/**
+	 * Force appended records to disk.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void sync() throws IOException {
+		if (pendingRecords > 0) {
+			channel.force(false);
+			pendingRecords = 0;
+		}
+		lastSyncNanos = System.nanoTime();
+	}
+
+	/**
+	 * Close and delete the journal, once its volume was generated.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void delete() throws IOException {
+		channel.close();
+		Files.deleteIfExists(path);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (channel.isOpen()) {
+			sync();
+			channel.close();
+		}
+	}
+
+	/**
+	 * Read all valid records.
+	 *
+	 * @return length of the valid part of the journal
+	 * @throws IOException
+	 */
+	private long recover() throws IOException {
+		long validLength = 0;
+		long size = channel.size();
+		// The stream is left open, closing it would close the channel
+		InputStream channelStream = Channels.newInputStream(channel);
+		DataInputStream inputStream = new DataInputStream(new BufferedInputStream(channelStream));
+		while (validLength + HEADER_SIZE <= size) {
+			int length = inputStream.readInt();
+			int checksum = inputStream.readInt();
+			if (length < 0 || validLength + HEADER_SIZE + length > size) {
+				break;
+			}
+			byte[] payload = new byte[length];
+			inputStream.readFully(payload);
+			CRC32 crc = new CRC32();
+			crc.update(payload);
+			if ((int) crc.getValue() != checksum) {
+				break;
+			}
+			Chapter chapter = decode(payload);
+			recordOffsets.put(chapter.getUrl(), validLength);
+			validLength += HEADER_SIZE + length;
+		}
+		return validLength;
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		// Positional reads leave the append position untouched
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, position + buffer.position());
+			if (read < 0) {
+				throw new EOFException("Truncated journal record at offset " + position);
+			}
+		}
+	}
+
+	private static byte[] encode(Chapter chapter) throws IOException {
+		ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+		try (DataOutputStream outputStream = new DataOutputStream(byteStream)) {
+			writeString(outputStream, chapter.getUrl());
+			outputStream.writeInt(chapter.getChapterNumber());
+			writeString(outputStream, chapter.getTitle());
+			writeString(outputStream, chapter.getText());
+		}
+		return byteStream.toByteArray();
+	}
+
+	private static Chapter decode(byte[] payload) throws IOException {
+		try (DataInputStream inputStream = new DataInputStream(new ByteArrayInputStream(payload))) {
+			Chapter chapter = new Chapter();
+			chapter.setUrl(readString(inputStream));
+			chapter.setChapterNumber(inputStream.readInt());
+			chapter.setTitle(readString(inputStream));
+			chapter.setText(readString(inputStream));
+			return chapter;
+		}
+	}
+
+	private static void writeString(DataOutputStream outputStream, String value) throws IOException {
+		// Chapter text may exceed the 64KB limit of writeUTF
+		if (value == null) {
+			outputStream.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		outputStream.writeInt(bytes.length);
+		outputStream.write(bytes);
+	}
+
+	private static String readString(DataInputStream inputStream) throws IOException {
+		int length = inputStream.readInt();
+		if (length == -1) {
+			return null;
+		} else if (length < 0) {
+			throw new EOFException("Invalid string length: " + length);
+		}
+		byte[] bytes = new byte[length];
+		inputStream.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
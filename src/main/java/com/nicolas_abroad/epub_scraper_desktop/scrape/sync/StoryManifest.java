@@ -0,0 +1,200 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.sync;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nicolas_abroad.epub_scraper_desktop.ebook.Chapter;
+import com.nicolas_abroad.epub_scraper_desktop.ebook.Volume;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Manifest of the last build of a story.
+ * Records the chapter urls, revisions and content hashes of every built volume,
+ * so that later runs only fetch new or revised chapters and only rebuild affected volumes.
+ *
+ * @author Nicolas
+ */
+@Data
+@NoArgsConstructor
+public class StoryManifest {
+
+	private static final String FILE_EXTENSION = ".manifest.json";
+
+	private static final ObjectMapper jsonMapper = new ObjectMapper()
+			.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+	/** Story index url */
+	private String url;
+
+	/** Built volumes, by volume title */
+	private Map<String, VolumeRecord> volumes = new LinkedHashMap<>();
+
+	/** Record of a built volume */
+	@Data
+	@NoArgsConstructor
+	public static class VolumeRecord {
+		/** Chapters, in volume order */
+		private List<ChapterRecord> chapters = new ArrayList<>();
+	}
+
+	/** Record of a built chapter */
+	@Data
+	@NoArgsConstructor
+	public static class ChapterRecord {
+		/** Chapter url */
+		private String url;
+		/** Revision parsed from the story index, null when the index has none */
+		private String revision;
+		/** SHA-256 of the chapter title and text */
+		private String hash;
+	}
+
+	/**
+	 * Get manifest path of a story.
+	 *
+	 * @param outputDirectory directory containing the story ebooks
+	 * @param url story index url
+	 * @return manifest path
+	 */
+	public static Path getPath(Path outputDirectory, String url) {
+		String path = URI.create(url).getPath();
+		String storyKey = path.replaceAll("^/+|/+$", "").replace('/', '_');
+		return outputDirectory.resolve("." + storyKey + FILE_EXTENSION);
+	}
+
+	/**
+	 * Load manifest of a story.
+	 *
+	 * @param outputDirectory directory containing the story ebooks
+	 * @param url story index url
+	 * @return stored manifest, or an empty manifest if the story was never built
+	 * @throws IOException
+	 */
+	public static StoryManifest load(Path outputDirectory, String url) throws IOException {
+		Path path = getPath(outputDirectory, url);
+		if (!Files.exists(path)) {
+			StoryManifest manifest = new StoryManifest();
+			manifest.setUrl(url);
+			return manifest;
+		}
+		return jsonMapper.readValue(path.toFile(), StoryManifest.class);
+	}
+
+	/**
+	 * Save manifest.
+	 *
+	 * @param outputDirectory directory containing the story ebooks
+	 * @throws IOException
+	 */
+	public void save(Path outputDirectory) throws IOException {
+		Path path = getPath(outputDirectory, url);
+		Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+		jsonMapper.writeValue(temporaryPath.toFile(), this);
+		Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Check if a volume is unchanged since its last build, based on the story index only.
+	 * A volume is unchanged when its chapter urls are the same, and every chapter has the same known revision.
+	 *
+	 * @param volume volume with chapter urls
+	 * @param revisions chapter revisions parsed from the story index, by url
+	 * @return true when the volume does not need to be fetched again
+	 */
+	public boolean isUnchanged(Volume volume, Map<String, String> revisions) {
+		VolumeRecord record = volumes.get(volume.getTitle());
+		if (record == null || record.getChapters().size() != volume.getChapterUrls().size()) {
+			return false;
+		}
+		for (int i = 0; i < record.getChapters().size(); i++) {
+			ChapterRecord chapterRecord = record.getChapters().get(i);
+			String url = volume.getChapterUrls().get(i);
+			if (!isUnchanged(chapterRecord, url, revisions)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Find chapters of a volume that were not revised since the last build.
+	 *
+	 * @param volume volume with chapter urls
+	 * @param revisions chapter revisions parsed from the story index, by url
+	 * @return urls of unchanged chapters
+	 */
+	public Set<String> findUnchangedChapterUrls(Volume volume, Map<String, String> revisions) {
+		Set<String> volumeUrls = new HashSet<>(volume.getChapterUrls());
+		Set<String> unchangedUrls = new HashSet<>();
+		// Chapters may have moved from another volume
+		for (VolumeRecord record : volumes.values()) {
+			for (ChapterRecord chapterRecord : record.getChapters()) {
+				if (volumeUrls.contains(chapterRecord.getUrl())
+						&& isUnchanged(chapterRecord, chapterRecord.getUrl(), revisions)) {
+					unchangedUrls.add(chapterRecord.getUrl());
+				}
+			}
+		}
+		return unchangedUrls;
+	}
+
+	/**
+	 * Check if the fetched chapters of a volume have the same content as the last build.
+	 *
+	 * @param volume volume with fetched chapters
+	 * @return true when the built ebook is still up to date
+	 */
+	public boolean hasSameContent(Volume volume) {
+		VolumeRecord record = volumes.get(volume.getTitle());
+		if (record == null || record.getChapters().size() != volume.getChapters().size()) {
+			return false;
+		}
+		for (int i = 0; i < record.getChapters().size(); i++) {
+			ChapterRecord chapterRecord = record.getChapters().get(i);
+			Chapter chapter = volume.getChapters().get(i);
+			if (!chapterRecord.getUrl().equals(chapter.getUrl()) || !chapterRecord.getHash().equals(chapter.getContentHash())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Record a built volume.
+	 *
+	 * @param volume volume with fetched chapters
+	 * @param revisions chapter revisions parsed from the story index, by url
+	 */
+	public void record(Volume volume, Map<String, String> revisions) {
+		VolumeRecord record = new VolumeRecord();
+		for (Chapter chapter : volume.getChapters()) {
+			ChapterRecord chapterRecord = new ChapterRecord();
+			chapterRecord.setUrl(chapter.getUrl());
+			chapterRecord.setRevision(revisions.get(chapter.getUrl()));
+			chapterRecord.setHash(chapter.getContentHash());
+			record.getChapters().add(chapterRecord);
+		}
+		volumes.put(volume.getTitle(), record);
+	}
+
+	private static boolean isUnchanged(ChapterRecord chapterRecord, String url, Map<String, String> revisions) {
+		String revision = revisions.get(url);
+		// Without revision, there is no way to know if the chapter changed
+		return revision != null && chapterRecord.getUrl().equals(url)
+				&& Objects.equals(chapterRecord.getRevision(), revision);
+	}
+
+}
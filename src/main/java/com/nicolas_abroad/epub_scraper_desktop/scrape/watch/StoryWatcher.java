@@ -0,0 +1,245 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.watch;
+
+import com.nicolas_abroad.epub_scraper_desktop.ebook.Story;
+import com.nicolas_abroad.epub_scraper_desktop.ebook.Volume;
+import com.nicolas_abroad.epub_scraper_desktop.input.InputParser;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.FetchEngine;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.ScrapeExecutor;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.ScrapeOptions;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.ScrapeProgress;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.batch.BatchJob;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.batch.BatchScheduler;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.sources.EbookScraper;
+import com.nicolas_abroad.epub_scraper_desktop.user_interface.MessageEnum;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Story watcher, polling the indexes of followed stories and rebuilding the volumes with new or revised chapters.
+ * A single scheduler thread spreads polls over the poll interval with some jitter, so hosts are not polled all at once.
+ * Polls run on virtual threads, bounded by the global and per-host story limits.
+ * Index pages are fetched with conditional requests, answered from the page cache when not modified.
+ * The page cache and metrics shared by all rebuilds are saved by the scheduler thread at a fixed interval.
+ *
+ * @author Nicolas
+ */
+public class StoryWatcher implements AutoCloseable {
+
+	/** Default interval between two polls of a story, in minutes */
+	public static final int DEFAULT_POLL_INTERVAL_MINUTES = 60;
+
+	/** Maximum deviation from the poll interval, as a fraction of the interval */
+	private static final double POLL_JITTER = 0.1;
+
+	/** Interval between two saves of the state shared by all rebuilds */
+	private static final Duration SAVE_INTERVAL = Duration.ofMinutes(5);
+
+	private final ScheduledExecutorService pollScheduler;
+
+	private final BatchScheduler storyScheduler;
+
+	private final Duration pollInterval;
+
+	private final Poller poller;
+
+	private final BatchScheduler.JobTask rebuilder;
+
+	/** Threads of the polls being run, interrupted on close */
+	private final Set<Thread> runningPolls = ConcurrentHashMap.newKeySet();
+
+	/** Fetch engine shared by all rebuilds, closed with the watcher */
+	private final FetchEngine fetchEngine;
+
+	/** Task saving the state shared by all rebuilds, run periodically and once closed */
+	private final Runnable saveTask;
+
+	/** Task fetching the volume fingerprints of a story */
+	@FunctionalInterface
+	public interface Poller {
+		/**
+		 * Poll the index of a story.
+		 *
+		 * @param story followed story and volumes
+		 * @return volume index fingerprints, by volume number
+		 * @throws Exception
+		 */
+		Map<Integer, Long> poll(BatchJob story) throws Exception;
+	}
+
+	/**
+	 * Create a new story watcher.
+	 *
+	 * @param pollInterval interval between two polls of a story
+	 * @param storyScheduler scheduler bounding polls and rebuilds
+	 * @param poller task fetching the volume fingerprints of a story
+	 * @param rebuilder task rebuilding the changed volumes of a story
+	 */
+	public StoryWatcher(Duration pollInterval, BatchScheduler storyScheduler, Poller poller,
+			BatchScheduler.JobTask rebuilder) {
+		this(pollInterval, storyScheduler, poller, rebuilder, null, null);
+	}
+
+	private StoryWatcher(Duration pollInterval, BatchScheduler storyScheduler, Poller poller,
+			BatchScheduler.JobTask rebuilder, FetchEngine fetchEngine, Runnable saveTask) {
+		if (pollInterval.isNegative() || pollInterval.isZero()) {
+			throw new IllegalArgumentException("Poll interval must be positive");
+		}
+		this.pollInterval = pollInterval;
+		this.storyScheduler = storyScheduler;
+		this.poller = poller;
+		this.rebuilder = rebuilder;
+		this.fetchEngine = fetchEngine;
+		this.saveTask = saveTask;
+		ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1,
+				task -> new Thread(task, "story-watcher"));
+		scheduler.setRemoveOnCancelPolicy(true);
+		if (saveTask != null) {
+			scheduler.scheduleWithFixedDelay(saveTask, SAVE_INTERVAL.toMillis(), SAVE_INTERVAL.toMillis(),
+					TimeUnit.MILLISECONDS);
+		}
+		this.pollScheduler = scheduler;
+	}
+
+	/**
+	 * Create a new story watcher scraping stories with the scrape executor.
+	 * Changed volumes are rebuilt in sync mode, so only their new or revised chapters are fetched.
+	 * The shared transport is configured once, the page cache and metrics are saved periodically and once closed.
+	 *
+	 * @param pollInterval interval between two polls of a story
+	 * @param options scrape options, in sync mode
+	 * @return story watcher
+	 * @throws IOException when the page cache can not be opened
+	 */
+	public static StoryWatcher forScraping(Duration pollInterval, ScrapeOptions options) throws IOException {
+		// Existing ebooks are only rebuilt in sync mode
+		if (!options.isSync()) {
+			throw new IllegalArgumentException("Stories can only be watched in sync mode");
+		}
+		// Rebuilds share the transport, configured once
+		ScrapeExecutor.configureSharedTransport(options);
+		FetchEngine fetchEngine = new FetchEngine(options);
+		BatchScheduler.JobTask rebuilder = job -> ScrapeExecutor.executeScraping(job.url(), job.targetVolumeNumbers(),
+				options, fetchEngine, new ScrapeProgress());
+		BatchScheduler storyScheduler = new BatchScheduler(options.getMaxConcurrentStories(),
+				options.getMaxStoriesPerHost());
+		return new StoryWatcher(pollInterval, storyScheduler, story -> fetchVolumeFingerprints(story, fetchEngine),
+				rebuilder, fetchEngine, () -> ScrapeExecutor.saveSharedState(options));
+	}
+
+	/**
+	 * Fetch the volume fingerprints of a story from its index.
+	 *
+	 * @param story followed story and volumes
+	 * @param fetchEngine fetch engine index pages are fetched with
+	 * @return volume index fingerprints, by volume number
+	 * @throws Exception
+	 */
+	public static Map<Integer, Long> fetchVolumeFingerprints(BatchJob story, FetchEngine fetchEngine)
+			throws Exception {
+		EbookScraper scraper = InputParser.createScraper(story.url());
+		scraper.setFetchEngine(fetchEngine);
+		Story index = new Story(scraper, story.url());
+		List<Volume> volumes = index.parseVolumeInfo(story.targetVolumeNumbers());
+		Map<Integer, Long> fingerprints = new HashMap<>();
+		for (Volume volume : volumes) {
+			fingerprints.put(Integer.parseInt(volume.getVolumeNumber()),
+					Subscription.fingerprint(volume, index.getChapterRevisions()));
+		}
+		return fingerprints;
+	}
+
+	/**
+	 * Start following stories.
+	 * First polls are spread over the poll interval.
+	 *
+	 * @param subscriptions
+	 */
+	public void watch(List<Subscription> subscriptions) {
+		for (Subscription subscription : subscriptions) {
+			long initialDelay = ThreadLocalRandom.current().nextLong(pollInterval.toMillis());
+			pollScheduler.schedule(() -> startPoll(subscription), initialDelay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void startPoll(Subscription subscription) {
+		Thread.ofVirtual().name("poll-" + subscription.getStory().url()).start(() -> {
+			runningPolls.add(Thread.currentThread());
+			try {
+				poll(subscription);
+			} catch (InterruptedException e) {
+				return;
+			} finally {
+				runningPolls.remove(Thread.currentThread());
+			}
+			if (!pollScheduler.isShutdown()) {
+				pollScheduler.schedule(() -> startPoll(subscription), nextPollDelay(), TimeUnit.MILLISECONDS);
+			}
+		});
+	}
+
+	/**
+	 * Poll a story, and rebuild its changed volumes.
+	 * Fingerprints are only recorded once rebuilt, so a failed rebuild is attempted again on the next poll.
+	 *
+	 * @param subscription
+	 * @return numbers of rebuilt volumes
+	 * @throws InterruptedException
+	 */
+	Set<Integer> poll(Subscription subscription) throws InterruptedException {
+		BatchJob story = subscription.getStory();
+		Set<Integer> rebuiltVolumes = new TreeSet<>();
+		try {
+			storyScheduler.runJob(story, job -> {
+				Map<Integer, Long> fingerprints = poller.poll(job);
+				Set<Integer> changedVolumes = subscription.findChangedVolumes(fingerprints);
+				if (changedVolumes.isEmpty()) {
+					return true;
+				}
+				System.out.println(String.format(MessageEnum.WATCH_CHANGES_FOUND.getMessage(), job.url(), changedVolumes));
+				boolean isRebuilt = rebuilder.run(new BatchJob(job.url(), changedVolumes));
+				if (isRebuilt) {
+					subscription.update(fingerprints, changedVolumes);
+					rebuiltVolumes.addAll(changedVolumes);
+				} else {
+					System.out.println(String.format(MessageEnum.BATCH_JOB_FAILED.getMessage(), job.url()));
+				}
+				return isRebuilt;
+			});
+		} catch (InterruptedException e) {
+			throw e;
+		} catch (Exception e) {
+			System.out.println(String.format(MessageEnum.WATCH_POLL_FAILED.getMessage(), story.url(), e));
+		}
+		return rebuiltVolumes;
+	}
+
+	private long nextPollDelay() {
+		double jitter = (ThreadLocalRandom.current().nextDouble() * 2 - 1) * POLL_JITTER;
+		return Math.round(pollInterval.toMillis() * (1 + jitter));
+	}
+
+	/** Stop polling, interrupting running polls and rebuilds */
+	@Override
+	public void close() {
+		pollScheduler.shutdownNow();
+		runningPolls.forEach(Thread::interrupt);
+		if (fetchEngine != null) {
+			fetchEngine.close();
+		}
+		if (saveTask != null) {
+			saveTask.run();
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.watch;
+
+import com.nicolas_abroad.epub_scraper_desktop.ebook.Volume;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.batch.BatchJob;
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Story followed by the story watcher.
+ * Only a fingerprint of each volume index is kept, so thousands of stories can be followed from one process.
+ *
+ * @author Nicolas
+ */
+public class Subscription {
+
+	/** Followed story and volumes */
+	@Getter
+	private final BatchJob story;
+
+	/** Fingerprints of the volume indexes, by volume number, empty until the story was first polled */
+	private Map<Integer, Long> volumeFingerprints = Map.of();
+
+	/**
+	 * Create a new subscription.
+	 *
+	 * @param story followed story and volumes
+	 */
+	public Subscription(BatchJob story) {
+		this.story = story;
+	}
+
+	/**
+	 * Compute the fingerprint of a volume index, covering its chapter urls and their revisions.
+	 *
+	 * @param volume
+	 * @param revisions chapter revisions, by chapter url
+	 * @return fingerprint
+	 */
+	public static long fingerprint(Volume volume, Map<String, String> revisions) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for (String url : volume.getChapterUrls()) {
+				digest.update(url.getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) 0);
+				digest.update(Objects.toString(revisions.get(url), "").getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) 0);
+			}
+			return ByteBuffer.wrap(digest.digest()).getLong();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Find volumes whose index changed since the last successful rebuild.
+	 * Every volume is changed until the story was first polled.
+	 *
+	 * @param fingerprints current fingerprints, by volume number
+	 * @return numbers of new or changed volumes, in order
+	 */
+	public synchronized Set<Integer> findChangedVolumes(Map<Integer, Long> fingerprints) {
+		Set<Integer> changedVolumes = new TreeSet<>();
+		fingerprints.forEach((volumeNumber, fingerprint) -> {
+			if (!fingerprint.equals(volumeFingerprints.get(volumeNumber))) {
+				changedVolumes.add(volumeNumber);
+			}
+		});
+		return changedVolumes;
+	}
+
+	/**
+	 * Record the fingerprints of rebuilt volumes.
+	 *
+	 * @param fingerprints current fingerprints, by volume number
+	 * @param rebuiltVolumes numbers of the rebuilt volumes
+	 */
+	public synchronized void update(Map<Integer, Long> fingerprints, Set<Integer> rebuiltVolumes) {
+		Map<Integer, Long> updatedFingerprints = new HashMap<>(volumeFingerprints);
+		for (Integer volumeNumber : rebuiltVolumes) {
+			updatedFingerprints.put(volumeNumber, fingerprints.get(volumeNumber));
+		}
+		this.volumeFingerprints = Map.copyOf(updatedFingerprints);
+	}
+
+}
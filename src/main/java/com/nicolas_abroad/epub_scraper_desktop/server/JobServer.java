@@ -0,0 +1,405 @@
+package com.nicolas_abroad.epub_scraper_desktop.server;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nicolas_abroad.epub_scraper_desktop.metrics.Metrics;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.FetchEngine;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.ScrapeExecutor;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.ScrapeOptions;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.batch.BatchJob;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local job server, scraping stories submitted through an HTTP API.
+ * Jobs wait in a bounded queue for a worker, and are rejected when the queue is full.
+ * Connection pools, caches and fetch limits are shared by all jobs, and stay warm between them.
+ * <ul>
+ * <li>POST /jobs with {"url": "...", "volumes": "1,3-4"} submits a job, all volumes are scraped when omitted</li>
+ * <li>GET /jobs lists all jobs, GET /jobs/{id} gets the status and progress of a job</li>
+ * <li>DELETE /jobs/{id} cancels a job</li>
+ * <li>GET /jobs/{id}/download?file=... downloads an ebook of a job, the file may be omitted for single volume jobs</li>
+ * <li>GET /metrics exports the metrics of all jobs in the Prometheus text format</li>
+ * </ul>
+ *
+ * @author Nicolas
+ */
+public final class JobServer implements AutoCloseable {
+
+	/** Default listening port */
+	public static final int DEFAULT_PORT = 8765;
+
+	/** Default maximum number of jobs waiting for a worker */
+	public static final int DEFAULT_QUEUE_CAPACITY = 32;
+
+	/** Number of finished jobs whose status is kept */
+	private static final int MAX_FINISHED_JOBS = 256;
+
+	private static final String JOBS_PATH = "/jobs";
+
+	private static final String DOWNLOAD_PATH = "download";
+
+	private static final String METRICS_PATH = "/metrics";
+
+	private static final String EPUB_CONTENT_TYPE = "application/epub+zip";
+
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+	private final HttpServer httpServer;
+
+	private final ExecutorService requestExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+	private final ThreadPoolExecutor jobExecutor;
+
+	private final JobRunner runner;
+
+	/** Fetch engine shared by all jobs, closed with the server */
+	private final FetchEngine fetchEngine;
+
+	/** Task saving the state shared by all jobs once the server is closed */
+	private final Runnable closeTask;
+
+	/** Jobs by id, in submission order */
+	private final Map<String, ScrapeJob> jobs = new LinkedHashMap<>();
+
+	private final AtomicLong lastJobId = new AtomicLong();
+
+	private final CountDownLatch terminated = new CountDownLatch(1);
+
+	/** Task scraping the story of a job */
+	@FunctionalInterface
+	public interface JobRunner {
+		/**
+		 * Scrape the story of a job, updating its progress.
+		 *
+		 * @param job
+		 * @return whether the story was scraped successfully
+		 * @throws Exception
+		 */
+		boolean run(ScrapeJob job) throws Exception;
+	}
+
+	/** Submitted job request */
+	private record SubmitRequest(String url, String volumes) {
+	}
+
+	/** Error response */
+	private record ErrorResponse(String error) {
+	}
+
+	/**
+	 * Create a new job server listening on the loopback address.
+	 *
+	 * @param port listening port, 0 for any free port
+	 * @param workers number of jobs running at the same time
+	 * @param queueCapacity maximum number of jobs waiting for a worker
+	 * @param runner task scraping the story of a job
+	 * @throws IOException
+	 */
+	public JobServer(int port, int workers, int queueCapacity, JobRunner runner) throws IOException {
+		this(port, workers, queueCapacity, runner, null, null);
+	}
+
+	private JobServer(int port, int workers, int queueCapacity, JobRunner runner, FetchEngine fetchEngine,
+			Runnable closeTask) throws IOException {
+		if (workers < 1 || queueCapacity < 1) {
+			throw new IllegalArgumentException("Workers and queue capacity must be positive");
+		}
+		this.runner = runner;
+		this.fetchEngine = fetchEngine;
+		this.closeTask = closeTask;
+		AtomicInteger workerCount = new AtomicInteger();
+		this.jobExecutor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueCapacity),
+				task -> new Thread(task, "scrape-job-" + workerCount.incrementAndGet()));
+		this.httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		httpServer.createContext(JOBS_PATH, this::handle);
+		httpServer.createContext(METRICS_PATH, this::handleMetrics);
+		httpServer.setExecutor(requestExecutor);
+	}
+
+	/**
+	 * Create a new job server scraping stories with the scrape executor.
+	 * The shared transport is configured once for all jobs, the page cache and metrics are saved once closed.
+	 *
+	 * @param port listening port
+	 * @param queueCapacity maximum number of jobs waiting for a worker
+	 * @param options scrape options, the maximum number of concurrent stories sets the number of workers
+	 * @return job server
+	 * @throws IOException
+	 */
+	public static JobServer forScraping(int port, int queueCapacity, ScrapeOptions options) throws IOException {
+		ScrapeExecutor.configureSharedTransport(options);
+		FetchEngine fetchEngine = new FetchEngine(options);
+		JobRunner runner = job -> ScrapeExecutor.executeScraping(job.getTarget().url(),
+				job.getTarget().targetVolumeNumbers(), options, fetchEngine, job.getProgress());
+		try {
+			return new JobServer(port, options.getMaxConcurrentStories(), queueCapacity, runner, fetchEngine,
+					() -> ScrapeExecutor.saveSharedState(options));
+		} catch (IOException | RuntimeException e) {
+			fetchEngine.close();
+			throw e;
+		}
+	}
+
+	/** Start accepting requests */
+	public void start() {
+		httpServer.start();
+	}
+
+	/** Get listening port */
+	public int getPort() {
+		return httpServer.getAddress().getPort();
+	}
+
+	/** Wait until the server is closed */
+	public void awaitTermination() throws InterruptedException {
+		terminated.await();
+	}
+
+	/**
+	 * Submit a job.
+	 *
+	 * @param target story and volumes to scrape
+	 * @return accepted job
+	 * @throws RejectedExecutionException when the queue is full
+	 * @throws IllegalStateException when the story already has a job waiting or running
+	 */
+	public ScrapeJob submit(BatchJob target) {
+		synchronized (jobs) {
+			// Jobs of the same story would write the same ebooks
+			for (ScrapeJob job : jobs.values()) {
+				if (!job.getState().isFinished() && job.getTarget().url().equals(target.url())) {
+					throw new IllegalStateException("Story already has job " + job.getId());
+				}
+			}
+			ScrapeJob job = new ScrapeJob(Long.toString(lastJobId.incrementAndGet()), target);
+			Future<?> future = jobExecutor.submit(() -> runJob(job));
+			job.setFuture(future);
+			jobs.put(job.getId(), job);
+			evictFinishedJobs();
+			return job;
+		}
+	}
+
+	/**
+	 * Get a job.
+	 *
+	 * @param id job id
+	 * @return job, null when not found
+	 */
+	public ScrapeJob getJob(String id) {
+		synchronized (jobs) {
+			return jobs.get(id);
+		}
+	}
+
+	private void runJob(ScrapeJob job) {
+		if (!job.start()) {
+			return;
+		}
+		boolean succeeded;
+		String error = null;
+		try {
+			succeeded = runner.run(job);
+		} catch (Exception e) {
+			succeeded = false;
+			error = e.toString();
+		}
+		if (!succeeded && error == null) {
+			error = job.getProgress().getFailure();
+		}
+		job.finish(succeeded, succeeded ? null : error);
+	}
+
+	private void evictFinishedJobs() {
+		int finishedJobs = (int) jobs.values().stream().filter(job -> job.getState().isFinished()).count();
+		Iterator<ScrapeJob> iterator = jobs.values().iterator();
+		while (finishedJobs > MAX_FINISHED_JOBS && iterator.hasNext()) {
+			if (iterator.next().getState().isFinished()) {
+				iterator.remove();
+				finishedJobs--;
+			}
+		}
+	}
+
+	// ----------------------------------------------------------
+	// HTTP API
+	// ----------------------------------------------------------
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			String[] segments = exchange.getRequestURI().getPath().substring(JOBS_PATH.length()).split("/");
+			String method = exchange.getRequestMethod();
+			// Path segments after /jobs, the first one is empty
+			if (segments.length <= 1) {
+				switch (method) {
+					case "POST" -> handleSubmit(exchange);
+					case "GET" -> handleList(exchange);
+					default -> sendError(exchange, 405, "Method not allowed");
+				}
+				return;
+			}
+			ScrapeJob job = getJob(segments[1]);
+			if (job == null) {
+				sendError(exchange, 404, "Job not found");
+			} else if (segments.length == 2 && method.equals("GET")) {
+				sendJson(exchange, 200, job.getStatus());
+			} else if (segments.length == 2 && method.equals("DELETE")) {
+				handleCancel(exchange, job);
+			} else if (segments.length == 3 && segments[2].equals(DOWNLOAD_PATH) && method.equals("GET")) {
+				handleDownload(exchange, job);
+			} else {
+				sendError(exchange, 404, "Not found");
+			}
+		}
+	}
+
+	private void handleSubmit(HttpExchange exchange) throws IOException {
+		BatchJob target;
+		try (InputStream body = exchange.getRequestBody()) {
+			SubmitRequest request = OBJECT_MAPPER.readValue(body, SubmitRequest.class);
+			if (request.url() == null) {
+				sendError(exchange, 400, "Missing url");
+				return;
+			}
+			target = BatchJob.parse(request.volumes() == null ? request.url() : request.url() + " " + request.volumes());
+		} catch (JsonProcessingException | IllegalArgumentException e) {
+			sendError(exchange, 400, e.getMessage());
+			return;
+		}
+
+		try {
+			ScrapeJob job = submit(target);
+			exchange.getResponseHeaders().set("Location", JOBS_PATH + "/" + job.getId());
+			sendJson(exchange, 202, job.getStatus());
+		} catch (IllegalStateException e) {
+			sendError(exchange, 409, e.getMessage());
+		} catch (RejectedExecutionException e) {
+			// Admission control, clients are expected to retry later
+			exchange.getResponseHeaders().set("Retry-After", "60");
+			sendError(exchange, 503, "Job queue is full");
+		}
+	}
+
+	private void handleList(HttpExchange exchange) throws IOException {
+		List<ScrapeJob.Status> statuses = new ArrayList<>();
+		synchronized (jobs) {
+			jobs.values().forEach(job -> statuses.add(job.getStatus()));
+		}
+		sendJson(exchange, 200, statuses);
+	}
+
+	private void handleCancel(HttpExchange exchange, ScrapeJob job) throws IOException {
+		if (!job.cancel()) {
+			sendError(exchange, 409, "Job is already " + job.getState());
+			return;
+		}
+		// Cancelled jobs do not hold a place in the queue
+		jobExecutor.purge();
+		sendJson(exchange, 200, job.getStatus());
+	}
+
+	private void handleDownload(HttpExchange exchange, ScrapeJob job) throws IOException {
+		String fileName = getQueryParameter(exchange, "file");
+		// Only files generated by the job can be downloaded
+		Path file = job.findFile(fileName);
+		if (file == null || !Files.exists(file)) {
+			sendError(exchange, 404, "File not found");
+			return;
+		}
+		String encodedName = URLEncoder.encode(file.getFileName().toString(), StandardCharsets.UTF_8).replace("+", "%20");
+		exchange.getResponseHeaders().set("Content-Type", EPUB_CONTENT_TYPE);
+		exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename*=UTF-8''" + encodedName);
+		exchange.sendResponseHeaders(200, Files.size(file));
+		try (OutputStream body = exchange.getResponseBody()) {
+			Files.copy(file, body);
+		}
+	}
+
+	private void handleMetrics(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			byte[] body = Metrics.getSharedMetrics().toPrometheus().getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream output = exchange.getResponseBody()) {
+				output.write(body);
+			}
+		}
+	}
+
+	private static String getQueryParameter(HttpExchange exchange, String name) {
+		String query = exchange.getRequestURI().getRawQuery();
+		if (query == null) {
+			return null;
+		}
+		for (String parameter : query.split("&")) {
+			String[] keyValue = parameter.split("=", 2);
+			if (keyValue.length == 2 && keyValue[0].equals(name)) {
+				return URLDecoder.decode(keyValue[1], StandardCharsets.UTF_8);
+			}
+		}
+		return null;
+	}
+
+	private static void sendError(HttpExchange exchange, int statusCode, String message) throws IOException {
+		sendJson(exchange, statusCode, new ErrorResponse(message));
+	}
+
+	private static void sendJson(HttpExchange exchange, int statusCode, Object value) throws IOException {
+		byte[] body = OBJECT_MAPPER.writeValueAsBytes(value);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(statusCode, body.length);
+		try (OutputStream output = exchange.getResponseBody()) {
+			output.write(body);
+		}
+	}
+
+	/** Stop the server, cancelling running jobs, interrupted threads keep their interrupt status */
+	@Override
+	public void close() {
+		httpServer.stop(0);
+		jobExecutor.shutdownNow();
+		try {
+			jobExecutor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			// Resources are still released, the caller sees the interrupt status
+			Thread.currentThread().interrupt();
+		}
+		requestExecutor.shutdownNow();
+		if (fetchEngine != null) {
+			fetchEngine.close();
+		}
+		if (closeTask != null) {
+			closeTask.run();
+		}
+		terminated.countDown();
+	}
+
+}
@@ -0,0 +1,156 @@
+package com.nicolas_abroad.epub_scraper_desktop.server;
+
+import com.nicolas_abroad.epub_scraper_desktop.scrape.ScrapeProgress;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.batch.BatchJob;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+/**
+ * Scrape job submitted to the job server.
+ *
+ * @author Nicolas
+ */
+@Getter
+public class ScrapeJob {
+
+	/** Job state */
+	public enum State {
+		/** Waiting for a worker */
+		QUEUED,
+		/** Being scraped */
+		RUNNING,
+		/** All target volumes were generated */
+		SUCCEEDED,
+		/** Some volumes could not be generated */
+		FAILED,
+		/** Cancelled before finishing */
+		CANCELLED;
+
+		/** Is the job over */
+		public boolean isFinished() {
+			return this != QUEUED && this != RUNNING;
+		}
+	}
+
+	/** Job status, as returned by the job server */
+	public record Status(String id, String url, Set<Integer> volumes, State state, int totalVolumes,
+			int finishedVolumes, int totalChapters, int scrapedChapters, List<String> files, String submittedAt,
+			String startedAt, String finishedAt, String error) {
+	}
+
+	private final String id;
+
+	/** Story and volumes to scrape */
+	private final BatchJob target;
+
+	private final ScrapeProgress progress = new ScrapeProgress();
+
+	private final Instant submittedAt = Instant.now();
+
+	private State state = State.QUEUED;
+
+	private Instant startedAt;
+
+	private Instant finishedAt;
+
+	/** Why the job failed, null unless it failed */
+	private String error;
+
+	/** Worker task, set once the job is accepted */
+	@Getter(AccessLevel.NONE)
+	private Future<?> future;
+
+	ScrapeJob(String id, BatchJob target) {
+		this.id = id;
+		this.target = target;
+	}
+
+	synchronized void setFuture(Future<?> future) {
+		this.future = future;
+	}
+
+	/**
+	 * Mark the job as running.
+	 *
+	 * @return false when the job was cancelled while queued
+	 */
+	synchronized boolean start() {
+		if (state != State.QUEUED) {
+			return false;
+		}
+		state = State.RUNNING;
+		startedAt = Instant.now();
+		return true;
+	}
+
+	/**
+	 * Mark the job as finished, unless it was cancelled.
+	 *
+	 * @param succeeded
+	 * @param error why the job failed, null when it succeeded
+	 */
+	synchronized void finish(boolean succeeded, String error) {
+		if (state != State.RUNNING) {
+			return;
+		}
+		state = succeeded ? State.SUCCEEDED : State.FAILED;
+		this.error = error;
+		finishedAt = Instant.now();
+	}
+
+	/**
+	 * Cancel the job, interrupting it when running. Unfinished ebooks are discarded.
+	 *
+	 * @return false when the job was already over
+	 */
+	synchronized boolean cancel() {
+		if (state.isFinished()) {
+			return false;
+		}
+		state = State.CANCELLED;
+		finishedAt = Instant.now();
+		if (future != null) {
+			future.cancel(true);
+		}
+		return true;
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * Find an ebook file generated by the job.
+	 *
+	 * @param fileName file name, may be null when the job generated a single file
+	 * @return file path, null when not found
+	 */
+	public Path findFile(String fileName) {
+		List<Path> files = progress.getFiles();
+		if (fileName == null) {
+			return files.size() == 1 ? files.getFirst() : null;
+		}
+		return files.stream().filter(file -> Objects.equals(file.getFileName().toString(), fileName))
+				.findFirst().orElse(null);
+	}
+
+	/** Get a snapshot of the job status */
+	public synchronized Status getStatus() {
+		List<String> files = progress.getFiles().stream().map(file -> file.getFileName().toString()).toList();
+		return new Status(id, target.url(), target.targetVolumeNumbers(), state, progress.getTotalVolumes(),
+				progress.getFinishedVolumes(), progress.getTotalChapters(), progress.getScrapedChapters(), files,
+				format(submittedAt), format(startedAt), format(finishedAt), error);
+	}
+
+	private static String format(Instant instant) {
+		return instant == null ? null : instant.toString();
+	}
+
+}
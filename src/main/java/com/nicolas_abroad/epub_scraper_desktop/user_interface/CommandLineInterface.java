@@ -1,16 +1,33 @@
 package com.nicolas_abroad.epub_scraper_desktop.user_interface;
 
 import com.nicolas_abroad.epub_scraper_desktop.configuration.AppConfiguration;
+import com.nicolas_abroad.epub_scraper_desktop.format.EpubFormat;
 import com.nicolas_abroad.epub_scraper_desktop.input.InputParser;
 import com.nicolas_abroad.epub_scraper_desktop.input.VolumeInputConverter;
 import com.nicolas_abroad.epub_scraper_desktop.scrape.ScrapeExecutor;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.ScrapeOptions;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.batch.BatchJob;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.batch.BatchScheduler;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.http.FixtureStore;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.http.ReplayServer;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.http.ResponseCache;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.watch.StoryWatcher;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.watch.Subscription;
+import com.nicolas_abroad.epub_scraper_desktop.server.JobServer;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.Deflater;
 
 /**
  * CLI for ebook scrapping app.
@@ -20,15 +37,96 @@ import java.util.concurrent.Callable;
 @Command(name = "Ebook scrapper app", description = "Description of ebook scraper app")
 public class CommandLineInterface implements Callable<Integer> {
 
-	@Option(names = {"-u", "--url"}, description = "Specify url of ebook to parse", required = true)
+	@Option(names = {"-u", "--url"}, description = "Specify url of ebook to parse")
 	private String targetUrl;
 
+	@Option(names = {"-b", "--batch"}, description = "Scrape all stories of a file, one url per line, optionally followed by volumes (1,2,4 or 2-5)")
+	private Path batchFile;
+
+	@Option(names = {"-w", "--watch"}, description = "Follow the stories of a file, in the batch file format, and rebuild volumes with new or revised chapters")
+	private Path watchFile;
+
+	@Option(names = {"--poll-interval"}, description = "Minutes between two polls of a followed story (default: ${DEFAULT-VALUE})", defaultValue = "" + StoryWatcher.DEFAULT_POLL_INTERVAL_MINUTES)
+	private int pollIntervalMinutes;
+
+	@Option(names = {"--server"}, description = "Run a local job server, scraping stories submitted through its HTTP API")
+	private boolean server;
+
+	@Option(names = {"--port"}, description = "Listening port of the job server (default: ${DEFAULT-VALUE})", defaultValue = "" + JobServer.DEFAULT_PORT)
+	private int port;
+
+	@Option(names = {"--queue-size"}, description = "Maximum number of jobs waiting in the job server queue (default: ${DEFAULT-VALUE})", defaultValue = "" + JobServer.DEFAULT_QUEUE_CAPACITY)
+	private int queueCapacity;
+
+	@Option(names = {"--stories"}, description = "Maximum number of stories scraped at the same time in batch or server mode (default: ${DEFAULT-VALUE})", defaultValue = "" + BatchScheduler.DEFAULT_MAX_CONCURRENT_STORIES)
+	private int maxConcurrentStories;
+
+	@Option(names = {"--host-stories"}, description = "Maximum number of stories scraped at the same time from a single website in batch mode (default: ${DEFAULT-VALUE})", defaultValue = "" + BatchScheduler.DEFAULT_MAX_STORIES_PER_HOST)
+	private int maxStoriesPerHost;
+
 	@Option(names = {"-a", "--all"}, description = "Scrape all volumes")
 	private boolean scrapeAllVolumes;
 
 	@Option(names = {"-v", "--volumes"}, description = "Scrape specified volumes. Use comma-separated values (1,2,4) or ranges (2-5).", converter = VolumeInputConverter.class)
 	private Set<Integer> targetVolumeNumbers;
 
+	@Option(names = {"-c", "--concurrency"}, description = "Maximum number of chapters fetched at the same time (default: ${DEFAULT-VALUE})", defaultValue = "" + ScrapeOptions.DEFAULT_MAX_CONCURRENT_FETCHES)
+	private int maxConcurrentFetches;
+
+	@Option(names = {"--host-concurrency"}, description = "Maximum number of chapters fetched at the same time from a single website (default: ${DEFAULT-VALUE})", defaultValue = "" + ScrapeOptions.DEFAULT_MAX_FETCHES_PER_HOST)
+	private int maxFetchesPerHost;
+
+	@Option(names = {"--volumes-in-flight"}, description = "Maximum number of volumes scraped or written at the same time (default: ${DEFAULT-VALUE})", defaultValue = "" + ScrapeOptions.DEFAULT_MAX_VOLUMES_IN_FLIGHT)
+	private int maxVolumesInFlight;
+
+	@Option(names = {"--host-pool-size"}, description = "Connection pool size for a single website, for example ncode.syosetu.com=6")
+	private Map<String, Integer> hostPoolSizes = new HashMap<>();
+
+	@Option(names = {"--host-rate"}, description = "Maximum requests per second sent to a single website, for example kakuyomu.jp=4")
+	private Map<String, Double> hostRates = new HashMap<>();
+
+	@Option(names = {"-s", "--sync"}, description = "Only fetch new or revised chapters, and rebuild the volumes containing them")
+	private boolean sync;
+
+	@Option(names = {"--offline"}, description = "Build ebooks from cached pages only, without fetching anything")
+	private boolean offline;
+
+	@Option(names = {"--no-cache"}, description = "Do not cache fetched pages on disk")
+	private boolean cacheDisabled;
+
+	@Option(names = {"--cache-dir"}, description = "Directory of the page cache (default: ${DEFAULT-VALUE})")
+	private Path cacheDirectory = ResponseCache.DEFAULT_DIRECTORY;
+
+	@Option(names = {"--cache-size"}, description = "Size limit of the page cache, in megabytes (default: ${DEFAULT-VALUE})", defaultValue = "" + ResponseCache.DEFAULT_MAX_SIZE_MB)
+	private long maxCacheSizeMb;
+
+	@Option(names = {"--record-dir"}, description = "Record every fetched page to this directory, as fixtures that can be replayed")
+	private Path recordDirectory;
+
+	@Option(names = {"--replay-dir"}, description = "Fetch every page from the fixtures recorded in this directory, through a local replay server")
+	private Path replayDirectory;
+
+	@Option(names = {"--replay-latency"}, description = "Latency added to every replayed page, in milliseconds (default: ${DEFAULT-VALUE})", defaultValue = "0")
+	private int replayLatencyMillis;
+
+	@Option(names = {"--base-url"}, description = "Send requests to a local stand-in of the websites, for example http://127.0.0.1:8080")
+	private String baseUrl;
+
+	@Option(names = {"--retries"}, description = "Number of times failed chapters are retried at the end of the run (default: ${DEFAULT-VALUE})", defaultValue = "" + ScrapeOptions.DEFAULT_RETRY_ROUNDS)
+	private int retryRounds;
+
+	@Option(names = {"--metrics-dir"}, description = "Export run metrics to this directory, as metrics.json and metrics.prom in the Prometheus text format")
+	private Path metricsDirectory;
+
+	@Option(names = {"--compression-level"}, description = "Compression level of ebook files, from 0 (fastest) to 9 (smallest) (default: ${DEFAULT-VALUE})", defaultValue = "" + EpubFormat.DEFAULT_COMPRESSION_LEVEL)
+	private int compressionLevel;
+
+	@Option(names = {"--split-chapters"}, description = "Split stories without volumes into parts of at most this many chapters, 0 to never split (default: ${DEFAULT-VALUE})", defaultValue = "0")
+	private int maxChaptersPerPart;
+
+	@Option(names = {"--off-heap-chapters"}, description = "Keep scraped chapters in a memory-mapped temporary file rather than in memory, for large stories on small machines")
+	private boolean offHeapChapters;
+
 	public static void main(String[] args) {
 		CommandLine commandLine = new CommandLine(new CommandLineInterface());
 		int exitCode = commandLine.execute(args);
@@ -39,9 +137,14 @@ public class CommandLineInterface implements Callable<Integer> {
 	public Integer call() {
 		outputCurrentVersion();
 
+		// Either a single url, a batch file, a watch file or a job server, volumes of other modes are specified per story
+		int modes = (targetUrl != null ? 1 : 0) + (batchFile != null ? 1 : 0) + (watchFile != null ? 1 : 0) + (server ? 1 : 0);
+		if (modes != 1 || (targetUrl == null && (scrapeAllVolumes || targetVolumeNumbers != null))) {
+			return exitSystem(MessageEnum.INCORRECT_PARAMETERS);
+		}
+
 		// Input validation
-		boolean isValidInput = validateInput(targetUrl);
-		if (!isValidInput) {
+		if (targetUrl != null && !validateInput(targetUrl)) {
 			return exitSystem(MessageEnum.INCORRECT_URL);
 		}
 
@@ -50,9 +153,52 @@ public class CommandLineInterface implements Callable<Integer> {
 			return exitSystem(MessageEnum.INCORRECT_PARAMETERS);
 		}
 
+		// Offline mode can only work from the cache
+		if (offline && cacheDisabled) {
+			return exitSystem(MessageEnum.INCORRECT_PARAMETERS);
+		}
+
+		// Replayed runs fetch from their own stand-in, without the cache
+		if (replayDirectory != null && (offline || baseUrl != null || replayLatencyMillis < 0)) {
+			return exitSystem(MessageEnum.INCORRECT_PARAMETERS);
+		}
+
+		// Retry rounds and part sizes can not be negative, compression levels go from 0 to 9
+		if (retryRounds < 0 || maxChaptersPerPart < 0 || compressionLevel < Deflater.NO_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+			return exitSystem(MessageEnum.INCORRECT_PARAMETERS);
+		}
+
+		// Limits, rates and cache size must be positive
+		if (maxConcurrentFetches < 1 || maxFetchesPerHost < 1 || maxVolumesInFlight < 1 || maxConcurrentStories < 1 || maxStoriesPerHost < 1 || queueCapacity < 1 || pollIntervalMinutes < 1 || port < 0 || port > 65535 || hostPoolSizes.values().stream().anyMatch(size -> size < 1)
+				|| hostRates.values().stream().anyMatch(rate -> rate <= 0) || maxCacheSizeMb < 1) {
+			return exitSystem(MessageEnum.INCORRECT_PARAMETERS);
+		}
+
+		ScrapeOptions options = generateScrapeOptions();
+
+		if (replayDirectory != null) {
+			return replay(options);
+		}
+
+		return execute(options);
+	}
+
+	private int execute(ScrapeOptions options) {
+		if (batchFile != null) {
+			return executeBatch(options);
+		}
+
+		if (watchFile != null) {
+			return watchStories(options);
+		}
+
+		if (server) {
+			return runServer(options);
+		}
+
 		// When nothing specified, scrape volume information
 		if (!scrapeAllVolumes && targetVolumeNumbers == null) {
-			List<String> volumeTitleList = ScrapeExecutor.fetchAllVolumeInfo(targetUrl);
+			List<String> volumeTitleList = ScrapeExecutor.fetchAllVolumeInfo(targetUrl, options);
 			volumeTitleList.forEach(System.out::println);
 			return exitSystem(MessageEnum.FINISHED_INFO);
 		}
@@ -60,7 +206,7 @@ public class CommandLineInterface implements Callable<Integer> {
 		System.out.println(MessageEnum.SCRAPING.getMessage());
 
 		// Scrape volumes based on user input
-		boolean hasScraped = scrapeAllVolumes ? ScrapeExecutor.executeScraping(targetUrl) : ScrapeExecutor.executeScraping(targetUrl, targetVolumeNumbers);
+		boolean hasScraped = scrapeAllVolumes ? ScrapeExecutor.executeScraping(targetUrl, null, options) : ScrapeExecutor.executeScraping(targetUrl, targetVolumeNumbers, options);
 		if (!hasScraped) {
 			return exitSystem(MessageEnum.ERROR);
 		}
@@ -68,12 +214,121 @@ public class CommandLineInterface implements Callable<Integer> {
 		return exitSystem(MessageEnum.FINISHED_SCRAPE);
 	}
 
+	private int replay(ScrapeOptions options) {
+		try (ReplayServer replayServer = new ReplayServer(0, new FixtureStore(replayDirectory))) {
+			Duration latency = Duration.ofMillis(replayLatencyMillis);
+			replayServer.setLatency(latency, latency);
+			replayServer.start();
+			options.setBaseUrl(replayServer.getBaseUrl());
+			// Replayed pages must not replace the cached pages of the websites
+			options.setCacheEnabled(false);
+			return execute(options);
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+			return exitSystem(MessageEnum.ERROR);
+		}
+	}
+
+	private int executeBatch(ScrapeOptions options) {
+		List<BatchJob> jobs;
+		try {
+			jobs = BatchJob.readFile(batchFile);
+		} catch (IOException | IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			return exitSystem(MessageEnum.INCORRECT_PARAMETERS);
+		}
+
+		System.out.println(MessageEnum.SCRAPING.getMessage());
+
+		List<BatchJob> failedJobs = ScrapeExecutor.executeBatch(jobs, options);
+		System.out.println(String.format(MessageEnum.BATCH_SUMMARY.getMessage(), jobs.size() - failedJobs.size(), jobs.size()));
+		failedJobs.forEach(job -> System.out.println(job.url()));
+		if (!failedJobs.isEmpty()) {
+			return exitSystem(MessageEnum.ERROR);
+		}
+
+		return exitSystem(MessageEnum.FINISHED_SCRAPE);
+	}
+
+	private int watchStories(ScrapeOptions options) {
+		List<Subscription> subscriptions;
+		try {
+			subscriptions = BatchJob.readFile(watchFile).stream().map(Subscription::new).toList();
+		} catch (IOException | IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			return exitSystem(MessageEnum.INCORRECT_PARAMETERS);
+		}
+
+		// Followed stories are always synced, only volumes with new or revised chapters are rebuilt
+		options.setSync(true);
+		StoryWatcher watcher;
+		try {
+			watcher = StoryWatcher.forScraping(Duration.ofMinutes(pollIntervalMinutes), options);
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+			return exitSystem(MessageEnum.ERROR);
+		}
+		CountDownLatch stopped = new CountDownLatch(1);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			watcher.close();
+			stopped.countDown();
+		}));
+		watcher.watch(subscriptions);
+		System.out.println(String.format(MessageEnum.WATCH_STARTED.getMessage(), subscriptions.size(), pollIntervalMinutes));
+		try {
+			stopped.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return exitSystem(MessageEnum.WATCH_STOPPED);
+	}
+
+	private int runServer(ScrapeOptions options) {
+		try {
+			JobServer jobServer = JobServer.forScraping(port, queueCapacity, options);
+			Runtime.getRuntime().addShutdownHook(new Thread(jobServer::close));
+			jobServer.start();
+			System.out.println(String.format(MessageEnum.SERVER_STARTED.getMessage(), jobServer.getPort()));
+			jobServer.awaitTermination();
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+			return exitSystem(MessageEnum.ERROR);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return exitSystem(MessageEnum.SERVER_STOPPED);
+	}
+
 	private boolean validateInput(String input) {
 		InputParser inputParser = InputParser.getInputParser();
 		inputParser.processUrl(input);
 		return inputParser.isValidUrl();
 	}
 
+	private ScrapeOptions generateScrapeOptions() {
+		ScrapeOptions options = new ScrapeOptions();
+		options.setMaxConcurrentFetches(maxConcurrentFetches);
+		options.setMaxFetchesPerHost(maxFetchesPerHost);
+		options.setMaxVolumesInFlight(maxVolumesInFlight);
+		options.setMaxConcurrentStories(maxConcurrentStories);
+		options.setMaxStoriesPerHost(maxStoriesPerHost);
+		options.setHostPoolSizes(hostPoolSizes);
+		options.setHostRates(hostRates);
+		options.setCacheEnabled(!cacheDisabled);
+		options.setCacheDirectory(cacheDirectory);
+		options.setMaxCacheSizeMb(maxCacheSizeMb);
+		options.setOffline(offline);
+		options.setSync(sync);
+		options.setRetryRounds(retryRounds);
+		options.setCompressionLevel(compressionLevel);
+		options.setMaxChaptersPerPart(maxChaptersPerPart);
+		options.setOffHeapChapters(offHeapChapters);
+		options.setMetricsDirectory(metricsDirectory);
+		options.setBaseUrl(baseUrl);
+		options.setRecordDirectory(recordDirectory);
+		return options;
+	}
+
 	private int exitSystem(MessageEnum message) {
 		System.out.println(message.getMessage());
 		return message.getExitCode();
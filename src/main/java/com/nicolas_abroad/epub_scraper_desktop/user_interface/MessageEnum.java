@@ -9,8 +9,23 @@ public enum MessageEnum {
     STARTUP(-1, "Application %s (v%s) started successfully" + System.lineSeparator()),
     SCRAPING(-1, "Please wait a moment while the app is scraping." + System.lineSeparator()),
     SKIP_GENERATION(-1, "Skipping generation as volume already exists"),
+    SKIP_UP_TO_DATE(-1, "Skipping generation as volume is up to date"),
+    RESUME_FROM_JOURNAL(-1, "Resuming from %d previously scraped chapters"),
+    RETRY_LATER(-1, "%d chapters failed, they will be retried at the end of the run"),
+    GENERATION_REPORT(-1, "(%.2f MB, %.0f%% of content size, compressed at %.1f MB/s per thread)"),
+    PERMANENT_FAILURES(-1, System.lineSeparator() + "The following chapters could not be scraped:"),
+    BATCH_JOB_STARTED(-1, "%s: scraping started"),
+    BATCH_JOB_FINISHED(-1, "%s: scraping finished"),
+    BATCH_JOB_FAILED(-1, "%s: scraping failed"),
+    BATCH_SUMMARY(-1, System.lineSeparator() + "%d of %d stories were scraped successfully."),
+    WATCH_STARTED(-1, "Watching %d stories, polling each story every %d minutes"),
+    WATCH_CHANGES_FOUND(-1, "%s: new or revised chapters found in volumes %s"),
+    WATCH_POLL_FAILED(-1, "%s: polling failed (%s)"),
+    SERVER_STARTED(-1, "Job server listening on http://localhost:%d/jobs"),
     FINISHED_INFO(0, System.lineSeparator() + "The app has finished scraping volume information."),
     FINISHED_SCRAPE(0, System.lineSeparator() + "The app has finished scraping target volumes."),
+    SERVER_STOPPED(0, System.lineSeparator() + "The job server has stopped."),
+    WATCH_STOPPED(0, System.lineSeparator() + "The app has stopped watching stories."),
     ERROR(1, System.lineSeparator() + "An error occurred while scraping."),
     INCORRECT_PARAMETERS(2, "Please input correct parameters."),
     INCORRECT_URL(2, "Please input a correct url."),
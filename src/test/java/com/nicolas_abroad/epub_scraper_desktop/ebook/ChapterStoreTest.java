@@ -0,0 +1,69 @@
+package com.nicolas_abroad.epub_scraper_desktop.ebook;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit test class for the ChapterStore class.
+ *
+ * @author Nicolas
+ */
+public class ChapterStoreTest {
+
+	/** Test texts are read back across segments, including texts longer than a segment. */
+	@Test
+	public void testPutAndRead() throws Exception {
+		try (ChapterStore store = ChapterStore.create(16)) {
+			ChapterStore.StoredText first = store.put("<p>テキスト</p>");
+			ChapterStore.StoredText second = store.put("<p>ab</p>");
+			String longText = "<p>" + "長い".repeat(100) + "</p>";
+			ChapterStore.StoredText third = store.put(longText);
+
+			assertEquals("<p>テキスト</p>", first.read());
+			assertEquals("<p>ab</p>", second.read());
+			assertEquals(longText, third.read());
+			assertEquals(2, third.segment());
+
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			third.writeTo(outputStream);
+			assertArrayEquals(longText.getBytes(StandardCharsets.UTF_8), outputStream.toByteArray());
+		}
+	}
+
+	/** Test a chapter keeps its content hash and text once its text is moved to a store. */
+	@Test
+	public void testStoreChapterText() throws Exception {
+		try (ChapterStore store = ChapterStore.create()) {
+			Chapter chapter = new Chapter(null, "/1/");
+			chapter.setTitle("第1話");
+			chapter.setText("<p>テキスト</p>");
+			String contentHash = chapter.getContentHash();
+
+			chapter.storeText(store);
+			assertNotNull(chapter.getStoredText());
+			assertEquals("<p>テキスト</p>", chapter.getText());
+			assertEquals(contentHash, chapter.getContentHash());
+
+			chapter.releaseText();
+			assertNull(chapter.getText());
+			assertEquals(contentHash, chapter.getContentHash());
+		}
+	}
+
+	/** Test stored texts can not be read once the store is closed. */
+	@Test(expected = IllegalStateException.class)
+	public void testReadClosed() throws Exception {
+		ChapterStore store = ChapterStore.create();
+		ChapterStore.StoredText storedText = store.put("<p>テキスト</p>");
+		store.close();
+		storedText.read();
+	}
+
+}
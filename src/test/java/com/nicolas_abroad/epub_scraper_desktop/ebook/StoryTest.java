@@ -0,0 +1,113 @@
+package com.nicolas_abroad.epub_scraper_desktop.ebook;
+
+import com.nicolas_abroad.epub_scraper_desktop.scrape.sources.EbookScraper;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit test class for the Story class.
+ *
+ * @author Nicolas
+ */
+public class StoryTest {
+
+	/** Scraper serving the index of a story without volumes */
+	private static class NoVolumeScraper extends EbookScraper {
+
+		private final int chapterCount;
+
+		private NoVolumeScraper(int chapterCount) {
+			this.chapterCount = chapterCount;
+		}
+
+		@Override
+		public Document parseHTMLDocument(String url) {
+			return Jsoup.parse("", url);
+		}
+
+		@Override
+		public String parseAuthor(Document document) {
+			return "作者";
+		}
+
+		@Override
+		public String parseStoryTitle(Document document) {
+			return "喜びの道";
+		}
+
+		@Override
+		public boolean hasVolumes(Document document) {
+			return false;
+		}
+
+		@Override
+		public List<String> parseVolumeTitles(Document document) {
+			return new ArrayList<>();
+		}
+
+		@Override
+		public String parseChapterTitle(Document document) {
+			return null;
+		}
+
+		@Override
+		public String parseChapterText(Document document) {
+			return null;
+		}
+
+		@Override
+		public List<String> parseAllChapterUrls(Document document) {
+			List<String> urls = new ArrayList<>();
+			for (int i = 1; i <= chapterCount; i++) {
+				urls.add("/" + i + "/");
+			}
+			return urls;
+		}
+
+		@Override
+		public Map<Integer, List<String>> parseChapterUrlsByVolume(Document document) {
+			return Map.of();
+		}
+
+		@Override
+		public int parseChapterNumber(Document document) {
+			return -1;
+		}
+	}
+
+	/** Test a story without volumes is split into numbered parts of at most the maximum number of chapters. */
+	@Test
+	public void testSplitIntoParts() throws Exception {
+		Story story = new Story(new NoVolumeScraper(25), "/");
+		story.setMaxChaptersPerPart(10);
+		List<Volume> parts = story.parseAllVolumeInfo();
+
+		assertEquals(List.of("1 - 喜びの道", "2 - 喜びの道", "3 - 喜びの道"), parts.stream().map(Volume::getTitle).toList());
+		assertEquals(List.of(10, 10, 5), parts.stream().map(part -> part.getChapterUrls().size()).toList());
+		assertEquals(List.of(0, 10, 20), parts.stream().map(Volume::getChapterNumberOffset).toList());
+		assertEquals("/11/", parts.get(1).getChapterUrls().getFirst());
+		assertEquals("作者", parts.get(2).getAuthor());
+	}
+
+	/** Test a story fitting in a single part keeps its title. */
+	@Test
+	public void testNoSplit() throws Exception {
+		for (int maxChaptersPerPart : List.of(0, 25)) {
+			Story story = new Story(new NoVolumeScraper(25), "/");
+			story.setMaxChaptersPerPart(maxChaptersPerPart);
+			List<Volume> volumes = story.parseAllVolumeInfo();
+
+			assertEquals(1, volumes.size());
+			assertEquals("喜びの道", volumes.getFirst().getTitle());
+			assertEquals(25, volumes.getFirst().getChapterUrls().size());
+		}
+	}
+
+}
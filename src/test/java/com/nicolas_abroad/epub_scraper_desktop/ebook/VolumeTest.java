@@ -0,0 +1,229 @@
+package com.nicolas_abroad.epub_scraper_desktop.ebook;
+
+import com.nicolas_abroad.epub_scraper_desktop.format.EbookWriter;
+import com.nicolas_abroad.epub_scraper_desktop.format.EpubFormat;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.FetchEngine;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.http.FetchedPage;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.sync.ChapterJournal;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.sources.EbookScraper;
+import org.jsoup.nodes.Document;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test class for the Volume class.
+ *
+ * @author Nicolas
+ */
+public class VolumeTest {
+
+	/** Temporary folder used as output directory */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/** Scraper serving generated chapters, failing once for the given urls */
+	private static class FlakyScraper extends EbookScraper {
+
+		private final Set<String> failingUrls = ConcurrentHashMap.newKeySet();
+
+		private FlakyScraper(String... failingUrls) {
+			this.failingUrls.addAll(List.of(failingUrls));
+		}
+
+		@Override
+		public FetchedPage fetchChapterPage(String url) throws Exception {
+			if (failingUrls.remove(url)) {
+				throw new IOException("Connection reset: " + url);
+			}
+			byte[] body = ("<h1>" + url + "</h1><div><p>テキスト</p></div>").getBytes(StandardCharsets.UTF_8);
+			return new FetchedPage(url, 200, "UTF-8", Map.of(), Map.of(), body);
+		}
+
+		@Override
+		public Document parseHTMLDocument(String url) throws Exception {
+			return parseChapterPage(fetchChapterPage(url));
+		}
+
+		@Override
+		public String parseAuthor(Document document) {
+			return null;
+		}
+
+		@Override
+		public String parseStoryTitle(Document document) {
+			return null;
+		}
+
+		@Override
+		public boolean hasVolumes(Document document) {
+			return false;
+		}
+
+		@Override
+		public List<String> parseVolumeTitles(Document document) {
+			return List.of();
+		}
+
+		@Override
+		public String parseChapterTitle(Document document) {
+			return document.selectFirst("h1").text();
+		}
+
+		@Override
+		public String parseChapterText(Document document) {
+			return document.selectFirst("div").html();
+		}
+
+		@Override
+		public List<String> parseAllChapterUrls(Document document) {
+			return List.of();
+		}
+
+		@Override
+		public Map<Integer, List<String>> parseChapterUrlsByVolume(Document document) {
+			return Map.of();
+		}
+
+		@Override
+		public int parseChapterNumber(Document document) {
+			return Integer.parseInt(document.location().replaceAll("\\D", ""));
+		}
+	}
+
+	/** Test failed chapters are isolated, then assembled in order once retried. */
+	@Test
+	public void testRetryFailedChapters() throws Exception {
+		List<String> urls = List.of("/1/", "/2/", "/3/", "/4/");
+		Volume volume = new Volume(new FlakyScraper("/2/", "/4/"), urls);
+
+		try (FetchEngine fetchEngine = new FetchEngine(4, 4)) {
+			volume.generate(fetchEngine);
+			assertFalse(volume.isComplete());
+			assertEquals(List.of("/2/", "/4/"), volume.getFailedChapterUrls());
+			assertTrue(volume.getChapters().isEmpty());
+
+			volume.retryFailedChapters(fetchEngine, null, null);
+		}
+
+		assertTrue(volume.isComplete());
+		assertEquals(urls, volume.getChapters().stream().map(Chapter::getUrl).toList());
+		assertEquals(4, volume.getChapters().get(3).getChapterNumber());
+	}
+
+	/** Test chapters are streamed to the ebook writer, which releases their text once written. */
+	@Test
+	public void testGenerateStreaming() throws Exception {
+		List<String> urls = List.of("/1/", "/2/", "/3/");
+		Volume volume = new Volume(new FlakyScraper("/1/"), urls);
+		volume.setTitle("喜びの道");
+		volume.setAuthor("作者");
+		volume.setVolumeNumber("01");
+		Path directory = folder.getRoot().toPath();
+
+		try (FetchEngine fetchEngine = new FetchEngine(4, 4);
+			 EbookWriter writer = new EpubFormat().begin(directory, volume)) {
+			volume.generate(fetchEngine, null, writer);
+			assertFalse(volume.isComplete());
+			volume.retryFailedChapters(fetchEngine, null, writer);
+			assertTrue(volume.isComplete());
+			writer.finish();
+		}
+
+		assertTrue(Files.exists(directory.resolve("喜びの道.epub")));
+		assertFalse(Files.exists(directory.resolve("喜びの道.epub.part")));
+		for (Chapter chapter : volume.getChapters()) {
+			assertNull(chapter.getText());
+			assertNotNull(chapter.getContentHash());
+		}
+	}
+
+	/** Test failed chapters are retried into a new writer, fed from the journal once the first one was discarded. */
+	@Test
+	public void testRetryFailedChaptersFromJournal() throws Exception {
+		List<String> urls = List.of("/1/", "/2/", "/3/");
+		Volume volume = new Volume(new FlakyScraper("/2/"), urls);
+		volume.setTitle("喜びの道");
+		volume.setAuthor("作者");
+		volume.setVolumeNumber("01");
+		Path directory = folder.getRoot().toPath();
+
+		try (FetchEngine fetchEngine = new FetchEngine(4, 4);
+			 ChapterJournal journal = ChapterJournal.open(ChapterJournal.getPath(directory, volume.getTitle()))) {
+			try (EbookWriter writer = new EpubFormat().begin(directory, volume)) {
+				volume.generate(fetchEngine, journal, writer);
+				assertFalse(volume.isComplete());
+			}
+			assertFalse(Files.exists(directory.resolve("喜びの道.epub.part")));
+
+			try (EbookWriter writer = new EpubFormat().begin(directory, volume)) {
+				volume.retryFailedChaptersFromJournal(fetchEngine, journal, writer);
+				assertTrue(volume.isComplete());
+				writer.finish();
+			}
+		}
+
+		assertEquals(urls, volume.getChapters().stream().map(Chapter::getUrl).toList());
+		try (ZipFile zipFile = new ZipFile(directory.resolve("喜びの道.epub").toFile())) {
+			for (int i = 1; i <= urls.size(); i++) {
+				assertNotNull(zipFile.getEntry("OEBPS/c" + i + ".xhtml"));
+			}
+		}
+	}
+
+	/** Test chapters moved to a chapter store are written as when kept on the heap. */
+	@Test
+	public void testGenerateOffHeap() throws Exception {
+		List<String> urls = List.of("/1/", "/2/", "/3/");
+		Path heapDirectory = folder.newFolder("heap").toPath();
+		Path storeDirectory = folder.newFolder("store").toPath();
+
+		try (FetchEngine fetchEngine = new FetchEngine(4, 4); ChapterStore store = ChapterStore.create()) {
+			for (Path directory : List.of(heapDirectory, storeDirectory)) {
+				Volume volume = new Volume(new FlakyScraper(), urls);
+				volume.setTitle("喜びの道");
+				volume.setAuthor("作者");
+				volume.setVolumeNumber("01");
+				volume.setChapterStore(directory == storeDirectory ? store : null);
+				try (EbookWriter writer = new EpubFormat().begin(directory, volume)) {
+					volume.generate(fetchEngine, null, writer);
+					writer.finish();
+				}
+			}
+		}
+
+		try (ZipFile heapEpub = new ZipFile(heapDirectory.resolve("喜びの道.epub").toFile());
+			 ZipFile storeEpub = new ZipFile(storeDirectory.resolve("喜びの道.epub").toFile())) {
+			for (String entryName : List.of("OEBPS/c1.xhtml", "OEBPS/c2.xhtml", "OEBPS/c3.xhtml")) {
+				byte[] heapContent = heapEpub.getInputStream(heapEpub.getEntry(entryName)).readAllBytes();
+				byte[] storeContent = storeEpub.getInputStream(storeEpub.getEntry(entryName)).readAllBytes();
+				assertArrayEquals(heapContent, storeContent);
+				assertTrue(new String(storeContent, StandardCharsets.UTF_8).contains("<p>テキスト</p>"));
+			}
+		}
+	}
+
+	/** Test sequential generation still fails on the first failed chapter. */
+	@Test(expected = IOException.class)
+	public void testGenerateFailure() throws Exception {
+		new Volume(new FlakyScraper("/2/"), List.of("/1/", "/2/")).generate();
+	}
+
+}
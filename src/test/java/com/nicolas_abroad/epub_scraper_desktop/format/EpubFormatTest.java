@@ -9,23 +9,23 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.List;
+import java.util.stream.IntStream;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.ZipFile;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -35,18 +35,6 @@ import static org.junit.Assert.assertTrue;
  */
 public class EpubFormatTest {
 
-	private interface FunctionalException {
-		@FunctionalInterface
-		interface ConsumerWithExceptions<T, E extends Exception> {
-			void accept(T t) throws E;
-		}
-
-		@FunctionalInterface
-		interface BiConsumerWithExceptions<T, U, E extends Exception> {
-			void accept(T t, U u) throws E;
-		}
-	}
-
 	/** Tested class */
 	private final EpubFormat epubFormat = new EpubFormat();
 
@@ -112,81 +100,23 @@ public class EpubFormatTest {
         return Paths.get(file.getPath());
 	}
 
-	/** Read zip file */
-	private String readZipFile(File file) throws IOException {
-		StringBuilder sb = new StringBuilder();
-		try (ZipInputStream zipInStream = new ZipInputStream(new BufferedInputStream(new FileInputStream(file)))) {
-			while (true) {
-				ZipEntry entry = zipInStream.getNextEntry();
-				if (entry == null)
-					break;
-				if (entry.isDirectory()) {
-					sb.append(entry.getName()).append(System.lineSeparator());
-				} else {
-					ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-					while (true) {
-						int input = zipInStream.read();
-						if (input < 0)
-							break;
-						byteArrayOutputStream.write(input);
-					}
-					byteArrayOutputStream.flush();
-					byteArrayOutputStream.close();
-					sb.append(byteArrayOutputStream);
-				}
-				zipInStream.closeEntry();
+	/** Generate the epub of a volume, then read one of its files */
+	private String readEpubFile(Volume volume, String filePath) throws IOException {
+		Path directoryPath = folder.getRoot().toPath();
+		epubFormat.generate(directoryPath, volume);
+		try (ZipFile zipFile = new ZipFile(directoryPath.resolve(volume.getTitle() + ".epub").toFile())) {
+			ZipEntry entry = zipFile.getEntry(filePath);
+			assertNotNull(entry);
+			try (InputStream inputStream = zipFile.getInputStream(entry)) {
+				return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
 			}
 		}
-		return sb.toString();
-	}
-
-	/** Test writing file to zip */
-	@Test
-	public void testWriteFileToZip() throws IOException {
-		File epubFile = folder.newFile(volume.getTitle() + ".epub");
-		String filePath = "testTitle";
-		String fileContent = "testContent";
-		try (ZipOutputStream zipOutputStream = new ZipOutputStream(
-				new BufferedOutputStream(new FileOutputStream(epubFile)))) {
-			epubFormat.writeFileToZip(zipOutputStream, filePath, fileContent);
-		}
-
-		String actual = readZipFile(epubFile);
-		assertEquals(fileContent, actual);
-	}
-
-	private File executeTarget(FunctionalException.ConsumerWithExceptions<ZipOutputStream, IOException> generator) throws IOException {
-		File epubFile = folder.newFile(volume.getTitle() + ".epub");
-		try (ZipOutputStream zipOutputStream = new ZipOutputStream(
-				new BufferedOutputStream(new FileOutputStream(epubFile)))) {
-			generator.accept(zipOutputStream);
-		}
-		return epubFile;
-	}
-
-	private File executeTarget(FunctionalException.BiConsumerWithExceptions<ZipOutputStream, Volume, IOException> generator, Volume volume) throws IOException {
-		File epubFile = folder.newFile(volume.getTitle() + ".epub");
-		try (ZipOutputStream zipOutputStream = new ZipOutputStream(
-				new BufferedOutputStream(new FileOutputStream(epubFile)))) {
-			generator.accept(zipOutputStream, volume);
-		}
-		return epubFile;
-	}
-
-	private File executeTarget(FunctionalException.BiConsumerWithExceptions<ZipOutputStream, Chapter, IOException> generator, Chapter chapter) throws IOException {
-		File epubFile = folder.newFile(volume.getTitle() + ".epub");
-		try (ZipOutputStream zipOutputStream = new ZipOutputStream(
-				new BufferedOutputStream(new FileOutputStream(epubFile)))) {
-			generator.accept(zipOutputStream, chapter);
-		}
-		return epubFile;
 	}
 
 	/** Test mimetype file generation */
 	@Test
 	public void testGenerateMimetype() throws IOException {
-		File epubFile = executeTarget(epubFormat::generateMimetype);
-		String actual = readZipFile(epubFile);
+		String actual = readEpubFile(volume, "mimetype");
 		String expected = IOUtils.getFileContent("epub_templates/mimetype-test");
 		assertEquals(expected, actual);
 	}
@@ -194,8 +124,7 @@ public class EpubFormatTest {
 	/** Test container file generation */
 	@Test
 	public void testGenerateContainer() throws IOException {
-		File epubFile = executeTarget(epubFormat::generateContainer);
-		String actual = readZipFile(epubFile);
+		String actual = readEpubFile(volume, "META-INF/container.xml");
 		String expected = IOUtils.getFileContent("epub_templates/META-INF/container-test.xml");
 		assertEquals(expected, actual);
 	}
@@ -203,8 +132,7 @@ public class EpubFormatTest {
 	/** Test content file generation */
 	@Test
 	public void testGenerateContent() throws IOException {
-		File epubFile = executeTarget(epubFormat::generateContent, volume);
-		String actual = readZipFile(epubFile);
+		String actual = readEpubFile(volume, "OEBPS/content.opf");
 		String expected = IOUtils.getFileContent("epub_templates/OEBPS/content-test.opf");
 		assertEquals(expected, actual);
 	}
@@ -212,8 +140,7 @@ public class EpubFormatTest {
 	/** Test toc file generation */
 	@Test
 	public void testGenerateToc() throws IOException {
-		File epubFile = executeTarget(epubFormat::generateToc, volume);
-		String actual = readZipFile(epubFile);
+		String actual = readEpubFile(volume, "OEBPS/toc.ncx");
 		String expected = IOUtils.getFileContent("epub_templates/OEBPS/toc-test.ncx");
 		assertEquals(expected, actual);
 	}
@@ -221,8 +148,7 @@ public class EpubFormatTest {
 	/** Test chapter file generation */
 	@Test
 	public void testGenerateChapter() throws IOException {
-		File epubFile = executeTarget(epubFormat::generateChapter, volume.getChapters().getFirst());
-		String actual = readZipFile(epubFile);
+		String actual = readEpubFile(volume, "OEBPS/c1.xhtml");
 		String expected = IOUtils.getFileContent("epub_templates/OEBPS/chapter-test.xhtml");
 		assertEquals(expected, actual);
 	}
@@ -230,8 +156,7 @@ public class EpubFormatTest {
 	/** Test css file generation */
 	@Test
 	public void testGenerateCss() throws IOException {
-		File epubFile = executeTarget(epubFormat::generateCss);
-		String actual = readZipFile(epubFile);
+		String actual = readEpubFile(volume, "OEBPS/horizontal.css");
 		String expected = IOUtils.getFileContent("epub_templates/OEBPS/horizontal-test.css");
 		assertEquals(expected, actual);
 	}
@@ -239,8 +164,7 @@ public class EpubFormatTest {
 	/** Test page template file generation */
 	@Test
 	public void testGeneratePageTemplate() throws IOException {
-		File epubFile = executeTarget(epubFormat::generatePageTemplate);
-		String actual = readZipFile(epubFile);
+		String actual = readEpubFile(volume, "OEBPS/page-template.xpgt");
 		String expected = IOUtils.getFileContent("epub_templates/OEBPS/page-template-test.xpgt");
 		assertEquals(expected, actual);
 	}
@@ -248,8 +172,7 @@ public class EpubFormatTest {
 	/** Test nav file generation */
 	@Test
 	public void testGenerateNav() throws IOException {
-		File epubFile = executeTarget(epubFormat::generateNav, volume);
-		String actual = readZipFile(epubFile);
+		String actual = readEpubFile(volume, "OEBPS/nav.xhtml");
 		String expected = IOUtils.getFileContent("epub_templates/OEBPS/nav-test.xhtml");
 		assertEquals(expected, actual);
 	}
@@ -282,6 +205,101 @@ public class EpubFormatTest {
 		epubFile.deleteOnExit();
 	}
 
+	/** Test chapters added out of order are written in order, and the streamed epub conforms to specifications */
+	@Test
+	public void testBeginReorder() throws IOException {
+		Path directoryPath = folder.getRoot().toPath();
+		Volume streamedVolume = new Volume();
+		streamedVolume.setTitle("流れの道");
+		streamedVolume.setAuthor("作者");
+		streamedVolume.setVolumeNumber("02");
+		List<Chapter> chapters = Arrays.asList(generateChapter(1), generateChapter(2), generateChapter(3));
+
+		try (EbookWriter writer = epubFormat.begin(directoryPath, streamedVolume)) {
+			writer.addChapter(2, chapters.get(2));
+			writer.addChapter(0, chapters.get(0));
+			writer.addChapter(1, chapters.get(1));
+			WriteReport report = writer.finish();
+			assertTrue(report.fileSize() < report.contentSize());
+		}
+		for (Chapter chapter : chapters) {
+			assertNull(chapter.getText());
+			assertNotNull(chapter.getContentHash());
+		}
+
+		File epubFile = directoryPath.resolve("流れの道.epub").toFile();
+		try (ZipFile zipFile = new ZipFile(epubFile)) {
+			List<String> chapterEntries = zipFile.stream().map(ZipEntry::getName)
+					.filter(name -> name.matches("OEBPS/c\\d+\\.xhtml")).toList();
+			assertEquals(List.of("OEBPS/c1.xhtml", "OEBPS/c2.xhtml", "OEBPS/c3.xhtml"), chapterEntries);
+		}
+		assertEquals(0, new EpubCheck(epubFile).doValidate());
+	}
+
+	/** Test chapters waiting for a missing one are spilled to disk beyond the in-memory window */
+	@Test
+	public void testBeginSpill() throws Exception {
+		Path directoryPath = folder.getRoot().toPath();
+		Volume streamedVolume = new Volume();
+		streamedVolume.setTitle("溢れの道");
+		streamedVolume.setAuthor("作者");
+		streamedVolume.setVolumeNumber("03");
+		int chapterCount = EpubWriter.MAX_BUFFERED_CHAPTERS + 2 * EpubWriter.MAX_COMPRESSING_CHAPTERS + 10;
+
+		try (EbookWriter writer = epubFormat.begin(directoryPath, streamedVolume)) {
+			EpubWriter epubWriter = (EpubWriter) writer;
+			for (int i = 1; i < chapterCount; i++) {
+				writer.addChapter(i, generateChapter(i + 1));
+			}
+			long deadline = System.currentTimeMillis() + 10_000;
+			while (epubWriter.getSpilledChapterCount() < chapterCount - 1 - EpubWriter.MAX_BUFFERED_CHAPTERS
+					&& System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(chapterCount - 1 - EpubWriter.MAX_BUFFERED_CHAPTERS, epubWriter.getSpilledChapterCount());
+			assertEquals(EpubWriter.MAX_BUFFERED_CHAPTERS, epubWriter.getBufferedChapterCount());
+
+			writer.addChapter(0, generateChapter(1));
+			writer.finish();
+		}
+		assertFalse(Files.exists(directoryPath.resolve("溢れの道.epub.spill")));
+
+		File epubFile = directoryPath.resolve("溢れの道.epub").toFile();
+		try (ZipFile zipFile = new ZipFile(epubFile)) {
+			List<String> chapterEntries = zipFile.stream().map(ZipEntry::getName)
+					.filter(name -> name.matches("OEBPS/c\\d+\\.xhtml")).toList();
+			assertEquals(IntStream.rangeClosed(1, chapterCount).mapToObj(i -> "OEBPS/c" + i + ".xhtml").toList(),
+					chapterEntries);
+		}
+		assertEquals(0, new EpubCheck(epubFile).doValidate());
+	}
+
+	/** Test static files are stored, with the mimetype first, and rendered files are deflated */
+	@Test
+	public void testEntryMethods() throws IOException {
+		Path directoryPath = folder.getRoot().toPath();
+		epubFormat.generate(directoryPath, volume);
+		try (ZipFile zipFile = new ZipFile(directoryPath.resolve("喜びの道.epub").toFile())) {
+			assertEquals("mimetype", zipFile.entries().nextElement().getName());
+			assertEquals(ZipEntry.STORED, zipFile.getEntry("mimetype").getMethod());
+			assertEquals(ZipEntry.STORED, zipFile.getEntry("OEBPS/horizontal.css").getMethod());
+			assertEquals(ZipEntry.DEFLATED, zipFile.getEntry("OEBPS/c1.xhtml").getMethod());
+			assertEquals(ZipEntry.DEFLATED, zipFile.getEntry("OEBPS/content.opf").getMethod());
+		}
+	}
+
+	/** Test an unfinished epub is discarded */
+	@Test
+	public void testBeginDiscard() throws IOException {
+		Path directoryPath = folder.getRoot().toPath();
+		try (EbookWriter writer = epubFormat.begin(directoryPath, volume)) {
+			writer.addChapter(1, generateChapter(2));
+		}
+		try (var files = Files.list(directoryPath)) {
+			assertEquals(0, files.count());
+		}
+	}
+
 	/** Move file to tmp folder */
 	private File moveToTmpFolder(Path originalPath) throws IOException {
 		String strPath = folder.getRoot().getPath() + "\\" + originalPath.getFileName().toString();
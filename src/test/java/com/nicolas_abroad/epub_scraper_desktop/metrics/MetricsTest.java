@@ -0,0 +1,79 @@
+package com.nicolas_abroad.epub_scraper_desktop.metrics;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test class for the Metrics class.
+ *
+ * @author Nicolas
+ */
+public class MetricsTest {
+
+	/** Temporary folder used as export directory */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/** Test latencies land in power of two buckets, and percentiles are estimated from the bucket bounds. */
+	@Test
+	public void testHistogram() {
+		assertEquals(0, LatencyHistogram.getBucketIndex(500));
+		assertEquals(1, LatencyHistogram.getBucketIndex(2_000));
+		assertEquals(2, LatencyHistogram.getBucketIndex(3_000));
+		assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.getBucketIndex(Long.MAX_VALUE));
+
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 0; i < 98; i++) {
+			histogram.record(3_000_000);
+		}
+		histogram.record(900_000_000);
+		histogram.record(1_000_000_000);
+
+		assertEquals(100, histogram.getCount());
+		// 3ms is in the 4.096ms bucket
+		assertEquals(4_096_000, histogram.getPercentileNanos(50));
+		assertEquals(1_000_000_000, histogram.getPercentileNanos(99.5));
+		assertEquals(1_000_000_000, histogram.getMaxNanos());
+	}
+
+	/** Test metrics are recorded by phase and host, and exported as JSON and Prometheus text. */
+	@Test
+	public void testExport() throws IOException {
+		Metrics metrics = new Metrics();
+		long start = System.nanoTime();
+		metrics.record(Phase.CHAPTER_FETCH, "https://ncode.syosetu.com/n4128bn/1/", start);
+		metrics.record(Phase.CHAPTER_FETCH, "https://ncode.syosetu.com/n4128bn/2/", start);
+		metrics.recordError(Phase.CHAPTER_FETCH, "ncode.syosetu.com/n4128bn/3/");
+		metrics.record(Phase.ZIP_WRITE, "https://kakuyomu.jp/works/4852201425154898215/episodes/1", start, 1024);
+
+		Path directory = folder.getRoot().toPath().resolve("metrics");
+		metrics.export(directory);
+
+		JsonNode json = new ObjectMapper().readTree(directory.resolve(Metrics.JSON_FILE_NAME).toFile());
+		JsonNode chapterFetch = json.get("phases").get(0);
+		assertEquals("chapter_fetch", chapterFetch.get("phase").asText());
+		assertEquals("ncode.syosetu.com", chapterFetch.get("host").asText());
+		assertEquals(2, chapterFetch.get("count").asLong());
+		assertEquals(1, chapterFetch.get("errors").asLong());
+		assertEquals(1024, json.get("phases").get(1).get("bytes").asLong());
+
+		String prometheus = Files.readString(directory.resolve(Metrics.PROMETHEUS_FILE_NAME));
+		assertTrue(prometheus.contains("# TYPE ebook_scraper_phase_duration_seconds histogram"));
+		assertTrue(prometheus.contains(
+				"ebook_scraper_phase_duration_seconds_bucket{phase=\"chapter_fetch\",host=\"ncode.syosetu.com\",le=\"+Inf\"} 2"));
+		assertTrue(prometheus.contains(
+				"ebook_scraper_phase_errors_total{phase=\"chapter_fetch\",host=\"ncode.syosetu.com\"} 1"));
+		assertTrue(prometheus.contains("ebook_scraper_phase_bytes_total{phase=\"zip_write\",host=\"kakuyomu.jp\"} 1024"));
+	}
+
+}
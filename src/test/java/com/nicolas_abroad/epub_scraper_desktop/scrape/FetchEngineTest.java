@@ -0,0 +1,137 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test class for the FetchEngine class.
+ *
+ * @author Nicolas
+ */
+public class FetchEngineTest {
+
+	private static List<String> generateUrls(String host, int count) {
+		return IntStream.rangeClosed(1, count).mapToObj(i -> "https://" + host + "/n0000aa/" + i + "/").toList();
+	}
+
+	/** Test results keep the url order whatever the completion order. */
+	@Test
+	public void testFetchAllKeepsOrder() throws Exception {
+		List<String> urls = generateUrls("ncode.syosetu.com", 50);
+		try (FetchEngine fetchEngine = new FetchEngine(8, 8)) {
+			List<String> actual = fetchEngine.fetchAll(urls, url -> {
+				Thread.sleep(ThreadLocalRandom.current().nextInt(5));
+				return url;
+			});
+			assertEquals(urls, actual);
+		}
+	}
+
+	/** Test the per-host limit is never exceeded. */
+	@Test
+	public void testFetchAllRespectsHostLimit() throws Exception {
+		AtomicInteger running = new AtomicInteger();
+		AtomicInteger maxRunning = new AtomicInteger();
+		try (FetchEngine fetchEngine = new FetchEngine(10, 3)) {
+			fetchEngine.fetchAll(generateUrls("kakuyomu.jp", 30), url -> {
+				maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				Thread.sleep(2);
+				running.decrementAndGet();
+				return url;
+			});
+		}
+		assertTrue(maxRunning.get() <= 3);
+	}
+
+	/** Test a failing fetch is rethrown. */
+	@Test
+	public void testFetchAllRethrowsFailure() throws Exception {
+		try (FetchEngine fetchEngine = new FetchEngine(4, 2)) {
+			fetchEngine.fetchAll(generateUrls("ncode.syosetu.com", 10), url -> {
+				if (url.endsWith("/5/")) {
+					throw new IllegalStateException(url);
+				}
+				return url;
+			});
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("https://ncode.syosetu.com/n0000aa/5/", e.getMessage());
+		}
+	}
+
+	/** Test staged fetches parse on the parse pool, within its thread count, and write results in url order. */
+	@Test
+	public void testStagedFetchAll() throws Exception {
+		List<String> urls = generateUrls("ncode.syosetu.com", 40);
+		List<String> results = new ArrayList<>();
+		AtomicInteger parsing = new AtomicInteger();
+		AtomicInteger maxParsing = new AtomicInteger();
+		Thread writer = Thread.currentThread();
+		try (FetchEngine fetchEngine = new FetchEngine(8, 8, 2)) {
+			fetchEngine.fetchAll(urls, url -> {
+				Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+				return url.length();
+			}, (url, length) -> {
+				assertTrue(Thread.currentThread().getName().startsWith("parse-"));
+				maxParsing.accumulateAndGet(parsing.incrementAndGet(), Math::max);
+				Thread.sleep(1);
+				parsing.decrementAndGet();
+				return url + ":" + length;
+			}, (url, parsed) -> {
+				assertSame(writer, Thread.currentThread());
+				results.add(parsed);
+			});
+		}
+		assertEquals(urls.stream().map(url -> url + ":" + url.length()).toList(), results);
+		assertTrue(maxParsing.get() <= 2);
+	}
+
+	/** Test a slow writer slows fetching and parsing down, instead of letting parsed results pile up. */
+	@Test
+	public void testStagedFetchAllSlowWriter() throws Exception {
+		List<String> urls = generateUrls("kakuyomu.jp", 200);
+		AtomicInteger fetched = new AtomicInteger();
+		AtomicInteger written = new AtomicInteger();
+		AtomicInteger maxAhead = new AtomicInteger();
+		try (FetchEngine fetchEngine = new FetchEngine(8, 8, 2)) {
+			fetchEngine.fetchAll(urls, url -> {
+				maxAhead.accumulateAndGet(fetched.incrementAndGet() - written.get(), Math::max);
+				return url;
+			}, (url, fetchedUrl) -> fetchedUrl, (url, parsed) -> {
+				Thread.sleep(1);
+				written.incrementAndGet();
+			});
+			assertTrue(maxAhead.get() <= fetchEngine.getStagedWindow());
+			assertTrue(fetchEngine.getStagedWindow() < urls.size());
+		}
+		assertEquals(urls.size(), written.get());
+	}
+
+	/** Test a failing parse is rethrown as is. */
+	@Test
+	public void testStagedFetchAllRethrowsParseFailure() throws Exception {
+		try (FetchEngine fetchEngine = new FetchEngine(4, 2, 2)) {
+			fetchEngine.fetchAll(generateUrls("kakuyomu.jp", 10), url -> url, (url, fetched) -> {
+				if (url.endsWith("/5/")) {
+					throw new IllegalStateException(url);
+				}
+				return fetched;
+			}, (url, parsed) -> {
+			});
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("https://kakuyomu.jp/n0000aa/5/", e.getMessage());
+		}
+	}
+
+}
@@ -0,0 +1,74 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.batch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit test class for the BatchJob class.
+ *
+ * @author Nicolas
+ */
+public class BatchJobTest {
+
+	/** Temporary folder holding batch files */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/** Test batch files are read in order, skipping comments and empty lines. */
+	@Test
+	public void testReadFile() throws IOException {
+		Path path = folder.getRoot().toPath().resolve("batch.txt");
+		Files.writeString(path, """
+				# nightly sync
+				https://ncode.syosetu.com/n4128bn/ 1,3-4
+
+				kakuyomu.jp/works/4852201425154898215 all
+				https://ncode.syosetu.com/n0000aa/
+				""");
+
+		List<BatchJob> jobs = BatchJob.readFile(path);
+
+		assertEquals(3, jobs.size());
+		assertEquals("https://ncode.syosetu.com/n4128bn/", jobs.get(0).url());
+		assertEquals(Set.of(1, 3, 4), jobs.get(0).targetVolumeNumbers());
+		assertNull(jobs.get(1).targetVolumeNumbers());
+		assertNull(jobs.get(2).targetVolumeNumbers());
+		assertEquals("ncode.syosetu.com", jobs.get(0).getHost());
+		assertEquals("kakuyomu.jp", jobs.get(1).getHost());
+	}
+
+	/** Test invalid lines are reported with their line number. */
+	@Test
+	public void testInvalidLine() throws IOException {
+		Path path = folder.getRoot().toPath().resolve("batch.txt");
+		Files.writeString(path, """
+				https://ncode.syosetu.com/n4128bn/
+				https://example.com/n4128bn/
+				""");
+
+		try {
+			BatchJob.readFile(path);
+		} catch (IllegalArgumentException e) {
+			assertEquals(path + ":2: Unsupported url: https://example.com/n4128bn/", e.getMessage());
+			return;
+		}
+		throw new AssertionError("Invalid line was not reported");
+	}
+
+	/** Test invalid volumes are rejected. */
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidVolumes() {
+		BatchJob.parse("https://ncode.syosetu.com/n4128bn/ first");
+	}
+
+}
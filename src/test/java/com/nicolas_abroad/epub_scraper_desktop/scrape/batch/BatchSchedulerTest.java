@@ -0,0 +1,55 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.batch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test class for the BatchScheduler class.
+ *
+ * @author Nicolas
+ */
+public class BatchSchedulerTest {
+
+	/** Test global and per-host story limits are never exceeded, and failed jobs are reported. */
+	@Test
+	public void testLimits() throws InterruptedException {
+		List<BatchJob> jobs = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			jobs.add(BatchJob.parse("https://ncode.syosetu.com/n000" + i + "aa/"));
+			jobs.add(BatchJob.parse("https://kakuyomu.jp/works/485220142515489821" + (i % 10)));
+		}
+		AtomicInteger runningStories = new AtomicInteger();
+		AtomicInteger maxRunningStories = new AtomicInteger();
+		Map<String, AtomicInteger> runningStoriesByHost = new ConcurrentHashMap<>();
+		Map<String, AtomicInteger> maxRunningStoriesByHost = new ConcurrentHashMap<>();
+
+		List<BatchJob> failedJobs = new BatchScheduler(3, 2).run(jobs, job -> {
+			AtomicInteger hostStories = runningStoriesByHost.computeIfAbsent(job.getHost(), host -> new AtomicInteger());
+			maxRunningStories.accumulateAndGet(runningStories.incrementAndGet(), Math::max);
+			maxRunningStoriesByHost.computeIfAbsent(job.getHost(), host -> new AtomicInteger())
+					.accumulateAndGet(hostStories.incrementAndGet(), Math::max);
+			Thread.sleep(10);
+			hostStories.decrementAndGet();
+			runningStories.decrementAndGet();
+			if (job.url().endsWith("n0003aa/")) {
+				throw new IllegalStateException("Story removed");
+			}
+			return !job.url().endsWith("4852201425154898215");
+		});
+
+		assertTrue(maxRunningStories.get() <= 3);
+		assertEquals(2, maxRunningStoriesByHost.size());
+		maxRunningStoriesByHost.values().forEach(max -> assertTrue(max.get() <= 2));
+		assertEquals(List.of("https://ncode.syosetu.com/n0003aa/", "https://kakuyomu.jp/works/4852201425154898215"),
+				failedJobs.stream().map(BatchJob::url).toList());
+	}
+
+}
@@ -0,0 +1,134 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.http;
+
+import com.nicolas_abroad.epub_scraper_desktop.scrape.sources.EbookScraper;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.sources.SyosetsuScraper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit test class for the HttpTransport class.
+ *
+ * @author Nicolas
+ */
+public class HttpTransportTest {
+
+	/** Temporary folder used as cache directory */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final String AGE_CHECK = "<h1>年齢確認</h1>";
+	private static final String CHAPTER = "<p>本文</p>";
+
+	/** Website serving an age check to requests without a session, and chapters under /revised/ by revision */
+	private HttpServer website;
+
+	private final AtomicInteger revision = new AtomicInteger(1);
+
+	@Before
+	public void setUp() throws IOException {
+		website = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		website.createContext("/", this::handleWebsite);
+		website.createContext("/revised/", exchange -> {
+			try (exchange) {
+				send(exchange, "<p>第" + revision.get() + "版</p>");
+			}
+		});
+		website.start();
+	}
+
+	@After
+	public void tearDown() {
+		website.stop(0);
+	}
+
+	private void handleWebsite(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			String cookies = exchange.getRequestHeaders().getFirst("Cookie");
+			String body;
+			if (cookies != null && cookies.contains("ses=1")) {
+				body = CHAPTER;
+			} else {
+				exchange.getResponseHeaders().add("Set-Cookie", "ses=1; Path=/");
+				body = AGE_CHECK;
+			}
+			send(exchange, body);
+		}
+	}
+
+	private static void send(HttpExchange exchange, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+		exchange.sendResponseHeaders(200, bytes.length);
+		try (OutputStream output = exchange.getResponseBody()) {
+			output.write(bytes);
+		}
+	}
+
+	private String websiteUrl(String path) {
+		return "http://127.0.0.1:" + website.getAddress().getPort() + path;
+	}
+
+	private static String text(FetchedPage page) {
+		return new String(page.getBody(), StandardCharsets.UTF_8);
+	}
+
+	/** Test the age check and the page behind it are cached apart, and the session is resumed offline. */
+	@Test
+	public void testCacheKeepsAgeCheckApart() throws IOException {
+		String url = websiteUrl("/n0000aa/1/");
+		try (HttpTransport transport = new HttpTransport();
+			 ResponseCache cache = new ResponseCache(folder.getRoot().toPath(), 1024 * 1024)) {
+			transport.setCache(cache);
+			FetchedPage ageCheck = transport.get(url, Map.of());
+			assertEquals(AGE_CHECK, text(ageCheck));
+			assertEquals(CHAPTER, text(transport.get(url, Map.of("ses", ageCheck.cookie("ses"), "over18", "yes"))));
+
+			website.stop(0);
+			transport.setOffline(true);
+			ageCheck = transport.get(url, Map.of());
+			assertEquals(AGE_CHECK, text(ageCheck));
+			assertEquals("1", ageCheck.cookie("ses"));
+			assertEquals(CHAPTER, text(transport.get(url, Map.of("ses", ageCheck.cookie("ses"), "over18", "yes"))));
+		}
+	}
+
+	/** Test fresh urls only last for the story run of their scraper, so a chapter revised since is fetched again. */
+	@Test
+	public void testFreshUrlsScopedToStoryRun() throws Exception {
+		String url = websiteUrl("/revised/1/");
+		try (HttpTransport transport = new HttpTransport();
+			 ResponseCache cache = new ResponseCache(folder.getRoot().toPath(), 1024 * 1024)) {
+			transport.setCache(cache);
+
+			// First sync: the chapter is cached, then marked as unchanged
+			EbookScraper firstRun = new SyosetsuScraper();
+			firstRun.setTransport(transport);
+			assertEquals("<p>第1版</p>", text(firstRun.fetchChapterPage(url)));
+			firstRun.markFresh(List.of(url));
+			revision.set(2);
+			assertEquals("<p>第1版</p>", text(firstRun.fetchChapterPage(url)));
+
+			// Second sync in the same process: the chapter was revised, so it is not marked and is fetched again
+			EbookScraper secondRun = new SyosetsuScraper();
+			secondRun.setTransport(transport);
+			assertEquals("<p>第2版</p>", text(secondRun.fetchChapterPage(url)));
+		}
+	}
+
+}
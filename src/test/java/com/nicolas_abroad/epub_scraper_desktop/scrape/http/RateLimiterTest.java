@@ -0,0 +1,80 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.http;
+
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test class for the RateLimiter and TokenBucket classes.
+ *
+ * @author Nicolas
+ */
+public class RateLimiterTest {
+
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	/** Test burst requests are sent immediately, then spaced by the rate. */
+	@Test
+	public void testReserve() {
+		AtomicLong clock = new AtomicLong();
+		TokenBucket bucket = new TokenBucket(2, 2, clock::get);
+		assertEquals(0, bucket.reserve());
+		assertEquals(0, bucket.reserve());
+		assertEquals(SECOND / 2, bucket.reserve());
+		assertEquals(SECOND, bucket.reserve());
+
+		clock.addAndGet(10 * SECOND);
+		assertEquals(0, bucket.reserve());
+	}
+
+	/** Test throttling pauses the host and halves the rate, then the rate recovers. */
+	@Test
+	public void testThrottle() {
+		AtomicLong clock = new AtomicLong();
+		TokenBucket bucket = new TokenBucket(4, 4, clock::get);
+		bucket.throttle(3 * SECOND);
+		assertEquals(2.0, bucket.getRate(), 0.0);
+		assertTrue(bucket.reserve() >= 3 * SECOND);
+
+		for (int i = 0; i < 100; i++) {
+			bucket.succeed();
+		}
+		assertEquals(4.0, bucket.getRate(), 0.0);
+	}
+
+	/** Test Retry-After parsing. */
+	@Test
+	public void testParseRetryAfter() {
+		Instant now = Instant.parse("2024-01-01T00:00:00Z");
+		assertEquals(Long.valueOf(120 * SECOND), RateLimiter.parseRetryAfter("120", now));
+		assertEquals(Long.valueOf(30 * SECOND), RateLimiter.parseRetryAfter("Mon, 01 Jan 2024 00:00:30 GMT", now));
+		assertNull(RateLimiter.parseRetryAfter("soon", now));
+		assertNull(RateLimiter.parseRetryAfter(null, now));
+	}
+
+	/** Test Retry-After is honoured by the backoff. */
+	@Test
+	public void testComputeBackoff() {
+		RateLimiter rateLimiter = new RateLimiter();
+		assertTrue(rateLimiter.computeBackoffNanos(0, "5") >= 5 * SECOND);
+		assertTrue(rateLimiter.computeBackoffNanos(20, null) <= 60 * SECOND);
+	}
+
+	/** Test buckets are kept by host. */
+	@Test
+	public void testGetBucket() {
+		RateLimiter rateLimiter = new RateLimiter();
+		assertSame(rateLimiter.getBucket("kakuyomu.jp"), rateLimiter.getBucket("kakuyomu.jp"));
+		assertEquals(4.0, rateLimiter.getBucket("kakuyomu.jp").getRate(), 0.0);
+		rateLimiter.setHostRate("kakuyomu.jp", 1);
+		assertEquals(1.0, rateLimiter.getBucket("kakuyomu.jp").getRate(), 0.0);
+	}
+
+}
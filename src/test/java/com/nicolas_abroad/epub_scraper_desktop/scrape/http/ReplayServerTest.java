@@ -0,0 +1,152 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jsoup.HttpStatusException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit test class for the ReplayServer class.
+ *
+ * @author Nicolas
+ */
+public class ReplayServerTest {
+
+	/** Temporary folder used as fixture directory */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final byte[] PAGE = "<html><body><h1>喜びの道</h1></body></html>".getBytes(StandardCharsets.UTF_8);
+
+	/** Website the pages are recorded from */
+	private HttpServer website;
+
+	private final AtomicInteger websiteRequests = new AtomicInteger();
+
+	private FixtureStore fixtureStore;
+
+	@Before
+	public void setUp() throws IOException {
+		website = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		website.createContext("/", this::handleWebsite);
+		website.start();
+		fixtureStore = new FixtureStore(folder.getRoot().toPath());
+	}
+
+	@After
+	public void tearDown() {
+		website.stop(0);
+	}
+
+	private void handleWebsite(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			websiteRequests.incrementAndGet();
+			String path = exchange.getRequestURI().toString();
+			if (path.equals("/old/")) {
+				exchange.getResponseHeaders().set("Location", "/n0000aa/?p=2");
+				exchange.sendResponseHeaders(301, -1);
+				return;
+			}
+			exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+			exchange.getResponseHeaders().set("ETag", "\"1\"");
+			exchange.sendResponseHeaders(200, PAGE.length);
+			try (OutputStream output = exchange.getResponseBody()) {
+				output.write(PAGE);
+			}
+		}
+	}
+
+	private String websiteUrl(String path) {
+		return "http://127.0.0.1:" + website.getAddress().getPort() + path;
+	}
+
+	private void record(String... paths) throws IOException {
+		try (HttpTransport transport = new HttpTransport()) {
+			transport.setRecorder(fixtureStore);
+			for (String path : paths) {
+				transport.get(websiteUrl(path), Map.of());
+			}
+		}
+	}
+
+	/** Test recorded pages are replayed with the urls, charset and headers of the website, without reaching it. */
+	@Test
+	public void testReplay() throws IOException {
+		record("/n0000aa/", "/old/");
+		website.stop(0);
+		int recordedRequests = websiteRequests.get();
+
+		try (ReplayServer replayServer = new ReplayServer(0, fixtureStore);
+			 HttpTransport transport = new HttpTransport()) {
+			replayServer.start();
+			transport.setBaseUrl(replayServer.getBaseUrl());
+
+			FetchedPage page = transport.get(websiteUrl("/n0000aa/"), Map.of());
+			assertEquals(websiteUrl("/n0000aa/"), page.getUrl());
+			assertEquals("UTF-8", page.getCharset());
+			assertEquals("\"1\"", page.header("ETag"));
+			assertArrayEquals(PAGE, page.getBody());
+			assertEquals("喜びの道", page.parse().selectFirst("h1").text());
+
+			// Redirects are replayed, and lead to the recorded page of the final url
+			FetchedPage redirectedPage = transport.get(websiteUrl("/old/"), Map.of());
+			assertEquals(websiteUrl("/n0000aa/?p=2"), redirectedPage.getUrl());
+			assertArrayEquals(PAGE, redirectedPage.getBody());
+		}
+		assertEquals(recordedRequests, websiteRequests.get());
+	}
+
+	/** Test pages that were not recorded are not found. */
+	@Test
+	public void testNotRecorded() throws IOException {
+		record("/n0000aa/");
+
+		try (ReplayServer replayServer = new ReplayServer(0, fixtureStore);
+			 HttpTransport transport = new HttpTransport()) {
+			replayServer.start();
+			transport.setBaseUrl(replayServer.getBaseUrl());
+			transport.get(websiteUrl("/n1111bb/"), Map.of());
+			fail("Page was not recorded");
+		} catch (HttpStatusException e) {
+			assertEquals(404, e.getStatusCode());
+		}
+		assertNull(fixtureStore.find(websiteUrl("/n1111bb/")));
+	}
+
+	/** Test replayed pages are delayed by the configured latency. */
+	@Test
+	public void testLatency() throws IOException {
+		record("/n0000aa/");
+
+		try (ReplayServer replayServer = new ReplayServer(0, fixtureStore);
+			 HttpTransport transport = new HttpTransport()) {
+			replayServer.setLatency(Duration.ofMillis(200), Duration.ofMillis(300));
+			replayServer.start();
+			transport.setBaseUrl(replayServer.getBaseUrl());
+
+			long start = System.nanoTime();
+			transport.get(websiteUrl("/n0000aa/"), Map.of());
+			assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() >= 200);
+		}
+	}
+
+}
@@ -0,0 +1,95 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.http;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test class for the ResponseCache class.
+ *
+ * @author Nicolas
+ */
+public class ResponseCacheTest {
+
+	/** Temporary folder used as cache directory */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static FetchedPage generatePage(String url, byte[] body) {
+		Map<String, String> headers = Map.of("etag", "\"" + url.hashCode() + "\"",
+				"last-modified", "Mon, 01 Jan 2024 00:00:00 GMT");
+		return new FetchedPage(url, 200, "UTF-8", headers, Collections.emptyMap(), body);
+	}
+
+	private static byte[] generateRandomBody(int size) {
+		byte[] body = new byte[size];
+		new Random(size).nextBytes(body);
+		return body;
+	}
+
+	/** Test stored pages are read back with their validators, also after reopening the cache. */
+	@Test
+	public void testPutAndGet() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		String url = "https://ncode.syosetu.com/n0000aa/1/";
+		byte[] body = "<p>テキスト</p>".getBytes(StandardCharsets.UTF_8);
+
+		try (ResponseCache cache = new ResponseCache(directory, 1024 * 1024)) {
+			cache.put(url, generatePage(url, body));
+		}
+
+		try (ResponseCache cache = new ResponseCache(directory, 1024 * 1024)) {
+			ResponseCache.CacheEntry entry = cache.get(url);
+			assertNotNull(entry);
+			assertArrayEquals(body, cache.readBody(entry));
+			assertEquals("UTF-8", entry.getCharset());
+
+			Map<String, String> headers = ResponseCache.conditionalHeaders(entry);
+			assertEquals(entry.getEtag(), headers.get("If-None-Match"));
+			assertEquals("Mon, 01 Jan 2024 00:00:00 GMT", headers.get("If-Modified-Since"));
+		}
+	}
+
+	/** Test identical bodies are stored once. */
+	@Test
+	public void testContentAddressing() throws IOException {
+		try (ResponseCache cache = new ResponseCache(folder.getRoot().toPath(), 1024 * 1024)) {
+			byte[] body = generateRandomBody(1000);
+			cache.put("https://kakuyomu.jp/works/1", generatePage("https://kakuyomu.jp/works/1", body));
+			long size = cache.getTotalSize();
+			cache.put("https://kakuyomu.jp/works/2", generatePage("https://kakuyomu.jp/works/2", body));
+			assertEquals(size, cache.getTotalSize());
+		}
+	}
+
+	/** Test least recently used pages are evicted once the size limit is exceeded. */
+	@Test
+	public void testEviction() throws IOException {
+		try (ResponseCache cache = new ResponseCache(folder.getRoot().toPath(), 2500)) {
+			cache.put("https://kakuyomu.jp/works/1", generatePage("https://kakuyomu.jp/works/1", generateRandomBody(1000)));
+			cache.put("https://kakuyomu.jp/works/2", generatePage("https://kakuyomu.jp/works/2", generateRandomBody(1001)));
+			// Access first page, so the second one becomes the least recently used
+			cache.get("https://kakuyomu.jp/works/1");
+			cache.put("https://kakuyomu.jp/works/3", generatePage("https://kakuyomu.jp/works/3", generateRandomBody(1002)));
+
+			assertNotNull(cache.get("https://kakuyomu.jp/works/1"));
+			assertNull(cache.get("https://kakuyomu.jp/works/2"));
+			assertNotNull(cache.get("https://kakuyomu.jp/works/3"));
+			assertTrue(cache.getTotalSize() <= 2500);
+		}
+	}
+
+}
@@ -0,0 +1,59 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.sources;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Entities.EscapeMode;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit test class for the ChapterSanitizer class.
+ *
+ * @author Nicolas
+ */
+public class ChapterSanitizerTest {
+
+	/** Chapter body with every construct the legacy regex chain handled */
+	private static final String CHAPTER = """
+			<div id="novel_honbun">
+			<p id="L1"> 「あいう」<ruby>漢字<rp>(</rp><rt>かんじ</rt><rp>)</rp></ruby>です。</p>
+			<p id="L2"><br></p>
+			<p id="L3" title="a &quot;b&quot; &lt;c&gt; &amp; d ">1 &lt; 2 &amp;&amp; 3 &gt; 2 "q"</p>
+			<p id="L4"><a href="https://example.com/?a=1&amp;b=2" target="_blank" class="link"><img src="https://example.com/a.jpg" border="0" alt="a"></a></p>
+			<p id="L5"><a class="link" href="/x">link</a><!-- comment --></p>
+			<div class="koukoku">広告</div>
+			</div>""";
+
+	private static Element parseChapter(String html) {
+		Document document = Jsoup.parse(html).normalise();
+		document.outputSettings().escapeMode(EscapeMode.xhtml).prettyPrint(false).indentAmount(0).charset("UTF-8");
+		return document.selectFirst("#novel_honbun");
+	}
+
+	/** Test the sanitizer writes what the legacy regex chain made of the serialized elements. */
+	@Test
+	public void testSameAsRegexChain() {
+		Element container = parseChapter(CHAPTER);
+		StringBuilder html = new StringBuilder();
+		for (Element element : container.children()) {
+			if (!element.hasClass("koukoku")) {
+				html.append(element.outerHtml());
+			}
+		}
+
+		assertEquals(EbookScraper.cleanChapterText(html.toString()),
+				ChapterSanitizer.sanitize(container, element -> element.hasClass("koukoku")));
+	}
+
+	/** Test every void element is closed and border attributes are stripped from every element. */
+	@Test
+	public void testXhtmlOutput() {
+		Element container = parseChapter("<div id=\"novel_honbun\"><table border=\"1\"><tr><td>a<hr></td></tr></table></div>");
+
+		assertEquals("<table><tbody><tr><td>a<hr></hr></td></tr></tbody></table>",
+				ChapterSanitizer.sanitize(container, element -> false));
+	}
+
+}
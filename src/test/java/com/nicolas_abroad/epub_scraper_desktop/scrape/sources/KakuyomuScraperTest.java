@@ -1,6 +1,7 @@
 package com.nicolas_abroad.epub_scraper_desktop.scrape.sources;
 
 import org.jsoup.nodes.Document;
+import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -31,6 +32,8 @@ public class KakuyomuScraperTest {
 
 	private static Document chapter;
 
+	private static ScraperFixtures fixtures;
+
 	/**
 	 * Set up html documents.
 	 *
@@ -38,6 +41,7 @@ public class KakuyomuScraperTest {
 	 */
 	@BeforeClass
 	public static void setUp() throws IOException {
+		fixtures = ScraperFixtures.open(scraper, "kakuyomu.jp");
 		noVolumeDocument = scraper.parseHTMLDocument("https://kakuyomu.jp/works/1177354054882078516");
 		volumeDocument = scraper.parseHTMLDocument("https://kakuyomu.jp/works/1177354054891792326");
 		volumeWithSubtitlesDocument = scraper.parseHTMLDocument("https://kakuyomu.jp/works/1177354054884850859");
@@ -45,6 +49,14 @@ public class KakuyomuScraperTest {
 				.parseHTMLDocument("https://kakuyomu.jp/works/1177354054891792326/episodes/1177354054891799922");
 	}
 
+	/** Stop serving recorded pages */
+	@AfterClass
+	public static void tearDown() {
+		if (fixtures != null) {
+			fixtures.close();
+		}
+	}
+
 	/** Test parse author method on page without author link. */
 	@Test
 	public void testParseAuthor01() throws Exception {
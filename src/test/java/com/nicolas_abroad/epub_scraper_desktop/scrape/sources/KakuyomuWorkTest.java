@@ -0,0 +1,122 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.sources;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test class for the KakuyomuWork class.
+ *
+ * @author Nicolas
+ */
+public class KakuyomuWorkTest {
+
+	private static final String WORK_URL = "https://kakuyomu.jp/works/1177354054880000000";
+
+	/** Index page with a first untitled entry, two volumes and a subtitle within the second volume */
+	private static final String VOLUME_INDEX = """
+			<html><body><script id="__NEXT_DATA__" type="application/json">
+			{"props":{"pageProps":{"__APOLLO_STATE__":{
+			"Work:1177354054880000000":{"title":"喜びの道","author":{"__ref":"UserAccount:1"},"tableOfContents":[
+				{"__ref":"TableOfContentsChapter:0"},{"__ref":"TableOfContentsChapter:1"},
+				{"__ref":"TableOfContentsChapter:2"},{"__ref":"TableOfContentsChapter:3"}]},
+			"UserAccount:1":{"activityName":"作者"},
+			"TableOfContentsChapter:0":{"chapter":null,"episodeUnions":[{"__ref":"Episode:10"}]},
+			"TableOfContentsChapter:1":{"chapter":{"__ref":"Chapter:1"},"episodeUnions":[{"__ref":"Episode:11"}]},
+			"TableOfContentsChapter:2":{"chapter":{"__ref":"Chapter:2"},"episodeUnions":[]},
+			"TableOfContentsChapter:3":{"chapter":{"__ref":"Chapter:3"},"episodeUnions":[{"__ref":"Episode:12"},{"__ref":"Episode:13"}]},
+			"Chapter:1":{"level":1,"title":"本編"},
+			"Chapter:2":{"level":1,"title":"後日談"},
+			"Chapter:3":{"level":2,"title":"番外"},
+			"Episode:10":{"id":"10","title":"プロローグ","publishedAt":"2021-01-01T00:00:00Z"},
+			"Episode:11":{"id":"11","title":"第1話","publishedAt":"2021-01-02T00:00:00Z"},
+			"Episode:12":{"id":"12","title":"第2話","publishedAt":"2021-01-03T00:00:00Z"},
+			"Episode:13":{"id":"13","title":"第3話","publishedAt":""}
+			}}},"query":{"workId":"1177354054880000000"}}
+			</script></body></html>""";
+
+	private static String episodeUrl(String id) {
+		return WORK_URL + "/episodes/" + id;
+	}
+
+	/** Test every index method reads the same resolved work. */
+	@Test
+	public void testParseIndex() throws Exception {
+		KakuyomuScraper scraper = new KakuyomuScraper();
+		Document document = Jsoup.parse(VOLUME_INDEX, WORK_URL);
+
+		assertEquals("作者", scraper.parseAuthor(document));
+		assertEquals("喜びの道", scraper.parseStoryTitle(document));
+		assertTrue(scraper.hasVolumes(document));
+		assertEquals(List.of("本編", "後日談"), scraper.parseVolumeTitles(document));
+		assertEquals(Map.of(1, List.of(episodeUrl("10")), 2, List.of(episodeUrl("11")),
+						3, List.of(episodeUrl("12"), episodeUrl("13"))),
+				scraper.parseChapterUrlsByVolume(document));
+		assertEquals("2021-01-03T00:00:00Z 第2話", scraper.parseChapterRevisions(document).get(episodeUrl("12")));
+		assertEquals("第3話", scraper.parseChapterRevisions(document).get(episodeUrl("13")));
+	}
+
+	/** Test a story without volumes has a single untitled entry. */
+	@Test
+	public void testParseIndexWithoutVolumes() throws Exception {
+		String json = """
+				{"props":{"pageProps":{"__APOLLO_STATE__":{
+				"Work:1":{"title":"t","author":{"__ref":"UserAccount:1"},"tableOfContents":[{"__ref":"TableOfContentsChapter:0"}]},
+				"UserAccount:1":{"activityName":"a"},
+				"TableOfContentsChapter:0":{"chapter":null,"episodeUnions":[{"__ref":"Episode:10"},{"__ref":"Episode:11"}]},
+				"Episode:10":{"id":"10"},"Episode:11":{"id":"11"}
+				}}},"query":{"workId":"1"}}""";
+		KakuyomuScraper scraper = new KakuyomuScraper();
+		Document document = Jsoup.parse("<script id=\"__NEXT_DATA__\">" + json + "</script>", WORK_URL);
+
+		assertFalse(scraper.hasVolumes(document));
+		assertTrue(scraper.parseVolumeTitles(document).isEmpty());
+		assertEquals(List.of("https://kakuyomu.jp/works/1/episodes/10", "https://kakuyomu.jp/works/1/episodes/11"),
+				scraper.parseAllChapterUrls(document));
+	}
+
+	/** Test the raw page is streamed into the same work as its DOM, skipping unrelated entities. */
+	@Test
+	public void testParsePage() throws Exception {
+		String page = VOLUME_INDEX.replace("\"UserAccount:1\":", """
+				"Tag:1":{"name":"x","nested":{"list":[1,[2],{"__ref":"Tag:2"}]}},
+				"UserAccount:1":""");
+		KakuyomuWork work = KakuyomuWork.parsePage(page.getBytes(StandardCharsets.UTF_8));
+
+		assertEquals(new KakuyomuScraper().getWork(Jsoup.parse(VOLUME_INDEX, WORK_URL)), work);
+		assertEquals("1177354054880000000", work.id());
+		assertEquals(4, work.tableOfContents().size());
+	}
+
+	/** Test a page without Next.js data is left to the DOM parser. */
+	@Test
+	public void testParsePageWithoutData() throws Exception {
+		byte[] page = "<html><body><script>var x = 1;</script></body></html>".getBytes(StandardCharsets.UTF_8);
+		assertNull(KakuyomuWork.parsePage(page));
+	}
+
+	/** Test a page is parsed once, and pages with the same content are parsed separately. */
+	@Test
+	public void testParsedOncePerDocument() throws Exception {
+		KakuyomuScraper scraper = new KakuyomuScraper();
+		Document document = Jsoup.parse(VOLUME_INDEX, WORK_URL);
+		Document sameDocument = Jsoup.parse(VOLUME_INDEX, WORK_URL);
+
+		KakuyomuWork work = scraper.getWork(document);
+		assertSame(work, scraper.getWork(document));
+		assertNotSame(work, scraper.getWork(sameDocument));
+		assertEquals(work, scraper.getWork(sameDocument));
+	}
+
+}
@@ -0,0 +1,90 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.sources;
+
+import com.nicolas_abroad.epub_scraper_desktop.scrape.http.FixtureStore;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.http.HttpTransport;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.http.ReplayServer;
+import org.junit.Assume;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Pages of the scraper tests, recorded in src/test/resources/fixtures.
+ * The scraper.fixtures system property selects where pages come from:
+ * <ul>
+ * <li>replay, the default, replays recorded pages through a replay server, and skips tests whose website was never recorded</li>
+ * <li>strict replays recorded pages like replay, but fails tests whose website was never recorded</li>
+ * <li>record fetches pages from the website and records them, for example mvn test -Dscraper.fixtures=record</li>
+ * <li>live fetches pages from the website</li>
+ * <li>skip skips the scraper tests, for builds without recorded pages nor network access</li>
+ * </ul>
+ *
+ * @author Nicolas
+ */
+final class ScraperFixtures implements AutoCloseable {
+
+	/** Fixture directory, relative to the project directory tests run from */
+	static final Path DIRECTORY = Paths.get("src", "test", "resources", "fixtures");
+
+	private static final String MODE_PROPERTY = "scraper.fixtures";
+
+	private final HttpTransport transport = new HttpTransport();
+
+	private ReplayServer replayServer;
+
+	private ScraperFixtures() {
+	}
+
+	/**
+	 * Point a scraper at the pages of a website.
+	 *
+	 * @param scraper
+	 * @param host host of the website, for example kakuyomu.jp
+	 * @return fixtures, to close once the tests are done
+	 * @throws IOException
+	 */
+	static ScraperFixtures open(EbookScraper scraper, String host) throws IOException {
+		ScraperFixtures fixtures = new ScraperFixtures();
+		FixtureStore fixtureStore = new FixtureStore(DIRECTORY);
+		switch (System.getProperty(MODE_PROPERTY, "replay")) {
+			case "record" -> fixtures.transport.setRecorder(fixtureStore);
+			case "live" -> {
+			}
+			case "skip" -> Assume.assumeTrue("Scraper tests skipped with -D" + MODE_PROPERTY + "=skip", false);
+			case "strict" -> {
+				if (!Files.isDirectory(DIRECTORY.resolve(host))) {
+					throw new IllegalStateException("No recorded page of " + host + " in " + DIRECTORY
+							+ ", record them with -D" + MODE_PROPERTY + "=record");
+				}
+				fixtures.replay(fixtureStore, host);
+			}
+			default -> {
+				Assume.assumeTrue("No recorded page of " + host + " in " + DIRECTORY + ", record them with -D"
+						+ MODE_PROPERTY + "=record", Files.isDirectory(DIRECTORY.resolve(host)));
+				fixtures.replay(fixtureStore, host);
+			}
+		}
+		scraper.setTransport(fixtures.transport);
+		return fixtures;
+	}
+
+	/** Serve recorded pages through a replay server */
+	private void replay(FixtureStore fixtureStore, String host) throws IOException {
+		replayServer = new ReplayServer(0, fixtureStore);
+		replayServer.start();
+		transport.setBaseUrl(replayServer.getBaseUrl());
+		// Replayed pages are served as fast as the server allows
+		transport.getRateLimiter().setHostRate(host, 1000);
+	}
+
+	@Override
+	public void close() {
+		transport.close();
+		if (replayServer != null) {
+			replayServer.close();
+		}
+	}
+
+}
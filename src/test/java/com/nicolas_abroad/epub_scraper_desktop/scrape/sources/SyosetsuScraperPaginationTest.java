@@ -0,0 +1,102 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.sources;
+
+import com.nicolas_abroad.epub_scraper_desktop.scrape.FetchEngine;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.http.HttpTransport;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.jsoup.nodes.Document;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test class for the index pagination of the SyosetsuScraper class, served by a local stand-in of the website.
+ *
+ * @author Nicolas
+ */
+public class SyosetsuScraperPaginationTest {
+
+	private static final int LAST_PAGE = 5;
+
+	/** Stand-in of the website, serving later index pages faster than earlier ones */
+	private HttpServer website;
+
+	private final ExecutorService websiteExecutor = Executors.newCachedThreadPool();
+
+	private final AtomicInteger running = new AtomicInteger();
+
+	private final AtomicInteger maxRunning = new AtomicInteger();
+
+	@Before
+	public void setUp() throws IOException {
+		website = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		website.setExecutor(websiteExecutor);
+		website.createContext("/", this::handleWebsite);
+		website.start();
+	}
+
+	@After
+	public void tearDown() {
+		website.stop(0);
+		websiteExecutor.shutdownNow();
+	}
+
+	private void handleWebsite(HttpExchange exchange) throws IOException {
+		try (exchange) {
+			maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+			String query = exchange.getRequestURI().getQuery();
+			int page = query == null ? 1 : Integer.parseInt(query.substring("p=".length()));
+			try {
+				Thread.sleep((LAST_PAGE - page) * 20L);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			String html = "<div class=\"p-novel\"><h1 class=\"p-novel__title\">t</h1><div class=\"p-eplist\">"
+					+ "<div class=\"p-eplist__sublist\"><a class=\"p-eplist__subtitle\" href=\"/n0000aa/" + page
+					+ "/\">" + page + "</a></div></div>"
+					+ "<div class=\"c-pager\"><a class=\"c-pager__item--last\" href=\"/n0000aa/?p=" + LAST_PAGE
+					+ "\">last</a></div></div>";
+			byte[] body = html.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream output = exchange.getResponseBody()) {
+				output.write(body);
+			}
+		} finally {
+			running.decrementAndGet();
+		}
+	}
+
+	/** Test index pages are merged in page order, fetched within the limits of the run. */
+	@Test
+	public void testMergeIndexPages() throws Exception {
+		SyosetsuScraper scraper = new SyosetsuScraper();
+		try (HttpTransport transport = new HttpTransport(); FetchEngine fetchEngine = new FetchEngine(2, 2)) {
+			transport.setBaseUrl("http://127.0.0.1:" + website.getAddress().getPort());
+			transport.getRateLimiter().setHostRate("ncode.syosetu.com", 1000);
+			scraper.setTransport(transport);
+			scraper.setFetchEngine(fetchEngine);
+
+			Document document = scraper.parseHTMLDocument("https://ncode.syosetu.com/n0000aa/");
+			assertEquals(List.of("https://ncode.syosetu.com/n0000aa/1/", "https://ncode.syosetu.com/n0000aa/2/",
+							"https://ncode.syosetu.com/n0000aa/3/", "https://ncode.syosetu.com/n0000aa/4/",
+							"https://ncode.syosetu.com/n0000aa/5/"),
+					scraper.parseAllChapterUrls(document));
+		}
+		assertTrue(maxRunning.get() <= 2);
+	}
+
+}
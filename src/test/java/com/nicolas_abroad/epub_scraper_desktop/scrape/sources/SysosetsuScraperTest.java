@@ -1,6 +1,7 @@
 package com.nicolas_abroad.epub_scraper_desktop.scrape.sources;
 
 import org.jsoup.nodes.Document;
+import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -30,15 +31,26 @@ public class SysosetsuScraperTest {
 
 	private static Document chapter;
 
+	private static ScraperFixtures fixtures;
+
 	/** Set up html documents */
 	@BeforeClass
 	public static void setUp() throws Exception {
+		fixtures = ScraperFixtures.open(scraper, "ncode.syosetu.com");
 		noVolumeDocument = scraper.parseHTMLDocument("https://ncode.syosetu.com/n0286ee/");
 		volumeDocument = scraper.parseHTMLDocument("https://ncode.syosetu.com/n1419y/");
 		multiplePageVolumeDocument = scraper.parseHTMLDocument("https://ncode.syosetu.com/n9806fw/");
 		chapter = scraper.parseHTMLDocument("https://ncode.syosetu.com/n7594ct/1/");
 	}
 
+	/** Stop serving recorded pages */
+	@AfterClass
+	public static void tearDown() {
+		if (fixtures != null) {
+			fixtures.close();
+		}
+	}
+
 	/** Test parse author method on page without author link. */
 	@Test
 	public void testParseAuthor01() {
@@ -0,0 +1,103 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.sync;
+
+import com.nicolas_abroad.epub_scraper_desktop.ebook.Chapter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test class for the ChapterJournal class.
+ *
+ * @author Nicolas
+ */
+public class ChapterJournalTest {
+
+	/** Temporary folder used as output directory */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static Chapter generateChapter(int chapterNumber, String text) {
+		Chapter chapter = new Chapter(null, "https://ncode.syosetu.com/n0000aa/" + chapterNumber + "/");
+		chapter.setChapterNumber(chapterNumber);
+		chapter.setTitle("第" + chapterNumber + "話");
+		chapter.setText(text);
+		return chapter;
+	}
+
+	/** Test appended chapters are recovered after reopening the journal. */
+	@Test
+	public void testRecover() throws IOException {
+		Path path = ChapterJournal.getPath(folder.getRoot().toPath(), "01 - 喜びの道");
+		// Longer than the 64KB limit of writeUTF
+		String longText = "<p>" + "あ".repeat(30000) + "</p>";
+
+		try (ChapterJournal journal = ChapterJournal.open(path)) {
+			journal.append(generateChapter(1, "<p>テキスト</p>"));
+			journal.append(generateChapter(2, longText));
+			journal.append(generateChapter(3, null));
+		}
+
+		try (ChapterJournal journal = ChapterJournal.open(path)) {
+			List<String> urls = List.copyOf(journal.getChapterUrls());
+			assertEquals(3, urls.size());
+			Chapter chapter = journal.read(urls.get(0));
+			assertEquals(1, chapter.getChapterNumber());
+			assertEquals("第1話", chapter.getTitle());
+			assertEquals("<p>テキスト</p>", chapter.getText());
+			assertEquals(longText, journal.read(urls.get(1)).getText());
+			assertNull(journal.read(urls.get(2)).getText());
+			assertNull(journal.read("https://ncode.syosetu.com/n0000aa/4/"));
+		}
+	}
+
+	/** Test a record torn by a crash is dropped, and appending resumes after the last valid record. */
+	@Test
+	public void testTornRecord() throws IOException {
+		Path path = ChapterJournal.getPath(folder.getRoot().toPath(), "01 - 喜びの道");
+		try (ChapterJournal journal = ChapterJournal.open(path)) {
+			journal.append(generateChapter(1, "<p>テキスト</p>"));
+		}
+		long validSize = Files.size(path);
+		try (ChapterJournal journal = ChapterJournal.open(path)) {
+			journal.append(generateChapter(2, "<p>テキスト</p>"));
+		}
+		// Simulate a crash in the middle of the second record
+		try (var channel = Files.newByteChannel(path, StandardOpenOption.WRITE)) {
+			channel.truncate(Files.size(path) - 5);
+		}
+
+		try (ChapterJournal journal = ChapterJournal.open(path)) {
+			assertEquals(1, journal.getChapterUrls().size());
+			assertEquals(validSize, Files.size(path));
+			journal.append(generateChapter(3, "<p>テキスト</p>"));
+		}
+
+		try (ChapterJournal journal = ChapterJournal.open(path)) {
+			assertEquals(2, journal.getChapterUrls().size());
+		}
+	}
+
+	/** Test the journal is deleted once its volume was generated. */
+	@Test
+	public void testDelete() throws IOException {
+		Path path = ChapterJournal.getPath(folder.getRoot().toPath(), "01 - 喜びの道");
+		try (ChapterJournal journal = ChapterJournal.open(path)) {
+			journal.append(generateChapter(1, "<p>テキスト</p>"));
+			assertTrue(Files.exists(path));
+			journal.delete();
+		}
+		assertFalse(Files.exists(path));
+	}
+
+}
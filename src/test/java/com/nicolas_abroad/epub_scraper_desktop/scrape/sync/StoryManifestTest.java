@@ -0,0 +1,99 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.sync;
+
+import com.nicolas_abroad.epub_scraper_desktop.ebook.Chapter;
+import com.nicolas_abroad.epub_scraper_desktop.ebook.Volume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test class for the StoryManifest class.
+ *
+ * @author Nicolas
+ */
+public class StoryManifestTest {
+
+	private static final String STORY_URL = "https://ncode.syosetu.com/n0000aa/";
+
+	/** Temporary folder used as output directory */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static Volume generateVolume(String... urls) {
+		Volume volume = new Volume(null, List.of(urls));
+		volume.setTitle("01 - 喜びの道");
+		for (String url : urls) {
+			Chapter chapter = new Chapter(null, url);
+			chapter.setTitle("タイトル");
+			chapter.setText("<p>テキスト " + url + "</p>");
+			volume.getChapters().add(chapter);
+		}
+		return volume;
+	}
+
+	private static Map<String, String> generateRevisions(String... urls) {
+		Map<String, String> revisions = new HashMap<>();
+		for (String url : urls) {
+			revisions.put(url, "2024/01/01 00:00");
+		}
+		return revisions;
+	}
+
+	/** Test a recorded volume is unchanged, also after saving and loading the manifest. */
+	@Test
+	public void testIsUnchanged() throws IOException {
+		Path outputDirectory = folder.getRoot().toPath();
+		Volume volume = generateVolume("/1/", "/2/");
+		Map<String, String> revisions = generateRevisions("/1/", "/2/");
+
+		StoryManifest manifest = StoryManifest.load(outputDirectory, STORY_URL);
+		assertFalse(manifest.isUnchanged(volume, revisions));
+		manifest.record(volume, revisions);
+		manifest.save(outputDirectory);
+
+		StoryManifest loadedManifest = StoryManifest.load(outputDirectory, STORY_URL);
+		assertTrue(loadedManifest.isUnchanged(volume, revisions));
+		assertTrue(loadedManifest.hasSameContent(volume));
+	}
+
+	/** Test added and revised chapters are detected. */
+	@Test
+	public void testFindUnchangedChapterUrls() {
+		StoryManifest manifest = new StoryManifest();
+		manifest.setUrl(STORY_URL);
+		manifest.record(generateVolume("/1/", "/2/"), generateRevisions("/1/", "/2/"));
+
+		Volume updatedVolume = generateVolume("/1/", "/2/", "/3/");
+		Map<String, String> revisions = generateRevisions("/1/", "/2/", "/3/");
+		revisions.put("/2/", "2024/01/01 00:00 2024/02/01 00:00 改稿");
+
+		assertFalse(manifest.isUnchanged(updatedVolume, revisions));
+		assertEquals(Set.of("/1/"), manifest.findUnchangedChapterUrls(updatedVolume, revisions));
+	}
+
+	/** Test chapters without revision are never considered unchanged. */
+	@Test
+	public void testWithoutRevisions() {
+		StoryManifest manifest = new StoryManifest();
+		manifest.setUrl(STORY_URL);
+		Volume volume = generateVolume("/1/");
+		manifest.record(volume, Map.of());
+
+		assertFalse(manifest.isUnchanged(volume, Map.of()));
+		assertTrue(manifest.hasSameContent(volume));
+		volume.getChapters().getFirst().setText("<p>改稿</p>");
+		assertFalse(manifest.hasSameContent(volume));
+	}
+
+}
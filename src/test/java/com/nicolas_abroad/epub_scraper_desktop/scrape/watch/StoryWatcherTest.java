@@ -0,0 +1,57 @@
+package com.nicolas_abroad.epub_scraper_desktop.scrape.watch;
+
+import com.nicolas_abroad.epub_scraper_desktop.scrape.batch.BatchJob;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.batch.BatchScheduler;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit test class for the StoryWatcher class.
+ *
+ * @author Nicolas
+ */
+public class StoryWatcherTest {
+
+	/** Test only volumes whose index changed are rebuilt, and failed rebuilds are attempted again. */
+	@Test
+	public void testPollRebuildsChangedVolumes() throws InterruptedException {
+		Map<Integer, Long> fingerprints = new HashMap<>(Map.of(1, 11L, 2, 21L));
+		List<Set<Integer>> rebuilds = new ArrayList<>();
+		AtomicBoolean failRebuild = new AtomicBoolean();
+		BatchScheduler.JobTask rebuilder = job -> {
+			rebuilds.add(job.targetVolumeNumbers());
+			return !failRebuild.get();
+		};
+		Subscription subscription = new Subscription(BatchJob.parse("https://ncode.syosetu.com/n4128bn/"));
+
+		try (StoryWatcher watcher = new StoryWatcher(Duration.ofMinutes(1), new BatchScheduler(1, 1),
+				story -> Map.copyOf(fingerprints), rebuilder)) {
+			// Every volume is synced on the first poll
+			assertEquals(Set.of(1, 2), watcher.poll(subscription));
+			assertEquals(Set.of(), watcher.poll(subscription));
+
+			// A new chapter in the second volume
+			fingerprints.put(2, 22L);
+			failRebuild.set(true);
+			assertEquals(Set.of(), watcher.poll(subscription));
+			failRebuild.set(false);
+			assertEquals(Set.of(2), watcher.poll(subscription));
+
+			// A new volume
+			fingerprints.put(3, 31L);
+			assertEquals(Set.of(3), watcher.poll(subscription));
+		}
+
+		assertEquals(List.of(Set.of(1, 2), Set.of(2), Set.of(2), Set.of(3)), rebuilds);
+	}
+
+}
@@ -0,0 +1,155 @@
+package com.nicolas_abroad.epub_scraper_desktop.server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nicolas_abroad.epub_scraper_desktop.scrape.batch.BatchJob;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test class for the JobServer class.
+ *
+ * @author Nicolas
+ */
+public class JobServerTest {
+
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+	/** Temporary folder holding generated ebooks */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final HttpClient client = HttpClient.newHttpClient();
+
+	/** Released to let running jobs finish */
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private JobServer server;
+
+	@Before
+	public void setUp() throws IOException {
+		Path directory = folder.getRoot().toPath();
+		// Single worker with a single queued job, jobs generate one ebook once released
+		server = new JobServer(0, 1, 1, job -> {
+			release.await();
+			Path file = directory.resolve("job" + job.getId() + ".epub");
+			Files.writeString(file, "epub " + job.getId());
+			job.getProgress().finishVolume(file);
+			return true;
+		});
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		server.close();
+	}
+
+	/** Test jobs are queued, rejected once the queue is full, cancelled, then downloaded once finished. */
+	@Test
+	public void testJobLifecycle() throws Exception {
+		HttpResponse<String> running = send("POST", "/jobs", "{\"url\": \"https://ncode.syosetu.com/n0001aa/\"}");
+		assertEquals(202, running.statusCode());
+		String runningId = json(running).get("id").asText();
+
+		HttpResponse<String> queued = send("POST", "/jobs",
+				"{\"url\": \"https://ncode.syosetu.com/n0002aa/\", \"volumes\": \"1-2\"}");
+		assertEquals(202, queued.statusCode());
+		String queuedId = json(queued).get("id").asText();
+		assertEquals("QUEUED", json(queued).get("state").asText());
+
+		// Admission control
+		assertEquals(503, send("POST", "/jobs", "{\"url\": \"https://ncode.syosetu.com/n0003aa/\"}").statusCode());
+		assertEquals(409, send("POST", "/jobs", "{\"url\": \"https://ncode.syosetu.com/n0001aa/\"}").statusCode());
+		assertEquals(400, send("POST", "/jobs", "{\"url\": \"https://example.com/\"}").statusCode());
+
+		// Cancelled jobs free their place in the queue
+		assertEquals("CANCELLED", json(send("DELETE", "/jobs/" + queuedId, null)).get("state").asText());
+		assertEquals(409, send("DELETE", "/jobs/" + queuedId, null).statusCode());
+		assertEquals(202, send("POST", "/jobs", "{\"url\": \"https://ncode.syosetu.com/n0003aa/\"}").statusCode());
+
+		release.countDown();
+		JsonNode status = awaitFinished(runningId);
+		assertEquals("SUCCEEDED", status.get("state").asText());
+		assertTrue(status.get("error").isNull());
+		assertEquals("job" + runningId + ".epub", status.get("files").get(0).asText());
+
+		HttpResponse<String> download = send("GET", "/jobs/" + runningId + "/download", null);
+		assertEquals(200, download.statusCode());
+		assertEquals("epub " + runningId, download.body());
+		assertEquals(404, send("GET", "/jobs/" + runningId + "/download?file=../secret.epub", null).statusCode());
+		assertEquals(404, send("GET", "/jobs/999", null).statusCode());
+	}
+
+	/** Test the failure of a job is returned with its status. */
+	@Test
+	public void testJobFailure() throws Exception {
+		try (JobServer failingServer = new JobServer(0, 1, 1, job -> {
+			if (job.getTarget().url().endsWith("/n0001aa/")) {
+				throw new IOException("Story not found");
+			}
+			job.getProgress().fail("The following chapters could not be scraped: " + job.getTarget().url() + "1/");
+			return false;
+		})) {
+			failingServer.start();
+			ScrapeJob thrown = failingServer.submit(BatchJob.parse("https://ncode.syosetu.com/n0001aa/"));
+			JsonNode status = awaitFinished(failingServer, thrown.getId());
+			assertEquals("FAILED", status.get("state").asText());
+			assertEquals("java.io.IOException: Story not found", status.get("error").asText());
+
+			ScrapeJob reported = failingServer.submit(BatchJob.parse("https://ncode.syosetu.com/n0002aa/"));
+			status = awaitFinished(failingServer, reported.getId());
+			assertEquals("FAILED", status.get("state").asText());
+			assertEquals("The following chapters could not be scraped: https://ncode.syosetu.com/n0002aa/1/",
+					status.get("error").asText());
+		}
+	}
+
+	private JsonNode awaitFinished(String id) throws Exception {
+		return awaitFinished(server, id);
+	}
+
+	private JsonNode awaitFinished(JobServer jobServer, String id) throws Exception {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		JsonNode status;
+		do {
+			status = json(send(jobServer, "GET", "/jobs/" + id, null));
+			Thread.sleep(10);
+		} while (status.get("finishedAt").isNull() && System.nanoTime() < deadline);
+		assertTrue(status.get("finishedAt").isTextual());
+		return status;
+	}
+
+	private HttpResponse<String> send(String method, String path, String body) throws Exception {
+		return send(server, method, path, body);
+	}
+
+	private HttpResponse<String> send(JobServer jobServer, String method, String path, String body) throws Exception {
+		HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + jobServer.getPort() + path))
+				.method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+				.build();
+		return client.send(request, HttpResponse.BodyHandlers.ofString());
+	}
+
+	private static JsonNode json(HttpResponse<String> response) throws IOException {
+		return OBJECT_MAPPER.readTree(response.body());
+	}
+
+}